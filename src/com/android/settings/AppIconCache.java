@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.app.ActivityManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ComponentInfo;
+import android.content.pm.PackageItemInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.UserHandle;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.Map;
+
+/**
+ * Process-wide cache of application and component icons, shared by all
+ * Settings screens that show them, so that each icon is loaded and decoded
+ * once.  Icons are keyed by package, component, user and screen density.
+ *
+ * <p>Callers get their own {@link Drawable} instance for every lookup, sharing
+ * the underlying bitmap with the cached one, so the same icon can be shown
+ * in several views at once.  The byte budget and trimming only limit what
+ * the cache itself keeps alive, so long-lived holders such as
+ * {@link com.android.settings.applications.ApplicationsState} drop their
+ * instances on trim too, and look them up here again when next shown.
+ */
+public class AppIconCache implements ComponentCallbacks2 {
+    private static final String TAG = "AppIconCache";
+    private static final boolean DEBUG = false;
+
+    // Fraction of the per-process memory class that the cache alone may keep.
+    private static final int BUDGET_DIVISOR = 16;
+
+    private static AppIconCache sInstance;
+
+    private final Context mContext;
+    private final LruCache<String, Drawable> mCache;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE.equals(intent.getAction())
+                    || Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE.equals(
+                            intent.getAction())) {
+                String[] pkgList = intent.getStringArrayExtra(
+                        Intent.EXTRA_CHANGED_PACKAGE_LIST);
+                if (pkgList != null) {
+                    for (String pkg : pkgList) {
+                        invalidate(pkg);
+                    }
+                }
+            } else if (intent.getData() != null) {
+                invalidate(intent.getData().getSchemeSpecificPart());
+            }
+        }
+    };
+
+    public static synchronized AppIconCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppIconCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AppIconCache(Context context) {
+        mContext = context;
+        final ActivityManager am =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        final int budget = am.getMemoryClass() * 1024 * 1024 / BUDGET_DIVISOR;
+        mCache = new LruCache<String, Drawable>(budget) {
+            @Override
+            protected int sizeOf(String key, Drawable icon) {
+                return getByteCount(icon);
+            }
+        };
+
+        mContext.registerComponentCallbacks(this);
+
+        IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        mContext.registerReceiver(mPackageReceiver, filter);
+        IntentFilter sdFilter = new IntentFilter(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        sdFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+        mContext.registerReceiver(mPackageReceiver, sdFilter);
+    }
+
+    /**
+     * Returns the icon of the given application or component, loading it
+     * through the {@link PackageManager} if it is not cached.
+     */
+    public Drawable loadIcon(PackageManager pm, PackageItemInfo info) {
+        final String key = buildKey(info.packageName,
+                info instanceof ApplicationInfo ? null : info.name, getUserId(info));
+        Drawable icon = mCache.get(key);
+        if (icon == null) {
+            icon = info.loadIcon(pm);
+            if (icon == null) {
+                return null;
+            }
+            mCache.put(key, icon);
+        }
+        return newInstance(icon);
+    }
+
+    /**
+     * Like {@link PackageManager#getApplicationIcon(String)}, but cached.
+     */
+    public Drawable getApplicationIcon(PackageManager pm, String packageName)
+            throws NameNotFoundException {
+        final String key = buildKey(packageName, null, UserHandle.myUserId());
+        Drawable icon = mCache.get(key);
+        if (icon == null) {
+            icon = pm.getApplicationIcon(packageName);
+            mCache.put(key, icon);
+        }
+        return newInstance(icon);
+    }
+
+    /**
+     * Drops all icons of the given package.
+     */
+    public void invalidate(String packageName) {
+        final String prefix = packageName + '/';
+        for (Map.Entry<String, Drawable> entry : mCache.snapshot().entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                mCache.remove(entry.getKey());
+            }
+        }
+    }
+
+    public int hitCount() {
+        return mCache.hitCount();
+    }
+
+    public int missCount() {
+        return mCache.missCount();
+    }
+
+    public int evictionCount() {
+        return mCache.evictionCount();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            mCache.evictAll();
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_UI_HIDDEN) {
+            mCache.trimToSize(mCache.maxSize() / 2);
+        } else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            // Still in the foreground; icons not on screen can be loaded again.
+            mCache.evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            mCache.trimToSize(mCache.maxSize() / 2);
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            mCache.trimToSize(mCache.maxSize() * 3 / 4);
+        }
+        if (DEBUG) Log.d(TAG, "onTrimMemory(" + level + "): " + this);
+    }
+
+    @Override
+    public void onLowMemory() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // The density is part of the key.
+    }
+
+    @Override
+    public String toString() {
+        return mCache.toString() + " size=" + mCache.size()
+                + " evictions=" + mCache.evictionCount();
+    }
+
+    private String buildKey(String packageName, String componentName, int userId) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append(packageName).append('/');
+        if (componentName != null) {
+            sb.append(componentName);
+        }
+        sb.append('#').append(userId);
+        sb.append('@').append(mContext.getResources().getDisplayMetrics().densityDpi);
+        return sb.toString();
+    }
+
+    private static int getUserId(PackageItemInfo info) {
+        if (info instanceof ApplicationInfo) {
+            return UserHandle.getUserId(((ApplicationInfo) info).uid);
+        } else if (info instanceof ComponentInfo
+                && ((ComponentInfo) info).applicationInfo != null) {
+            return UserHandle.getUserId(((ComponentInfo) info).applicationInfo.uid);
+        }
+        return UserHandle.myUserId();
+    }
+
+    private static int getByteCount(Drawable icon) {
+        if (icon instanceof BitmapDrawable) {
+            final Bitmap bitmap = ((BitmapDrawable) icon).getBitmap();
+            if (bitmap != null) {
+                return bitmap.getByteCount();
+            }
+        }
+        // Assume ARGB_8888 for anything that is not backed by a bitmap.
+        return Math.max(1, icon.getIntrinsicWidth() * icon.getIntrinsicHeight() * 4);
+    }
+
+    private Drawable newInstance(Drawable icon) {
+        final Drawable.ConstantState state = icon.getConstantState();
+        return state != null ? state.newDrawable(mContext.getResources()) : icon;
+    }
+}
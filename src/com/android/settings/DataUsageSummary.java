@@ -95,8 +95,8 @@ import android.text.format.DateUtils;
 import android.text.format.Formatter;
 import android.text.format.Time;
 import android.util.Log;
-import android.util.SparseArray;
 import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -133,16 +133,19 @@ import com.android.settings.net.ChartData;
 import com.android.settings.net.ChartDataLoader;
 import com.android.settings.net.DataUsageMeteredSettings;
 import com.android.settings.net.NetworkPolicyEditor;
+import com.android.settings.net.NetworkStatsHistoryCache;
 import com.android.settings.net.SummaryForAllUidLoader;
 import com.android.settings.net.UidDetail;
 import com.android.settings.net.UidDetailProvider;
+import com.android.settings.net.UidSummaryIndex;
+import com.android.settings.net.UidSummaryIndexLoader;
 import com.android.settings.widget.ChartDataUsageView;
 import com.android.settings.widget.ChartDataUsageView.DataUsageChartListener;
 import com.android.settings.widget.PieChartView;
 import com.google.android.collect.Lists;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 
@@ -183,6 +186,10 @@ public class DataUsageSummary extends Fragment {
 
     private static final int LOADER_CHART_DATA = 2;
     private static final int LOADER_SUMMARY = 3;
+    private static final int LOADER_SUMMARY_INDEX = 4;
+
+    /** Delay before asking for exact usage of a range the index can't answer. */
+    private static final long EXACT_SUMMARY_DELAY_MILLIS = 250;
 
     private INetworkManagementService mNetworkService;
     private INetworkStatsService mStatsService;
@@ -240,6 +247,8 @@ public class DataUsageSummary extends Fragment {
 
     private NetworkTemplate mTemplate;
     private ChartData mChartData;
+    private UidSummaryIndex mSummaryIndex;
+    private int[] mRestrictedUids = new int[0];
 
     private AppItem mCurrentApp = null;
 
@@ -423,6 +432,7 @@ public class DataUsageSummary extends Fragment {
                     // wait a few seconds before kicking off
                     Thread.sleep(2 * DateUtils.SECOND_IN_MILLIS);
                     mStatsService.forceUpdate();
+                    NetworkStatsHistoryCache.getInstance().invalidate();
                 } catch (InterruptedException e) {
                 } catch (RemoteException e) {
                 }
@@ -432,6 +442,8 @@ public class DataUsageSummary extends Fragment {
             @Override
             protected void onPostExecute(Void result) {
                 if (isAdded()) {
+                    // rebuild index against updated stats
+                    getLoaderManager().destroyLoader(LOADER_SUMMARY_INDEX);
                     updateBody();
                 }
             }
@@ -565,9 +577,11 @@ public class DataUsageSummary extends Fragment {
         mDataEnabledView = null;
         mDisableAtLimitView = null;
 
-        mUidDetailProvider.clearCache();
+        // Details stay cached for the next instance, the provider
+        // invalidates them when packages change.
         mUidDetailProvider = null;
 
+        mListView.removeCallbacks(mExactSummaryRunnable);
         TrafficStats.closeQuietly(mStatsSession);
 
         if (this.isRemoving()) {
@@ -1136,7 +1150,16 @@ public class DataUsageSummary extends Fragment {
      * app details.
      */
     private void updateDetailData() {
-        if (LOGD) Log.d(TAG, "updateDetailData()");
+        updateDetailData(false);
+    }
+
+    /**
+     * Update details for the current inspection range. While
+     * {@code sweeping}, only local data is used and the service is never
+     * queried.
+     */
+    private void updateDetailData(boolean sweeping) {
+        if (LOGD) Log.d(TAG, "updateDetailData(" + sweeping + ")");
 
         final long start = mChart.getInspectStart();
         final long end = mChart.getInspectEnd();
@@ -1173,9 +1196,7 @@ public class DataUsageSummary extends Fragment {
                 entry = mChartData.network.getValues(start, end, now, null);
             }
 
-            // kick off loader for detailed stats
-            getLoaderManager().restartLoader(LOADER_SUMMARY,
-                    SummaryForAllUidLoader.buildArgs(mTemplate, start, end), mSummaryCallbacks);
+            updateSummaryList(start, end, sweeping);
         }
 
         final long totalBytes = entry != null ? entry.rxBytes + entry.txBytes : 0;
@@ -1196,6 +1217,59 @@ public class DataUsageSummary extends Fragment {
         ensureLayoutTransitions();
     }
 
+    /**
+     * Bind {@link #mAdapter} to usage during the given range, answering from
+     * {@link #mSummaryIndex} when it covers the range, and asking the service
+     * for exact usage once the range is no longer changing.
+     */
+    private void updateSummaryList(long start, long end, boolean sweeping) {
+        mListView.removeCallbacks(mExactSummaryRunnable);
+        if (!sweeping) {
+            mRestrictedUids = mPolicyManager.getUidsWithPolicy(POLICY_REJECT_METERED_BACKGROUND);
+        }
+
+        if (mSummaryIndex != null && mSummaryIndex.covers(mTemplate, start, end)) {
+            mAdapter.bindStats(mSummaryIndex.getSummary(start, end), mRestrictedUids);
+            updateEmptyVisible();
+
+            if (!sweeping && !mSummaryIndex.isAligned(start, end)) {
+                mListView.postDelayed(mExactSummaryRunnable, EXACT_SUMMARY_DELAY_MILLIS);
+            }
+        } else if (!sweeping) {
+            mExactSummaryRunnable.run();
+        }
+
+        // build index for the selected cycle, unless already loading
+        final Object item = mCycleSpinner.getSelectedItem();
+        if (item instanceof CycleItem && !(item instanceof CycleChangeItem)) {
+            final CycleItem cycle = (CycleItem) item;
+            final Loader<UidSummaryIndex> loader = getLoaderManager().getLoader(
+                    LOADER_SUMMARY_INDEX);
+            if (!(loader instanceof UidSummaryIndexLoader) || !((UidSummaryIndexLoader) loader)
+                    .isFor(mTemplate, cycle.start, cycle.end)) {
+                mSummaryIndex = null;
+                getLoaderManager().restartLoader(LOADER_SUMMARY_INDEX,
+                        UidSummaryIndexLoader.buildArgs(mTemplate, cycle.start, cycle.end),
+                        mSummaryIndexCallbacks);
+            }
+        }
+    }
+
+    private final Runnable mExactSummaryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // kick off loader for detailed stats
+            getLoaderManager().restartLoader(LOADER_SUMMARY, SummaryForAllUidLoader.buildArgs(
+                    mTemplate, mChart.getInspectStart(), mChart.getInspectEnd()),
+                    mSummaryCallbacks);
+        }
+    };
+
+    private void updateEmptyVisible() {
+        final boolean isEmpty = mAdapter.isEmpty() && !isAppDetailMode();
+        mEmpty.setVisibility(isEmpty ? View.VISIBLE : View.GONE);
+    }
+
     private final LoaderCallbacks<ChartData> mChartDataCallbacks = new LoaderCallbacks<
             ChartData>() {
         @Override
@@ -1236,6 +1310,11 @@ public class DataUsageSummary extends Fragment {
 
         @Override
         public void onLoadFinished(Loader<NetworkStats> loader, NetworkStats data) {
+            // ignore results for a range that was since answered from index
+            if (!((SummaryForAllUidLoader) loader).isFor(
+                    mTemplate, mChart.getInspectStart(), mChart.getInspectEnd())) {
+                return;
+            }
             final int[] restrictedUids = mPolicyManager.getUidsWithPolicy(
                     POLICY_REJECT_METERED_BACKGROUND);
             mAdapter.bindStats(data, restrictedUids);
@@ -1247,10 +1326,23 @@ public class DataUsageSummary extends Fragment {
             mAdapter.bindStats(null, new int[0]);
             updateEmptyVisible();
         }
+    };
+
+    private final LoaderCallbacks<UidSummaryIndex> mSummaryIndexCallbacks = new LoaderCallbacks<
+            UidSummaryIndex>() {
+        @Override
+        public Loader<UidSummaryIndex> onCreateLoader(int id, Bundle args) {
+            return new UidSummaryIndexLoader(getActivity(), mStatsSession, args);
+        }
 
-        private void updateEmptyVisible() {
-            final boolean isEmpty = mAdapter.isEmpty() && !isAppDetailMode();
-            mEmpty.setVisibility(isEmpty ? View.VISIBLE : View.GONE);
+        @Override
+        public void onLoadFinished(Loader<UidSummaryIndex> loader, UidSummaryIndex data) {
+            mSummaryIndex = data;
+        }
+
+        @Override
+        public void onLoaderReset(Loader<UidSummaryIndex> loader) {
+            mSummaryIndex = null;
         }
     };
 
@@ -1287,6 +1379,11 @@ public class DataUsageSummary extends Fragment {
             updateDetailData();
         }
 
+        @Override
+        public void onInspectRangeChanging() {
+            updateDetailData(true);
+        }
+
         @Override
         public void onWarningChanged() {
             setPolicyWarningBytes(mChart.getWarningBytes());
@@ -1476,7 +1573,26 @@ public class DataUsageSummary extends Fragment {
         private final UidDetailProvider mProvider;
         private final int mInsetSide;
 
-        private ArrayList<AppItem> mItems = Lists.newArrayList();
+        /*
+         * Usage is reduced into parallel arrays indexed by slot, one slot per
+         * collapse key, which are reused across binds. AppItems are only
+         * created for rows the list actually asks for.
+         */
+        private final SparseIntArray mSlots = new SparseIntArray();
+        private int mSlotCount;
+        private int[] mKeys = new int[0];
+        private long[] mTotals = new long[0];
+        private boolean[] mRestricted = new boolean[0];
+        /** Head of each slot's uid list, as index into {@link #mUidNext}. */
+        private int[] mUidHead = new int[0];
+        private int[] mUidNext = new int[0];
+        private int[] mUidValue = new int[0];
+        private int mUidCount;
+
+        /** Slots in display order. */
+        private int[] mOrder = new int[0];
+        private int[] mOrderScratch = new int[0];
+        private AppItem[] mItems = new AppItem[0];
         private long mLargest;
 
         public DataUsageAdapter(UidDetailProvider provider, int insetSide) {
@@ -1488,10 +1604,11 @@ public class DataUsageSummary extends Fragment {
          * Bind the given {@link NetworkStats}, or {@code null} to clear list.
          */
         public void bindStats(NetworkStats stats, int[] restrictedUids) {
-            mItems.clear();
+            mSlots.clear();
+            mSlotCount = 0;
+            mUidCount = 0;
 
             final int currentUserId = ActivityManager.getCurrentUser();
-            final SparseArray<AppItem> knownItems = new SparseArray<AppItem>();
 
             NetworkStats.Entry entry = null;
             final int size = stats != null ? stats.size() : 0;
@@ -1513,48 +1630,129 @@ public class DataUsageSummary extends Fragment {
                     collapseKey = android.os.Process.SYSTEM_UID;
                 }
 
-                AppItem item = knownItems.get(collapseKey);
-                if (item == null) {
-                    item = new AppItem(collapseKey);
-                    mItems.add(item);
-                    knownItems.put(item.key, item);
+                int slot = mSlots.get(collapseKey, -1);
+                if (slot < 0) {
+                    slot = addSlot(collapseKey, 0);
                 }
-                item.addUid(uid);
-                item.total += entry.rxBytes + entry.txBytes;
+                addUid(slot, uid);
+                mTotals[slot] += entry.rxBytes + entry.txBytes;
             }
 
             for (int uid : restrictedUids) {
                 // Only splice in restricted state for current user
                 if (UserHandle.getUserId(uid) != currentUserId) continue;
 
-                AppItem item = knownItems.get(uid);
-                if (item == null) {
-                    item = new AppItem(uid);
-                    item.total = -1;
-                    mItems.add(item);
-                    knownItems.put(item.key, item);
+                int slot = mSlots.get(uid, -1);
+                if (slot < 0) {
+                    slot = addSlot(uid, -1);
                 }
-                item.restricted = true;
+                mRestricted[slot] = true;
             }
 
-            Collections.sort(mItems);
-            mLargest = (mItems.size() > 0) ? mItems.get(0).total : 0;
+            if (mOrder.length < mSlotCount) {
+                mOrder = new int[mKeys.length];
+                mOrderScratch = new int[mKeys.length];
+            }
+            for (int i = 0; i < mSlotCount; i++) {
+                mOrder[i] = i;
+            }
+            sortByTotal();
+
+            if (mItems.length < mSlotCount) {
+                mItems = new AppItem[mKeys.length];
+            } else {
+                Arrays.fill(mItems, null);
+            }
+
+            mLargest = (mSlotCount > 0) ? mTotals[mOrder[0]] : 0;
             notifyDataSetChanged();
         }
 
+        private int addSlot(int key, long total) {
+            if (mSlotCount == mKeys.length) {
+                final int capacity = Math.max(16, mSlotCount * 2);
+                mKeys = Arrays.copyOf(mKeys, capacity);
+                mTotals = Arrays.copyOf(mTotals, capacity);
+                mRestricted = Arrays.copyOf(mRestricted, capacity);
+                mUidHead = Arrays.copyOf(mUidHead, capacity);
+            }
+            final int slot = mSlotCount++;
+            mKeys[slot] = key;
+            mTotals[slot] = total;
+            mRestricted[slot] = false;
+            mUidHead[slot] = -1;
+            mSlots.put(key, slot);
+            return slot;
+        }
+
+        private void addUid(int slot, int uid) {
+            // rows for the same uid are usually adjacent; skip repeats
+            final int head = mUidHead[slot];
+            if (head >= 0 && mUidValue[head] == uid) {
+                return;
+            }
+            if (mUidCount == mUidValue.length) {
+                final int capacity = Math.max(16, mUidCount * 2);
+                mUidValue = Arrays.copyOf(mUidValue, capacity);
+                mUidNext = Arrays.copyOf(mUidNext, capacity);
+            }
+            final int index = mUidCount++;
+            mUidValue[index] = uid;
+            mUidNext[index] = head;
+            mUidHead[slot] = index;
+        }
+
+        /**
+         * Stable merge sort of {@link #mOrder} by descending total, so slots
+         * with equal usage keep the order they were first seen in.
+         */
+        private void sortByTotal() {
+            int[] src = mOrder;
+            int[] dst = mOrderScratch;
+            final int n = mSlotCount;
+            for (int width = 1; width < n; width *= 2) {
+                for (int lo = 0; lo < n; lo += 2 * width) {
+                    final int mid = Math.min(lo + width, n);
+                    final int hi = Math.min(lo + 2 * width, n);
+                    int i = lo, j = mid, k = lo;
+                    while (i < mid && j < hi) {
+                        dst[k++] = (mTotals[src[j]] > mTotals[src[i]]) ? src[j++] : src[i++];
+                    }
+                    while (i < mid) dst[k++] = src[i++];
+                    while (j < hi) dst[k++] = src[j++];
+                }
+                final int[] temp = src;
+                src = dst;
+                dst = temp;
+            }
+            mOrder = src;
+            mOrderScratch = dst;
+        }
+
         @Override
         public int getCount() {
-            return mItems.size();
+            return mSlotCount;
         }
 
         @Override
         public Object getItem(int position) {
-            return mItems.get(position);
+            AppItem item = mItems[position];
+            if (item == null) {
+                final int slot = mOrder[position];
+                item = new AppItem(mKeys[slot]);
+                item.total = mTotals[slot];
+                item.restricted = mRestricted[slot];
+                for (int i = mUidHead[slot]; i >= 0; i = mUidNext[i]) {
+                    item.addUid(mUidValue[i]);
+                }
+                mItems[position] = item;
+            }
+            return item;
         }
 
         @Override
         public long getItemId(int position) {
-            return mItems.get(position).key;
+            return mKeys[mOrder[position]];
         }
 
         @Override
@@ -1575,8 +1773,8 @@ public class DataUsageSummary extends Fragment {
                     android.R.id.progress);
 
             // kick off async load of app details
-            final AppItem item = mItems.get(position);
-            UidDetailTask.bindView(mProvider, item, convertView);
+            final AppItem item = (AppItem) getItem(position);
+            UidDetailBinder.bindView(mProvider, item, convertView);
 
             if (item.restricted && item.total <= 0) {
                 text1.setText(R.string.data_usage_app_restricted);
@@ -2135,33 +2333,33 @@ public class DataUsageSummary extends Fragment {
     }
 
     /**
-     * Background task that loads {@link UidDetail}, binding to
-     * {@link DataUsageAdapter} row item when finished.
+     * Binds {@link UidDetail} to a {@link DataUsageAdapter} row, loading it
+     * asynchronously through {@link UidDetailProvider} if needed.  Requests
+     * for the same UID from several rows are resolved only once.
      */
-    private static class UidDetailTask extends AsyncTask<Void, Void, UidDetail> {
-        private final UidDetailProvider mProvider;
-        private final AppItem mItem;
+    private static class UidDetailBinder implements UidDetailProvider.Callback {
         private final View mTarget;
+        private int mKey;
 
-        private UidDetailTask(UidDetailProvider provider, AppItem item, View target) {
-            mProvider = checkNotNull(provider);
-            mItem = checkNotNull(item);
+        private UidDetailBinder(View target) {
             mTarget = checkNotNull(target);
         }
 
         public static void bindView(
                 UidDetailProvider provider, AppItem item, View target) {
-            final UidDetailTask existing = (UidDetailTask) target.getTag();
-            if (existing != null) {
-                existing.cancel(false);
+            UidDetailBinder binder = (UidDetailBinder) target.getTag();
+            if (binder == null) {
+                binder = new UidDetailBinder(target);
+                target.setTag(binder);
             }
+            binder.mKey = item.key;
 
             final UidDetail cachedDetail = provider.getUidDetail(item.key, false);
             if (cachedDetail != null) {
                 bindView(cachedDetail, target);
             } else {
-                target.setTag(new UidDetailTask(provider, item, target).executeOnExecutor(
-                        AsyncTask.THREAD_POOL_EXECUTOR));
+                bindView(null, target);
+                provider.getUidDetailAsync(item.key, binder);
             }
         }
 
@@ -2179,18 +2377,11 @@ public class DataUsageSummary extends Fragment {
         }
 
         @Override
-        protected void onPreExecute() {
-            bindView(null, mTarget);
-        }
-
-        @Override
-        protected UidDetail doInBackground(Void... params) {
-            return mProvider.getUidDetail(mItem.key, true);
-        }
-
-        @Override
-        protected void onPostExecute(UidDetail result) {
-            bindView(result, mTarget);
+        public void onUidDetailLoaded(int uid, UidDetail detail) {
+            // Ignore results for a row that has been recycled since.
+            if (uid == mKey) {
+                bindView(detail, mTarget);
+            }
         }
     }
 
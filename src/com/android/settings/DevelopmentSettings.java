@@ -39,7 +39,6 @@ import android.net.NetworkUtils;
 import android.net.wifi.IWifiManager;
 import android.net.wifi.WifiInfo;
 import android.hardware.usb.IUsbManager;
-import android.os.AsyncTask;
 import android.os.BatteryManager;
 import android.os.Build;
 import android.os.Bundle;
@@ -184,6 +183,7 @@ public class DevelopmentSettings extends PreferenceFragment
     private CheckBoxPreference mShowTouches;
     private CheckBoxPreference mShowScreenUpdates;
     private CheckBoxPreference mDisableOverlays;
+    private final SurfaceFlingerDebugState mFlingerState = new SurfaceFlingerDebugState();
     private CheckBoxPreference mShowCpuUsage;
     private CheckBoxPreference mShowCpuInfo;
     private CheckBoxPreference mForceHardwareUi;
@@ -283,6 +283,12 @@ public class DevelopmentSettings extends PreferenceFragment
         mShowTouches = findAndInitCheckboxPref(SHOW_TOUCHES_KEY);
         mShowScreenUpdates = findAndInitCheckboxPref(SHOW_SCREEN_UPDATES_KEY);
         mDisableOverlays = findAndInitCheckboxPref(DISABLE_OVERLAYS_KEY);
+        mFlingerState.setListener(new SurfaceFlingerDebugState.Listener() {
+            @Override
+            public void onFlingerStateChanged(SurfaceFlingerDebugState state) {
+                updateFlingerCheckBoxes();
+            }
+        });
         mShowCpuUsage = findAndInitCheckboxPref(SHOW_CPU_USAGE_KEY);
         mShowCpuInfo = findAndInitCheckboxPref(SHOW_CPU_INFO_KEY);
         mForceHardwareUi = findAndInitCheckboxPref(FORCE_HARDWARE_UI_KEY);
@@ -726,63 +732,23 @@ public class DevelopmentSettings extends PreferenceFragment
     }
 
     private void updateFlingerOptions() {
-        // magic communication with surface flinger.
-        try {
-            IBinder flinger = ServiceManager.getService("SurfaceFlinger");
-            if (flinger != null) {
-                Parcel data = Parcel.obtain();
-                Parcel reply = Parcel.obtain();
-                data.writeInterfaceToken("android.ui.ISurfaceComposer");
-                flinger.transact(1010, data, reply, 0);
-                @SuppressWarnings("unused")
-                int showCpu = reply.readInt();
-                @SuppressWarnings("unused")
-                int enableGL = reply.readInt();
-                int showUpdates = reply.readInt();
-                updateCheckBox(mShowScreenUpdates, showUpdates != 0);
-                @SuppressWarnings("unused")
-                int showBackground = reply.readInt();
-                int disableOverlays = reply.readInt();
-                updateCheckBox(mDisableOverlays, disableOverlays != 0);
-                reply.recycle();
-                data.recycle();
-            }
-        } catch (RemoteException ex) {
+        // magic communication with surface flinger; one read for all options.
+        if (mFlingerState.refresh()) {
+            updateFlingerCheckBoxes();
         }
     }
 
+    private void updateFlingerCheckBoxes() {
+        updateCheckBox(mShowScreenUpdates, mFlingerState.getShowUpdates());
+        updateCheckBox(mDisableOverlays, mFlingerState.getDisableOverlays());
+    }
+
     private void writeShowUpdatesOption() {
-        try {
-            IBinder flinger = ServiceManager.getService("SurfaceFlinger");
-            if (flinger != null) {
-                Parcel data = Parcel.obtain();
-                data.writeInterfaceToken("android.ui.ISurfaceComposer");
-                final int showUpdates = mShowScreenUpdates.isChecked() ? 1 : 0; 
-                data.writeInt(showUpdates);
-                flinger.transact(1002, data, null, 0);
-                data.recycle();
-
-                updateFlingerOptions();
-            }
-        } catch (RemoteException ex) {
-        }
+        mFlingerState.setShowUpdates(mShowScreenUpdates.isChecked());
     }
 
     private void writeDisableOverlaysOption() {
-        try {
-            IBinder flinger = ServiceManager.getService("SurfaceFlinger");
-            if (flinger != null) {
-                Parcel data = Parcel.obtain();
-                data.writeInterfaceToken("android.ui.ISurfaceComposer");
-                final int disableOverlays = mDisableOverlays.isChecked() ? 1 : 0; 
-                data.writeInt(disableOverlays);
-                flinger.transact(1008, data, null, 0);
-                data.recycle();
-
-                updateFlingerOptions();
-            }
-        } catch (RemoteException ex) {
-        }
+        mFlingerState.setDisableOverlays(mDisableOverlays.isChecked());
     }
 
     private void updateHardwareUiOptions() {
@@ -791,7 +757,7 @@ public class DevelopmentSettings extends PreferenceFragment
     
     private void writeHardwareUiOptions() {
         SystemProperties.set(HARDWARE_UI_PROPERTY, mForceHardwareUi.isChecked() ? "true" : "false");
-        pokeSystemProperties();
+        pokeSystemProperties(SystemPropPoker.APP_PROCESS_SERVICES);
     }
 
     private void updateMsaaOptions() {
@@ -800,7 +766,7 @@ public class DevelopmentSettings extends PreferenceFragment
 
     private void writeMsaaOptions() {
         SystemProperties.set(MSAA_PROPERTY, mForceMsaa.isChecked() ? "true" : "false");
-        pokeSystemProperties();
+        pokeSystemProperties(SystemPropPoker.APP_PROCESS_SERVICES);
     }
 
     private void updateTrackFrameTimeOptions() {
@@ -824,7 +790,7 @@ public class DevelopmentSettings extends PreferenceFragment
     private void writeTrackFrameTimeOptions(Object newValue) {
         SystemProperties.set(HardwareRenderer.PROFILE_PROPERTY,
                 newValue == null ? "" : newValue.toString());
-        pokeSystemProperties();
+        pokeSystemProperties(SystemPropPoker.APP_PROCESS_SERVICES);
         updateTrackFrameTimeOptions();
     }
 
@@ -850,7 +816,7 @@ public class DevelopmentSettings extends PreferenceFragment
     private void writeShowNonRectClipOptions(Object newValue) {
         SystemProperties.set(HardwareRenderer.DEBUG_SHOW_NON_RECTANGULAR_CLIP_PROPERTY,
                 newValue == null ? "" : newValue.toString());
-        pokeSystemProperties();
+        pokeSystemProperties(SystemPropPoker.APP_PROCESS_SERVICES);
         updateShowNonRectClipOptions();
     }
 
@@ -862,7 +828,7 @@ public class DevelopmentSettings extends PreferenceFragment
     private void writeShowHwScreenUpdatesOptions() {
         SystemProperties.set(HardwareRenderer.DEBUG_DIRTY_REGIONS_PROPERTY,
                 mShowHwScreenUpdates.isChecked() ? "true" : null);
-        pokeSystemProperties();
+        pokeSystemProperties(SystemPropPoker.APP_PROCESS_SERVICES);
     }
 
     private void updateShowHwLayersUpdatesOptions() {
@@ -873,7 +839,7 @@ public class DevelopmentSettings extends PreferenceFragment
     private void writeShowHwLayersUpdatesOptions() {
         SystemProperties.set(HardwareRenderer.DEBUG_SHOW_LAYERS_UPDATES_PROPERTY,
                 mShowHwLayersUpdates.isChecked() ? "true" : null);
-        pokeSystemProperties();
+        pokeSystemProperties(SystemPropPoker.APP_PROCESS_SERVICES);
     }
 
     private void updateShowHwOverdrawOptions() {
@@ -884,7 +850,7 @@ public class DevelopmentSettings extends PreferenceFragment
     private void writeShowHwOverdrawOptions() {
         SystemProperties.set(HardwareRenderer.DEBUG_SHOW_OVERDRAW_PROPERTY,
                 mShowHwOverdraw.isChecked() ? "true" : null);
-        pokeSystemProperties();
+        pokeSystemProperties(SystemPropPoker.APP_PROCESS_SERVICES);
     }
 
     private void updateDebugLayoutOptions() {
@@ -895,7 +861,7 @@ public class DevelopmentSettings extends PreferenceFragment
     private void writeDebugLayoutOptions() {
         SystemProperties.set(View.DEBUG_LAYOUT_PROPERTY,
                 mDebugLayout.isChecked() ? "true" : "false");
-        pokeSystemProperties();
+        pokeSystemProperties(SystemPropPoker.APP_PROCESS_SERVICES);
     }
 
     private void updateCpuUsageOptions() {
@@ -1078,7 +1044,7 @@ public class DevelopmentSettings extends PreferenceFragment
         if (mExperimentalWebView != null) {
             SystemProperties.set(WebViewFactory.WEBVIEW_EXPERIMENTAL_PROPERTY,
                     mExperimentalWebView.isChecked() ? "true" : null);
-            pokeSystemProperties();
+            pokeSystemProperties(SystemPropPoker.APP_PROCESS_SERVICES);
         }
     }
 
@@ -1383,36 +1349,15 @@ public class DevelopmentSettings extends PreferenceFragment
     }
 
     void pokeSystemProperties() {
-        if (!mDontPokeProperties) {
-            //noinspection unchecked
-            (new SystemPropPoker()).execute();
-        }
+        pokeSystemProperties(null);
     }
 
-    static class SystemPropPoker extends AsyncTask<Void, Void, Void> {
-        @Override
-        protected Void doInBackground(Void... params) {
-            String[] services;
-            try {
-                services = ServiceManager.listServices();
-            } catch (RemoteException e) {
-                return null;
-            }
-            for (String service : services) {
-                IBinder obj = ServiceManager.checkService(service);
-                if (obj != null) {
-                    Parcel data = Parcel.obtain();
-                    try {
-                        obj.transact(IBinder.SYSPROPS_TRANSACTION, data, null, 0);
-                    } catch (RemoteException e) {
-                    } catch (Exception e) {
-                        Log.i(TAG, "Somone wrote a bad service '" + service
-                                + "' that doesn't like to be poked: " + e);
-                    }
-                    data.recycle();
-                }
-            }
-            return null;
+    /**
+     * Tell the given services, or all if null, that properties changed.
+     */
+    void pokeSystemProperties(String[] services) {
+        if (!mDontPokeProperties) {
+            SystemPropPoker.getInstance().poke(services);
         }
     }
 
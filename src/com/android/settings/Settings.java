@@ -47,12 +47,9 @@ import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
-import android.content.pm.ResolveInfo;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
-import android.os.INetworkManagementService;
-import android.os.RemoteException;
-import android.os.ServiceManager;
+import android.os.Trace;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.preference.Preference;
@@ -81,7 +78,7 @@ import java.util.List;
  * Top-level settings activity to handle single pane and double pane UI layout.
  */
 public class Settings extends PreferenceActivity
-        implements ButtonBarHandler, OnAccountsUpdateListener {
+        implements ButtonBarHandler, OnAccountsUpdateListener, SettingsHeaderCache.Listener {
 
     private static final String LOG_TAG = "Settings";
 
@@ -147,8 +144,11 @@ public class Settings extends PreferenceActivity
     protected HashMap<Integer, Integer> mHeaderIndexMap = new HashMap<Integer, Integer>();
 
     private AuthenticatorHelper mAuthenticatorHelper;
+    private SettingsHeaderCache mHeaderCache;
     private Header mLastHeader;
     private boolean mListeningToAccountUpdates;
+    // Fresh headers are built by onCreate, so the first resume needn't rebuild them.
+    private boolean mRebuildHeadersOnResume;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -159,6 +159,10 @@ public class Settings extends PreferenceActivity
         mAuthenticatorHelper = new AuthenticatorHelper();
         mAuthenticatorHelper.updateAuthDescriptions(this);
         mAuthenticatorHelper.onAccountsUpdated(this, null);
+        mHeaderCache = SettingsHeaderCache.getInstance(this);
+        mHeaderCache.registerListener(this);
+        // Headers restored from saved state may be out of date.
+        mRebuildHeadersOnResume = savedInstanceState != null;
 
         mDevelopmentPreferences = getSharedPreferences(DevelopmentSettings.PREF_FILE,
                 Context.MODE_PRIVATE);
@@ -233,7 +237,11 @@ public class Settings extends PreferenceActivity
         if (listAdapter instanceof HeaderAdapter) {
             ((HeaderAdapter) listAdapter).resume();
         }
-        invalidateHeaders();
+        if (mRebuildHeadersOnResume) {
+            invalidateHeaders();
+        }
+        // The default launcher may have changed while we weren't looking.
+        mHeaderCache.refresh();
     }
 
     @Override
@@ -248,11 +256,13 @@ public class Settings extends PreferenceActivity
         mDevelopmentPreferences.unregisterOnSharedPreferenceChangeListener(
                 mDevelopmentPreferencesListener);
         mDevelopmentPreferencesListener = null;
+        mRebuildHeadersOnResume = true;
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
+        mHeaderCache.unregisterListener(this);
         if (mListeningToAccountUpdates) {
             AccountManager.get(this).removeOnAccountsUpdatedListener(this);
         }
@@ -416,8 +426,18 @@ public class Settings extends PreferenceActivity
      */
     @Override
     public void onBuildHeaders(List<Header> headers) {
-        loadHeadersFromResource(R.xml.settings_headers, headers);
-        updateHeaderList(headers);
+        Trace.beginSection("Settings.loadHeaders");
+        try {
+            loadHeadersFromResource(R.xml.settings_headers, headers);
+        } finally {
+            Trace.endSection();
+        }
+        Trace.beginSection("Settings.updateHeaderList");
+        try {
+            updateHeaderList(headers);
+        } finally {
+            Trace.endSection();
+        }
     }
 
     private void updateHeaderList(List<Header> target) {
@@ -438,19 +458,9 @@ public class Settings extends PreferenceActivity
                 if (!needsAdvancedSettings())
                     target.remove(header);
             } else if (id == R.id.launcher_settings) {
-                Intent launcherIntent = new Intent(Intent.ACTION_MAIN);
-                launcherIntent.addCategory(Intent.CATEGORY_HOME);
-                launcherIntent.addCategory(Intent.CATEGORY_DEFAULT);
-
-                Intent launcherPreferencesIntent = new Intent(Intent.ACTION_MAIN);
-                launcherPreferencesIntent.addCategory("com.cyanogenmod.category.LAUNCHER_PREFERENCES");
-
-                ActivityInfo defaultLauncher = getPackageManager().resolveActivity(launcherIntent, PackageManager.MATCH_DEFAULT_ONLY).activityInfo;
-                launcherPreferencesIntent.setPackage(defaultLauncher.packageName);
-                ResolveInfo launcherPreferences = getPackageManager().resolveActivity(launcherPreferencesIntent, 0);
+                ComponentName launcherPreferences = mHeaderCache.getLauncherPreferences();
                 if (launcherPreferences != null) {
-                    header.intent = new Intent().setClassName(launcherPreferences.activityInfo.packageName,
-                            launcherPreferences.activityInfo.name);
+                    header.intent = new Intent().setComponent(launcherPreferences);
                 } else {
                     target.remove(header);
                 }
@@ -462,28 +472,27 @@ public class Settings extends PreferenceActivity
                     target.remove(header);
 	    	} else if (id == R.id.wifi_settings) {
                 // Remove WiFi Settings if WiFi service is not available.
-                if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_WIFI)) {
+                if (!mHeaderCache.hasWifi()) {
                     target.remove(i);
                 }
             } else if (id == R.id.bluetooth_settings) {
                 // Remove Bluetooth Settings if Bluetooth service is not available.
-                if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH)) {
+                if (!mHeaderCache.hasBluetooth()) {
                     target.remove(i);
                 }
             } else if (id == R.id.data_usage_settings) {
                 // Remove data usage when kernel module not enabled
-                final INetworkManagementService netManager = INetworkManagementService.Stub
-                        .asInterface(ServiceManager.getService(Context.NETWORKMANAGEMENT_SERVICE));
-                try {
-                    if (!netManager.isBandwidthControlEnabled()) {
-                        target.remove(i);
-                    }
-                } catch (RemoteException e) {
-                    // ignored
+                if (!mHeaderCache.isBandwidthControlEnabled()) {
+                    target.remove(i);
                 }
             } else if (id == R.id.account_settings) {
                 int headerIndex = i + 1;
-                i = insertAccountsHeaders(target, headerIndex);
+                Trace.beginSection("Settings.insertAccountsHeaders");
+                try {
+                    i = insertAccountsHeaders(target, headerIndex);
+                } finally {
+                    Trace.endSection();
+                }
             } else if (id == R.id.user_settings) {
                 if (!UserHandle.MU_ENABLED
                         || !UserManager.supportsMultipleUsers()
@@ -528,7 +537,7 @@ public class Settings extends PreferenceActivity
                 continue;
             }
 
-            Account[] accounts = AccountManager.get(this).getAccountsByType(accountType);
+            Account[] accounts = mAuthenticatorHelper.getAccountsByType(accountType);
             boolean skipToAccount = accounts.length == 1
                     && !mAuthenticatorHelper.hasAccountPreferences(accountType);
             Header accHeader = new Header();
@@ -574,7 +583,8 @@ public class Settings extends PreferenceActivity
             target.add(headerIndex++, header);
         }
         if (!mListeningToAccountUpdates) {
-            AccountManager.get(this).addOnAccountsUpdatedListener(this, null, true);
+            // Accounts were read in onCreate(); only later changes need a rebuild.
+            AccountManager.get(this).addOnAccountsUpdatedListener(this, null, false);
             mListeningToAccountUpdates = true;
         }
         return headerIndex;
@@ -863,12 +873,26 @@ public class Settings extends PreferenceActivity
 
     @Override
     public void onAccountsUpdated(Account[] accounts) {
-        // TODO: watch for package upgrades to invalidate cache; see 7206643
-        mAuthenticatorHelper.updateAuthDescriptions(this);
+        // Authenticators change with packages, see onHeaderCacheChanged(), but
+        // an account of a just installed type may come before that.
+        if (accounts != null) {
+            for (Account account : accounts) {
+                if (!mAuthenticatorHelper.containsAccountType(account.type)) {
+                    mAuthenticatorHelper.updateAuthDescriptions(this);
+                    break;
+                }
+            }
+        }
         mAuthenticatorHelper.onAccountsUpdated(this, accounts);
         invalidateHeaders();
     }
 
+    @Override
+    public void onHeaderCacheChanged() {
+        mAuthenticatorHelper.updateAuthDescriptions(this);
+        invalidateHeaders();
+    }
+
     /*
      * Settings subclasses for launching independently.
      */
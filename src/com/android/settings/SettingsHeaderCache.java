@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.INetworkManagementService;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.Trace;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * What the top-level {@link Settings} headers depend on besides accounts and
+ * user settings: device features, which only change with the build, and the
+ * launcher's preference activity, which changes with packages.
+ *
+ * <p>Both are kept in a file tagged with the build fingerprint, so that a
+ * cold start of Settings doesn't ask the system for them again.  The
+ * package dependent part is resolved again on a background thread after it
+ * was read from the file, whenever packages change and on {@link #refresh()},
+ * since picking another home app sends no package broadcast; listeners are
+ * then told to rebuild their headers.
+ */
+class SettingsHeaderCache {
+    private static final String TAG = "SettingsHeaderCache";
+    private static final boolean DEBUG = false;
+
+    private static final int MAGIC = 0x48445253; // 'HDRS'
+    private static final int VERSION = 1;
+
+    /** How long package broadcasts must settle before resolving again. */
+    private static final long PACKAGE_CHANGE_DELAY = 1000;
+
+    private static final String LAUNCHER_PREFERENCES_CATEGORY =
+            "com.cyanogenmod.category.LAUNCHER_PREFERENCES";
+
+    private static final int MSG_RESOLVE_PACKAGES = 1;
+    private static final int MSG_SAVE = 2;
+    private static final int MSG_CHANGED = 3;
+
+    interface Listener {
+        /**
+         * Called on the main thread when packages changed, or the package
+         * dependent headers were found to differ from the cached ones.
+         */
+        void onHeaderCacheChanged();
+    }
+
+    private static SettingsHeaderCache sInstance;
+
+    private final Context mContext;
+    private final AtomicFile mFile;
+    private final Handler mBackgroundHandler;
+    private final Handler mMainHandler;
+
+    // Only used on the main thread.
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+
+    // Guarded by this.
+    private boolean mDeviceResolved;
+    private boolean mDevicePersistable;
+    private boolean mHasWifi;
+    private boolean mHasBluetooth;
+    private boolean mBandwidthControlEnabled;
+    private boolean mPackagesResolved;
+    private ComponentName mLauncherPreferences;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // Installs and updates come as several broadcasts; wait for them to settle.
+            mBackgroundHandler.removeMessages(MSG_RESOLVE_PACKAGES);
+            mBackgroundHandler.sendMessageDelayed(
+                    mBackgroundHandler.obtainMessage(MSG_RESOLVE_PACKAGES, 1, 0),
+                    PACKAGE_CHANGE_DELAY);
+        }
+    };
+
+    static synchronized SettingsHeaderCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SettingsHeaderCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SettingsHeaderCache(Context context) {
+        mContext = context;
+        mFile = new AtomicFile(new File(context.getCacheDir(), "settings_headers"));
+        final HandlerThread thread = new HandlerThread(TAG,
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mBackgroundHandler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_RESOLVE_PACKAGES:
+                        resolvePackages(msg.arg1 != 0);
+                        break;
+                    case MSG_SAVE:
+                        save();
+                        break;
+                }
+            }
+        };
+        mMainHandler = new Handler(Looper.getMainLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_CHANGED) {
+                    // Listeners may unregister themselves.
+                    final Listener[] listeners =
+                            mListeners.toArray(new Listener[mListeners.size()]);
+                    for (int i=0; i<listeners.length; i++) {
+                        listeners[i].onHeaderCacheChanged();
+                    }
+                }
+            }
+        };
+
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        context.registerReceiver(mPackageReceiver, filter);
+
+        load();
+        if (mPackagesResolved) {
+            // Packages may have changed while nobody was listening.
+            mBackgroundHandler.obtainMessage(MSG_RESOLVE_PACKAGES, 0, 0).sendToTarget();
+        }
+    }
+
+    /**
+     * Start telling the given listener about changes.  Must be called on the
+     * main thread.
+     */
+    void registerListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Stop telling the given listener about changes.  Must be called on the
+     * main thread.
+     */
+    void unregisterListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Resolve the package dependent part again in the background, telling
+     * listeners if it changed.
+     */
+    void refresh() {
+        if (!mBackgroundHandler.hasMessages(MSG_RESOLVE_PACKAGES)) {
+            mBackgroundHandler.obtainMessage(MSG_RESOLVE_PACKAGES, 0, 0).sendToTarget();
+        }
+    }
+
+    synchronized boolean hasWifi() {
+        ensureDeviceResolvedLocked();
+        return mHasWifi;
+    }
+
+    synchronized boolean hasBluetooth() {
+        ensureDeviceResolvedLocked();
+        return mHasBluetooth;
+    }
+
+    /**
+     * Returns whether the kernel supports the data usage accounting that the
+     * data usage screen needs.
+     */
+    synchronized boolean isBandwidthControlEnabled() {
+        ensureDeviceResolvedLocked();
+        return mBandwidthControlEnabled;
+    }
+
+    /**
+     * Returns the preference activity of the default launcher, or null if it
+     * has none.
+     */
+    ComponentName getLauncherPreferences() {
+        synchronized (this) {
+            if (mPackagesResolved) {
+                return mLauncherPreferences;
+            }
+        }
+        final ComponentName launcherPreferences = resolveLauncherPreferences();
+        synchronized (this) {
+            if (!mPackagesResolved) {
+                mLauncherPreferences = launcherPreferences;
+                mPackagesResolved = true;
+                mBackgroundHandler.sendEmptyMessage(MSG_SAVE);
+            }
+            return mLauncherPreferences;
+        }
+    }
+
+    private void ensureDeviceResolvedLocked() {
+        if (mDeviceResolved) {
+            return;
+        }
+        Trace.beginSection("SettingsHeaderCache.resolveDevice");
+        try {
+            final PackageManager pm = mContext.getPackageManager();
+            mHasWifi = pm.hasSystemFeature(PackageManager.FEATURE_WIFI);
+            mHasBluetooth = pm.hasSystemFeature(PackageManager.FEATURE_BLUETOOTH);
+            mDevicePersistable = true;
+            final INetworkManagementService netManager = INetworkManagementService.Stub
+                    .asInterface(ServiceManager.getService(Context.NETWORKMANAGEMENT_SERVICE));
+            try {
+                mBandwidthControlEnabled = netManager.isBandwidthControlEnabled();
+            } catch (RemoteException e) {
+                // Keep showing data usage, but ask again next time.
+                mBandwidthControlEnabled = true;
+                mDevicePersistable = false;
+            }
+            mDeviceResolved = true;
+            mBackgroundHandler.sendEmptyMessage(MSG_SAVE);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    private ComponentName resolveLauncherPreferences() {
+        Trace.beginSection("SettingsHeaderCache.resolveLauncher");
+        try {
+            final PackageManager pm = mContext.getPackageManager();
+            Intent launcherIntent = new Intent(Intent.ACTION_MAIN);
+            launcherIntent.addCategory(Intent.CATEGORY_HOME);
+            launcherIntent.addCategory(Intent.CATEGORY_DEFAULT);
+            ResolveInfo defaultLauncher = pm.resolveActivity(launcherIntent,
+                    PackageManager.MATCH_DEFAULT_ONLY);
+            if (defaultLauncher == null) {
+                return null;
+            }
+
+            Intent launcherPreferencesIntent = new Intent(Intent.ACTION_MAIN);
+            launcherPreferencesIntent.addCategory(LAUNCHER_PREFERENCES_CATEGORY);
+            launcherPreferencesIntent.setPackage(defaultLauncher.activityInfo.packageName);
+            ResolveInfo launcherPreferences = pm.resolveActivity(launcherPreferencesIntent, 0);
+            if (launcherPreferences == null) {
+                return null;
+            }
+            return new ComponentName(launcherPreferences.activityInfo.packageName,
+                    launcherPreferences.activityInfo.name);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    private void resolvePackages(boolean packagesChanged) {
+        final ComponentName launcherPreferences = resolveLauncherPreferences();
+        final boolean changed;
+        synchronized (this) {
+            changed = !mPackagesResolved || (launcherPreferences == null
+                    ? mLauncherPreferences != null
+                    : !launcherPreferences.equals(mLauncherPreferences));
+            mLauncherPreferences = launcherPreferences;
+            mPackagesResolved = true;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Resolved packages: launcher preferences " + launcherPreferences
+                    + (changed ? ", changed" : ""));
+        }
+        if (changed) {
+            save();
+        }
+        // Other package dependent headers aren't cached, so always rebuild
+        // when packages changed.
+        if (changed || packagesChanged) {
+            mMainHandler.sendEmptyMessage(MSG_CHANGED);
+        }
+    }
+
+    private void load() {
+        Trace.beginSection("SettingsHeaderCache.load");
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !Build.FINGERPRINT.equals(in.readUTF())) {
+                return;
+            }
+            final boolean deviceResolved = in.readBoolean();
+            final boolean hasWifi = in.readBoolean();
+            final boolean hasBluetooth = in.readBoolean();
+            final boolean bandwidthControlEnabled = in.readBoolean();
+            final boolean packagesResolved = in.readBoolean();
+            final String launcherPreferences = in.readUTF();
+            synchronized (this) {
+                if (deviceResolved) {
+                    mHasWifi = hasWifi;
+                    mHasBluetooth = hasBluetooth;
+                    mBandwidthControlEnabled = bandwidthControlEnabled;
+                    mDeviceResolved = true;
+                    mDevicePersistable = true;
+                }
+                if (packagesResolved) {
+                    mLauncherPreferences =
+                            ComponentName.unflattenFromString(launcherPreferences);
+                    mPackagesResolved = true;
+                }
+            }
+        } catch (EOFException e) {
+            Log.w(TAG, "Truncated cache, ignoring");
+        } catch (IOException e) {
+            // No cache yet.
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+            Trace.endSection();
+        }
+    }
+
+    private void save() {
+        final boolean deviceResolved;
+        final boolean hasWifi;
+        final boolean hasBluetooth;
+        final boolean bandwidthControlEnabled;
+        final boolean packagesResolved;
+        final ComponentName launcherPreferences;
+        synchronized (this) {
+            deviceResolved = mDeviceResolved && mDevicePersistable;
+            hasWifi = mHasWifi;
+            hasBluetooth = mHasBluetooth;
+            bandwidthControlEnabled = mBandwidthControlEnabled;
+            packagesResolved = mPackagesResolved;
+            launcherPreferences = mLauncherPreferences;
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(Build.FINGERPRINT);
+            out.writeBoolean(deviceResolved);
+            out.writeBoolean(hasWifi);
+            out.writeBoolean(hasBluetooth);
+            out.writeBoolean(bandwidthControlEnabled);
+            out.writeBoolean(packagesResolved);
+            out.writeUTF(launcherPreferences != null ? launcherPreferences.flattenToString() : "");
+            out.flush();
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed writing cache", e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+
+/**
+ * Client for the debug options of surface flinger shown in developer
+ * options, which keeps the flinger binder and the last state read from it.
+ *
+ * <p>The state is read with one transaction by {@link #refresh()}.  Writes
+ * update the known state directly, since the flinger applies them in a
+ * known way, so they don't have to read it back.
+ */
+class SurfaceFlingerDebugState {
+    private static final String SERVICE = "SurfaceFlinger";
+    private static final String DESCRIPTOR = "android.ui.ISurfaceComposer";
+
+    // Transactions understood by surface flinger.
+    private static final int SHOW_UPDATES = 1002;
+    private static final int DISABLE_OVERLAYS = 1008;
+    private static final int GET_STATE = 1010;
+
+    interface Listener {
+        /**
+         * Called when the known state changed.
+         */
+        void onFlingerStateChanged(SurfaceFlingerDebugState state);
+    }
+
+    private IBinder mFlinger;
+    private Listener mListener;
+
+    private boolean mValid;
+    private boolean mShowUpdates;
+    private boolean mDisableOverlays;
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Returns whether the state was read since it was last invalidated.
+     */
+    boolean isValid() {
+        return mValid;
+    }
+
+    boolean getShowUpdates() {
+        return mShowUpdates;
+    }
+
+    boolean getDisableOverlays() {
+        return mDisableOverlays;
+    }
+
+    /**
+     * Forget the known state, for example when the flinger may have been
+     * changed by someone else.
+     */
+    void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Reads the state from surface flinger.
+     *
+     * @return whether the state is now known.
+     */
+    boolean refresh() {
+        final IBinder flinger = getFlinger();
+        if (flinger == null) {
+            return false;
+        }
+        Parcel data = Parcel.obtain();
+        Parcel reply = Parcel.obtain();
+        try {
+            data.writeInterfaceToken(DESCRIPTOR);
+            flinger.transact(GET_STATE, data, reply, 0);
+            @SuppressWarnings("unused")
+            int showCpu = reply.readInt();
+            @SuppressWarnings("unused")
+            int enableGL = reply.readInt();
+            int showUpdates = reply.readInt();
+            @SuppressWarnings("unused")
+            int showBackground = reply.readInt();
+            int disableOverlays = reply.readInt();
+            setState(showUpdates != 0, disableOverlays != 0);
+            return true;
+        } catch (RemoteException ex) {
+            mFlinger = null;
+            mValid = false;
+            return false;
+        } finally {
+            reply.recycle();
+            data.recycle();
+        }
+    }
+
+    void setShowUpdates(boolean showUpdates) {
+        if (!mValid) {
+            refresh();
+        }
+        if (mValid && showUpdates == mShowUpdates) {
+            // Writing 0 toggles the flinger's state, so don't if it is off.
+            return;
+        }
+        if (write(SHOW_UPDATES, showUpdates ? 1 : 0)) {
+            if (mValid) {
+                setState(showUpdates, mDisableOverlays);
+            } else {
+                refresh();
+            }
+        }
+    }
+
+    void setDisableOverlays(boolean disableOverlays) {
+        if (write(DISABLE_OVERLAYS, disableOverlays ? 1 : 0)) {
+            if (mValid) {
+                setState(mShowUpdates, disableOverlays);
+            } else {
+                refresh();
+            }
+        }
+    }
+
+    private boolean write(int code, int value) {
+        final IBinder flinger = getFlinger();
+        if (flinger == null) {
+            return false;
+        }
+        Parcel data = Parcel.obtain();
+        try {
+            data.writeInterfaceToken(DESCRIPTOR);
+            data.writeInt(value);
+            flinger.transact(code, data, null, 0);
+            return true;
+        } catch (RemoteException ex) {
+            mFlinger = null;
+            mValid = false;
+            return false;
+        } finally {
+            data.recycle();
+        }
+    }
+
+    private void setState(boolean showUpdates, boolean disableOverlays) {
+        final boolean changed = !mValid || showUpdates != mShowUpdates
+                || disableOverlays != mDisableOverlays;
+        mShowUpdates = showUpdates;
+        mDisableOverlays = disableOverlays;
+        mValid = true;
+        if (changed && mListener != null) {
+            mListener.onFlingerStateChanged(this);
+        }
+    }
+
+    private IBinder getFlinger() {
+        if (mFlinger == null || !mFlinger.isBinderAlive()) {
+            mFlinger = ServiceManager.getService(SERVICE);
+        }
+        return mFlinger;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Parcel;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tells binder services that system properties changed, so that they read
+ * them again.
+ *
+ * <p>Requests within {@link #COALESCE_DELAY} of each other are handled by
+ * one sweep, which pokes each service at most once, several at a time.  A
+ * request may name the services that need poking; any request without
+ * names makes the sweep poke every registered service.
+ */
+class SystemPropPoker {
+    private static final String TAG = "SystemPropPoker";
+    private static final boolean DEBUG = false;
+
+    /**
+     * Services to poke for properties only read by app processes; the
+     * activity manager passes the poke on to all of them.
+     */
+    static final String[] APP_PROCESS_SERVICES = new String[] { "activity" };
+
+    /** How long to wait for more requests before sweeping. */
+    private static final long COALESCE_DELAY = 300;
+
+    /** Services poked at once. */
+    private static final int MAX_PARALLEL_POKES = 4;
+
+    private static final int MSG_SWEEP = 1;
+
+    private static final ThreadPoolExecutor sPokeExecutor = new ThreadPoolExecutor(
+            MAX_PARALLEL_POKES, MAX_PARALLEL_POKES, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "SystemPropPoker #" + mCount.getAndIncrement());
+                }
+            });
+
+    static {
+        sPokeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static SystemPropPoker sInstance;
+
+    private final Handler mHandler;
+
+    // Guarded by this.
+    private boolean mPendingAll;
+    private final HashSet<String> mPendingServices = new HashSet<String>();
+    private long mLastSweepDuration;
+    private int mLastSweepCount;
+    private List<String> mLastFailures = Collections.emptyList();
+
+    static synchronized SystemPropPoker getInstance() {
+        if (sInstance == null) {
+            sInstance = new SystemPropPoker();
+        }
+        return sInstance;
+    }
+
+    private SystemPropPoker() {
+        final HandlerThread thread = new HandlerThread(TAG,
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_SWEEP) {
+                    sweep();
+                }
+            }
+        };
+    }
+
+    /**
+     * Poke the given services, or all of them if null, once no more
+     * requests have come in for a moment.
+     */
+    void poke(String[] services) {
+        synchronized (this) {
+            if (services == null) {
+                mPendingAll = true;
+            } else {
+                for (String service : services) {
+                    mPendingServices.add(service);
+                }
+            }
+        }
+        mHandler.removeMessages(MSG_SWEEP);
+        mHandler.sendEmptyMessageDelayed(MSG_SWEEP, COALESCE_DELAY);
+    }
+
+    /**
+     * Returns how long the last sweep took, in milliseconds.
+     */
+    synchronized long getLastSweepDuration() {
+        return mLastSweepDuration;
+    }
+
+    /**
+     * Returns how many services the last sweep poked.
+     */
+    synchronized int getLastSweepCount() {
+        return mLastSweepCount;
+    }
+
+    /**
+     * Returns the services that failed to handle the last sweep's poke.
+     */
+    synchronized List<String> getLastFailures() {
+        return mLastFailures;
+    }
+
+    private void sweep() {
+        final long start = SystemClock.uptimeMillis();
+        String[] services;
+        synchronized (this) {
+            if (mPendingAll) {
+                services = null;
+            } else {
+                services = mPendingServices.toArray(new String[mPendingServices.size()]);
+            }
+            mPendingAll = false;
+            mPendingServices.clear();
+        }
+        if (services == null) {
+            try {
+                services = ServiceManager.listServices();
+            } catch (RemoteException e) {
+                return;
+            }
+        }
+
+        final ArrayList<Callable<Boolean>> pokes = new ArrayList<Callable<Boolean>>();
+        for (final String service : services) {
+            pokes.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return pokeService(service);
+                }
+            });
+        }
+        final ArrayList<String> failures = new ArrayList<String>();
+        try {
+            final List<Future<Boolean>> results = sPokeExecutor.invokeAll(pokes);
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    if (!results.get(i).get()) {
+                        failures.add(services[i]);
+                    }
+                } catch (ExecutionException e) {
+                    failures.add(services[i]);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final long duration = SystemClock.uptimeMillis() - start;
+        synchronized (this) {
+            mLastSweepDuration = duration;
+            mLastSweepCount = services.length;
+            mLastFailures = failures;
+        }
+        if (DEBUG || failures.size() > 0) {
+            Log.i(TAG, "Poked " + services.length + " services in " + duration + "ms"
+                    + (failures.size() > 0 ? ", failed: " + failures : ""));
+        }
+    }
+
+    private static boolean pokeService(String service) {
+        IBinder obj = ServiceManager.checkService(service);
+        if (obj == null) {
+            // Gone since it was listed; nothing to tell.
+            return true;
+        }
+        Parcel data = Parcel.obtain();
+        try {
+            obj.transact(IBinder.SYSPROPS_TRANSACTION, data, null, 0);
+            return true;
+        } catch (RemoteException e) {
+            return false;
+        } catch (Exception e) {
+            Log.i(TAG, "Somone wrote a bad service '" + service
+                    + "' that doesn't like to be poked: " + e);
+            return false;
+        } finally {
+            data.recycle();
+        }
+    }
+}
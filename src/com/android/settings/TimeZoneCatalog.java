@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.content.Context;
+import android.content.res.XmlResourceParser;
+import android.util.Log;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The time zones offered by {@link ZonePicker}, read once per locale from
+ * {@code R.xml.timezones} and kept as parallel arrays, along with their
+ * order by name and an index of the words in their names.
+ *
+ * <p>GMT offsets depend on the time, so they are kept separately in
+ * {@link Offsets} and computed again at most once an hour.
+ */
+class TimeZoneCatalog {
+    private static final String TAG = "TimeZoneCatalog";
+
+    private static final String XMLTAG_TIMEZONE = "timezone";
+
+    private static final int HOURS_1 = 60 * 60000;
+
+    private static TimeZoneCatalog sInstance;
+
+    final Locale mLocale;
+    final int mSize;
+    final String[] mIds;
+    final String[] mNames;
+    final TimeZone[] mZones;
+
+    /** Zone indices ordered by name. */
+    final int[] mByName;
+
+    /** Lowercase words of all names, sorted, and the zone each came from. */
+    private final String[] mWords;
+    private final int[] mWordZones;
+
+    private Offsets mOffsets;
+
+    /**
+     * GMT offsets of all zones at some hour.  Never modified once built.
+     */
+    static class Offsets {
+        final long mHour;
+        final int[] mOffsets;
+        final String[] mLabels;
+        /** Zone indices ordered by offset, then by position in the xml. */
+        final int[] mByOffset;
+
+        private Offsets(long hour, int[] offsets, String[] labels, int[] byOffset) {
+            mHour = hour;
+            mOffsets = offsets;
+            mLabels = labels;
+            mByOffset = byOffset;
+        }
+    }
+
+    /**
+     * Returns the catalog for the current locale, reading it if needed.
+     */
+    static synchronized TimeZoneCatalog getInstance(Context context) {
+        final Locale locale = context.getResources().getConfiguration().locale;
+        if (sInstance == null || !sInstance.mLocale.equals(locale)) {
+            sInstance = load(context, locale);
+        }
+        return sInstance;
+    }
+
+    private TimeZoneCatalog(Locale locale, ArrayList<String> ids, ArrayList<String> names) {
+        mLocale = locale;
+        mSize = ids.size();
+        mIds = ids.toArray(new String[mSize]);
+        mNames = names.toArray(new String[mSize]);
+        mZones = new TimeZone[mSize];
+        for (int i = 0; i < mSize; i++) {
+            mZones[i] = TimeZone.getTimeZone(mIds[i]);
+        }
+
+        mByName = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            mByName[i] = i;
+        }
+        // Insertion sort keeps zones with equal names in xml order.
+        for (int i = 1; i < mSize; i++) {
+            final int zone = mByName[i];
+            int j = i - 1;
+            while (j >= 0 && mNames[mByName[j]].compareTo(mNames[zone]) > 0) {
+                mByName[j + 1] = mByName[j];
+                j--;
+            }
+            mByName[j + 1] = zone;
+        }
+
+        final ArrayList<String> words = new ArrayList<String>();
+        for (int i = 0; i < mSize; i++) {
+            for (String word : mNames[i].toLowerCase(locale).split("[\\s\\p{Punct}]+")) {
+                if (word.length() > 0) {
+                    words.add(word + '\0' + i);
+                }
+            }
+        }
+        // Sort words along with their zones by tagging each with its zone.
+        final String[] tagged = words.toArray(new String[words.size()]);
+        Arrays.sort(tagged);
+        mWords = new String[tagged.length];
+        mWordZones = new int[tagged.length];
+        for (int i = 0; i < tagged.length; i++) {
+            final int split = tagged[i].lastIndexOf('\0');
+            mWords[i] = tagged[i].substring(0, split);
+            mWordZones[i] = Integer.parseInt(tagged[i].substring(split + 1));
+        }
+    }
+
+    private static TimeZoneCatalog load(Context context, Locale locale) {
+        final ArrayList<String> ids = new ArrayList<String>();
+        final ArrayList<String> names = new ArrayList<String>();
+        try {
+            XmlResourceParser xrp = context.getResources().getXml(R.xml.timezones);
+            try {
+                while (xrp.next() != XmlResourceParser.START_TAG)
+                    continue;
+                xrp.next();
+                while (xrp.getEventType() != XmlResourceParser.END_TAG) {
+                    while (xrp.getEventType() != XmlResourceParser.START_TAG) {
+                        if (xrp.getEventType() == XmlResourceParser.END_DOCUMENT) {
+                            return new TimeZoneCatalog(locale, ids, names);
+                        }
+                        xrp.next();
+                    }
+                    if (xrp.getName().equals(XMLTAG_TIMEZONE)) {
+                        ids.add(xrp.getAttributeValue(0));
+                        names.add(xrp.nextText());
+                    }
+                    while (xrp.getEventType() != XmlResourceParser.END_TAG) {
+                        xrp.next();
+                    }
+                    xrp.next();
+                }
+            } finally {
+                xrp.close();
+            }
+        } catch (XmlPullParserException xppe) {
+            Log.e(TAG, "Ill-formatted timezones.xml file");
+        } catch (IOException ioe) {
+            Log.e(TAG, "Unable to read timezones.xml file");
+        }
+        return new TimeZoneCatalog(locale, ids, names);
+    }
+
+    /**
+     * Returns the offsets of all zones at the given time, reusing those of
+     * the same hour.
+     */
+    synchronized Offsets getOffsets(long date) {
+        final long hour = date / HOURS_1;
+        if (mOffsets != null && mOffsets.mHour == hour) {
+            return mOffsets;
+        }
+        final Offsets previous = mOffsets;
+        final int[] offsets = new int[mSize];
+        final String[] labels = new String[mSize];
+        for (int i = 0; i < mSize; i++) {
+            offsets[i] = mZones[i].getOffset(date);
+            labels[i] = previous != null && previous.mOffsets[i] == offsets[i]
+                    ? previous.mLabels[i] : formatOffset(offsets[i]);
+        }
+        final int[] byOffset;
+        if (previous != null && Arrays.equals(previous.mOffsets, offsets)) {
+            byOffset = previous.mByOffset;
+        } else {
+            byOffset = new int[mSize];
+            for (int i = 0; i < mSize; i++) {
+                byOffset[i] = i;
+            }
+            for (int i = 1; i < mSize; i++) {
+                final int zone = byOffset[i];
+                int j = i - 1;
+                while (j >= 0 && offsets[byOffset[j]] > offsets[zone]) {
+                    byOffset[j + 1] = byOffset[j];
+                    j--;
+                }
+                byOffset[j + 1] = zone;
+            }
+        }
+        mOffsets = new Offsets(hour, offsets, labels, byOffset);
+        return mOffsets;
+    }
+
+    /**
+     * Returns which zones have a word in their name starting with the given
+     * prefix, indexed by zone.
+     */
+    boolean[] search(String prefix) {
+        final String key = prefix.toLowerCase(mLocale).trim();
+        final boolean[] matches = new boolean[mSize];
+        int pos = Arrays.binarySearch(mWords, key);
+        if (pos < 0) {
+            pos = -pos - 1;
+        } else {
+            // Equal words may precede the one found.
+            while (pos > 0 && mWords[pos - 1].equals(key)) {
+                pos--;
+            }
+        }
+        for (; pos < mWords.length && mWords[pos].startsWith(key); pos++) {
+            matches[mWordZones[pos]] = true;
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the position of the zone with the given id, or -1.
+     */
+    int indexOf(String id) {
+        for (int i = 0; i < mSize; i++) {
+            if (mIds[i].equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String formatOffset(int offset) {
+        final int p = Math.abs(offset);
+        final StringBuilder name = new StringBuilder();
+        name.append("GMT");
+
+        if (offset < 0) {
+            name.append('-');
+        } else {
+            name.append('+');
+        }
+
+        name.append(p / (HOURS_1));
+        name.append(':');
+
+        int min = p / 60000;
+        min %= 60;
+
+        if (min < 10) {
+            name.append('0');
+        }
+        name.append(min);
+        return name.toString();
+    }
+}
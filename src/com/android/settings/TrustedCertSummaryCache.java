@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persisted subject lines of trusted certificates, as shown by
+ * {@link TrustedCredentialsSettings}, so that the list can be shown without
+ * parsing every certificate again.
+ *
+ * <p>Entries are keyed by alias and tagged with the modification time of
+ * the certificate's file; an entry is only used while that still matches.
+ */
+class TrustedCertSummaryCache {
+    static final String TAG = "TrustedCertSummaryCache";
+
+    private static final int MAGIC = 0x43455254; // 'CERT'
+    private static final int VERSION = 1;
+
+    private static final String SYSTEM_PREFIX = "system:";
+    private static final String USER_PREFIX = "user:";
+
+    private static TrustedCertSummaryCache sInstance;
+
+    private static class Entry {
+        long mtime;
+        String primary;
+        String secondary;
+    }
+
+    private final AtomicFile mFile;
+
+    // Guarded by this.
+    private HashMap<String, Entry> mEntries;
+    private boolean mModified;
+
+    static synchronized TrustedCertSummaryCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TrustedCertSummaryCache(
+                    new File(context.getCacheDir(), "trusted_cert_summaries"));
+        }
+        return sInstance;
+    }
+
+    private TrustedCertSummaryCache(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Returns the modification time of the file holding the certificate
+     * with the given alias, laid out as TrustedCertificateStore does, or 0 if
+     * it isn't known.
+     */
+    static long getCertificateTime(String alias) {
+        final File file;
+        if (alias.startsWith(SYSTEM_PREFIX)) {
+            file = new File(System.getenv("ANDROID_ROOT") + "/etc/security/cacerts",
+                    alias.substring(SYSTEM_PREFIX.length()));
+        } else if (alias.startsWith(USER_PREFIX)) {
+            file = new File(System.getenv("ANDROID_DATA") + "/misc/keychain/cacerts-added",
+                    alias.substring(USER_PREFIX.length()));
+        } else {
+            return 0;
+        }
+        return file.lastModified();
+    }
+
+    /**
+     * Returns the primary and secondary subject of the given alias, or null
+     * if it isn't cached or its file changed.
+     */
+    synchronized String[] get(String alias, long mtime) {
+        if (mtime == 0) {
+            return null;
+        }
+        ensureLoadedLocked();
+        final Entry entry = mEntries.get(alias);
+        if (entry == null || entry.mtime != mtime) {
+            return null;
+        }
+        return new String[] { entry.primary, entry.secondary };
+    }
+
+    synchronized void put(String alias, long mtime, String primary, String secondary) {
+        if (mtime == 0) {
+            return;
+        }
+        ensureLoadedLocked();
+        Entry entry = mEntries.get(alias);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(alias, entry);
+        }
+        entry.mtime = mtime;
+        entry.primary = primary;
+        entry.secondary = secondary;
+        mModified = true;
+    }
+
+    private void ensureLoadedLocked() {
+        if (mEntries != null) {
+            return;
+        }
+        mEntries = new HashMap<String, Entry>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String alias = in.readUTF();
+                final Entry entry = new Entry();
+                entry.mtime = in.readLong();
+                entry.primary = in.readUTF();
+                entry.secondary = in.readUTF();
+                mEntries.put(alias, entry);
+            }
+        } catch (EOFException e) {
+            Log.w(TAG, "Truncated cache, ignoring");
+            mEntries.clear();
+        } catch (IOException e) {
+            // No cache yet.
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the cache if it changed.
+     */
+    synchronized void save() {
+        if (!mModified) {
+            return;
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mEntries.size());
+            for (Map.Entry<String, Entry> e : mEntries.entrySet()) {
+                final Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.mtime);
+                out.writeUTF(entry.primary);
+                out.writeUTF(entry.secondary);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+            mModified = false;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed writing cache", e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+        }
+    }
+}
@@ -24,9 +24,11 @@ import android.net.http.SslCertificate;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.security.IKeyChainService;
 import android.security.KeyChain;
 import android.security.KeyChain.KeyChainConnection;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -45,12 +47,43 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.harmony.xnet.provider.jsse.TrustedCertificateStore;
 
 public class TrustedCredentialsSettings extends Fragment {
 
     private static final String TAG = "TrustedCredentialsSettings";
 
+    /** Certificates parsed at once. */
+    private static final int MAX_PARALLEL_PARSES =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** Parsed certificates are shown after this many, or this long. */
+    private static final int BATCH_SIZE = 16;
+    private static final long BATCH_DELAY = 100;
+
+    private static final ThreadPoolExecutor sParseExecutor = new ThreadPoolExecutor(
+            MAX_PARALLEL_PARSES, MAX_PARALLEL_PARSES, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "TrustedCredentials #" + mCount.getAndIncrement());
+                }
+            });
+
+    static {
+        sParseExecutor.allowCoreThreadTimeOut(true);
+    }
+
     private enum Tab {
         SYSTEM("system",
                R.string.trusted_credentials_system_tab,
@@ -211,46 +244,123 @@ public class TrustedCredentialsSettings extends Fragment {
             return view;
         };
 
-        private class AliasLoader extends AsyncTask<Void, Integer, List<CertHolder>> {
+        /**
+         * Shows certificates whose subjects are cached right away, then
+         * parses the rest in parallel and adds them in sorted batches.
+         */
+        private class AliasLoader extends AsyncTask<Void, CertBatch, Void> {
             ProgressBar mProgressBar;
             View mList;
+            TrustedCertSummaryCache mCache;
+            volatile int mMax;
             @Override protected void onPreExecute() {
                 View content = mTabHost.getTabContentView();
                 mProgressBar = (ProgressBar) content.findViewById(mTab.mProgress);
                 mList = content.findViewById(mTab.mList);
                 mProgressBar.setVisibility(View.VISIBLE);
                 mList.setVisibility(View.GONE);
+                mCache = TrustedCertSummaryCache.getInstance(getActivity());
+                mCertHolders.clear();
+                notifyDataSetChanged();
             }
-            @Override protected List<CertHolder> doInBackground(Void... params) {
+            @Override protected Void doInBackground(Void... params) {
                 Set<String> aliases = mTab.getAliases(mStore);
-                int max = aliases.size();
-                int progress = 0;
-                List<CertHolder> certHolders = new ArrayList<CertHolder>(max);
+                mMax = aliases.size();
+                List<CertHolder> cached = new ArrayList<CertHolder>(mMax);
+                final List<String> misses = new ArrayList<String>();
+                final List<Long> missTimes = new ArrayList<Long>();
                 for (String alias : aliases) {
-                    X509Certificate cert = (X509Certificate) mStore.getCertificate(alias, true);
-                    certHolders.add(new CertHolder(mStore,
-                                                   TrustedCertificateAdapter.this,
-                                                   mTab,
-                                                   alias,
-                                                   cert));
-                    publishProgress(++progress, max);
+                    final long mtime = TrustedCertSummaryCache.getCertificateTime(alias);
+                    final String[] subject = mCache.get(alias, mtime);
+                    if (subject != null) {
+                        cached.add(new CertHolder(mStore,
+                                                  TrustedCertificateAdapter.this,
+                                                  mTab,
+                                                  alias,
+                                                  subject[0],
+                                                  subject[1]));
+                    } else {
+                        misses.add(alias);
+                        missTimes.add(mtime);
+                    }
                 }
-                Collections.sort(certHolders);
-                return certHolders;
-            }
-            @Override protected void onProgressUpdate(Integer... progressAndMax) {
-                int progress = progressAndMax[0];
-                int max = progressAndMax[1];
-                if (max != mProgressBar.getMax()) {
-                    mProgressBar.setMax(max);
+                if (!cached.isEmpty()) {
+                    Collections.sort(cached);
+                    publishProgress(new CertBatch(cached));
+                }
+                if (misses.isEmpty()) {
+                    return null;
+                }
+
+                final ExecutorCompletionService<CertHolder> parser
+                        = new ExecutorCompletionService<CertHolder>(sParseExecutor);
+                for (int i = 0; i < misses.size(); i++) {
+                    final String alias = misses.get(i);
+                    final long mtime = missTimes.get(i);
+                    parser.submit(new Callable<CertHolder>() {
+                        @Override public CertHolder call() {
+                            X509Certificate cert =
+                                    (X509Certificate) mStore.getCertificate(alias, true);
+                            if (cert == null) {
+                                return null;
+                            }
+                            CertHolder certHolder = new CertHolder(mStore,
+                                                                   TrustedCertificateAdapter.this,
+                                                                   mTab,
+                                                                   alias,
+                                                                   cert);
+                            mCache.put(alias, mtime, certHolder.mSubjectPrimary,
+                                    certHolder.mSubjectSecondary);
+                            return certHolder;
+                        }
+                    });
+                }
+                List<CertHolder> batch = new ArrayList<CertHolder>(BATCH_SIZE);
+                long lastPublish = SystemClock.uptimeMillis();
+                try {
+                    for (int i = 0; i < misses.size(); i++) {
+                        try {
+                            CertHolder certHolder = parser.take().get();
+                            if (certHolder != null) {
+                                batch.add(certHolder);
+                            }
+                        } catch (ExecutionException e) {
+                            Log.w(TAG, "Failed to parse certificate", e);
+                        }
+                        final long now = SystemClock.uptimeMillis();
+                        if (batch.size() >= BATCH_SIZE
+                                || (!batch.isEmpty() && now - lastPublish >= BATCH_DELAY)) {
+                            Collections.sort(batch);
+                            publishProgress(new CertBatch(batch));
+                            batch = new ArrayList<CertHolder>(BATCH_SIZE);
+                            lastPublish = now;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-                mProgressBar.setProgress(progress);
+                if (!batch.isEmpty()) {
+                    Collections.sort(batch);
+                    publishProgress(new CertBatch(batch));
+                }
+                mCache.save();
+                return null;
             }
-            @Override protected void onPostExecute(List<CertHolder> certHolders) {
-                mCertHolders.clear();
-                mCertHolders.addAll(certHolders);
+            @Override protected void onProgressUpdate(CertBatch... batches) {
+                for (CertBatch batch : batches) {
+                    mergeSorted(mCertHolders, batch.mCertHolders);
+                }
                 notifyDataSetChanged();
-                View content = mTabHost.getTabContentView();
+                if (mList.getVisibility() != View.VISIBLE) {
+                    mProgressBar.setVisibility(View.GONE);
+                    mList.setVisibility(View.VISIBLE);
+                }
+                if (mMax != mProgressBar.getMax()) {
+                    mProgressBar.setMax(mMax);
+                }
+                mProgressBar.setProgress(mCertHolders.size());
+            }
+            @Override protected void onPostExecute(Void result) {
                 mProgressBar.setVisibility(View.GONE);
                 mList.setVisibility(View.VISIBLE);
                 mProgressBar.setProgress(0);
@@ -258,14 +368,41 @@ public class TrustedCredentialsSettings extends Fragment {
         }
     }
 
+    /**
+     * Sorted certificates published by the alias loader at once.  Wrapping
+     * the list keeps the loader's progress type from being generic.
+     */
+    private static class CertBatch {
+        private final List<CertHolder> mCertHolders;
+
+        private CertBatch(List<CertHolder> certHolders) {
+            mCertHolders = certHolders;
+        }
+    }
+
+    /**
+     * Merges the sorted {@code batch} into the sorted {@code list}.
+     */
+    private static void mergeSorted(List<CertHolder> list, List<CertHolder> batch) {
+        int pos = 0;
+        for (CertHolder certHolder : batch) {
+            while (pos < list.size() && list.get(pos).compareTo(certHolder) <= 0) {
+                pos++;
+            }
+            list.add(pos++, certHolder);
+        }
+    }
+
     private static class CertHolder implements Comparable<CertHolder> {
         private final TrustedCertificateStore mStore;
         private final TrustedCertificateAdapter mAdapter;
         private final Tab mTab;
         private final String mAlias;
-        private final X509Certificate mX509Cert;
 
-        private final SslCertificate mSslCert;
+        // Loaded on demand when the subject came from the cache.
+        private X509Certificate mX509Cert;
+        private SslCertificate mSslCert;
+
         private final String mSubjectPrimary;
         private final String mSubjectSecondary;
         private boolean mDeleted;
@@ -308,6 +445,43 @@ public class TrustedCredentialsSettings extends Fragment {
             }
             mDeleted = mTab.deleted(mStore, mAlias);
         }
+
+        private CertHolder(TrustedCertificateStore store,
+                           TrustedCertificateAdapter adapter,
+                           Tab tab,
+                           String alias,
+                           String subjectPrimary,
+                           String subjectSecondary) {
+            mStore = store;
+            mAdapter = adapter;
+            mTab = tab;
+            mAlias = alias;
+            mSubjectPrimary = subjectPrimary;
+            mSubjectSecondary = subjectSecondary;
+            mDeleted = mTab.deleted(mStore, mAlias);
+        }
+
+        /**
+         * Loads the certificate if only its subject was known.  Does file
+         * operations, so don't call on the UI thread.
+         *
+         * @return false if the certificate is gone.
+         */
+        private synchronized boolean loadCertificate() {
+            if (mX509Cert == null) {
+                mX509Cert = (X509Certificate) mStore.getCertificate(mAlias, true);
+                if (mX509Cert == null) {
+                    return false;
+                }
+                mSslCert = new SslCertificate(mX509Cert);
+            }
+            return true;
+        }
+
+        private synchronized boolean isLoaded() {
+            return mSslCert != null;
+        }
+
         @Override public int compareTo(CertHolder o) {
             int primary = this.mSubjectPrimary.compareToIgnoreCase(o.mSubjectPrimary);
             if (primary != 0) {
@@ -334,6 +508,10 @@ public class TrustedCredentialsSettings extends Fragment {
     }
 
     private void showCertDialog(final CertHolder certHolder) {
+        if (!certHolder.isLoaded()) {
+            new CertLoader(certHolder).execute();
+            return;
+        }
         View view = certHolder.mSslCert.inflateCertificateView(getActivity());
         AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
         builder.setTitle(com.android.internal.R.string.ssl_certificate);
@@ -378,6 +556,21 @@ public class TrustedCredentialsSettings extends Fragment {
         certDialog.show();
     }
 
+    private class CertLoader extends AsyncTask<Void, Void, Boolean> {
+        private final CertHolder mCertHolder;
+        private CertLoader(CertHolder certHolder) {
+            mCertHolder = certHolder;
+        }
+        @Override protected Boolean doInBackground(Void... params) {
+            return mCertHolder.loadCertificate();
+        }
+        @Override protected void onPostExecute(Boolean ok) {
+            if (ok && isAdded()) {
+                showCertDialog(mCertHolder);
+            }
+        }
+    }
+
     private class AliasOperation extends AsyncTask<Void, Void, Boolean> {
         private final CertHolder mCertHolder;
         private AliasOperation(CertHolder certHolder) {
@@ -389,6 +582,9 @@ public class TrustedCredentialsSettings extends Fragment {
                 IKeyChainService service = keyChainConnection.getService();
                 try {
                     if (mCertHolder.mDeleted) {
+                        if (!mCertHolder.loadCertificate()) {
+                            return false;
+                        }
                         byte[] bytes = mCertHolder.mX509Cert.getEncoded();
                         service.installCaCertificate(bytes);
                         return true;
@@ -20,27 +20,19 @@ import android.app.Activity;
 import android.app.AlarmManager;
 import android.app.ListFragment;
 import android.content.Context;
-import android.content.res.XmlResourceParser;
 import android.os.Bundle;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
 import android.widget.ListView;
-import android.widget.SimpleAdapter;
+import android.widget.TextView;
 
-import org.xmlpull.v1.XmlPullParserException;
-
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.TimeZone;
 
 /**
@@ -57,30 +49,119 @@ public class ZonePicker extends ListFragment {
         public void onZoneSelected(TimeZone tz);
     }
 
-    private static final String KEY_ID = "id";  // value: String
-    private static final String KEY_DISPLAYNAME = "name";  // value: String
-    private static final String KEY_GMT = "gmt";  // value: String
-    private static final String KEY_OFFSET = "offset";  // value: int (Integer)
-    private static final String XMLTAG_TIMEZONE = "timezone";
-
-    private static final int HOURS_1 = 60 * 60000;
-
     private static final int MENU_TIMEZONE = Menu.FIRST+1;
     private static final int MENU_ALPHABETICAL = Menu.FIRST;
 
     private boolean mSortedByTimezone;
 
-    private SimpleAdapter mTimezoneSortedAdapter;
-    private SimpleAdapter mAlphabeticalAdapter;
+    private TimeZoneAdapter mTimezoneSortedAdapter;
+    private TimeZoneAdapter mAlphabeticalAdapter;
 
     private ZoneSelectionListener mListener;
 
+    /**
+     * Adapter over the zones of a {@link TimeZoneCatalog} in one order.
+     * Items are zone ids.
+     */
+    public static class TimeZoneAdapter extends BaseAdapter implements Filterable {
+        private final LayoutInflater mInflater;
+        private final int mLayoutId;
+        private final TimeZoneCatalog mCatalog;
+        private final TimeZoneCatalog.Offsets mOffsets;
+        private final int[] mOrder;
+        /** Zones shown, in order; either mOrder or a filtered copy of it. */
+        private int[] mVisible;
+        private Filter mFilter;
+
+        private TimeZoneAdapter(Context context, int layoutId, boolean sortedByName) {
+            mInflater = LayoutInflater.from(context);
+            mLayoutId = layoutId;
+            mCatalog = TimeZoneCatalog.getInstance(context);
+            mOffsets = mCatalog.getOffsets(System.currentTimeMillis());
+            mOrder = sortedByName ? mCatalog.mByName : mOffsets.mByOffset;
+            mVisible = mOrder;
+        }
+
+        @Override
+        public int getCount() {
+            return mVisible.length;
+        }
+
+        @Override
+        public String getItem(int position) {
+            return mCatalog.mIds[mVisible[position]];
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mVisible[position];
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            final View view = convertView != null
+                    ? convertView : mInflater.inflate(mLayoutId, parent, false);
+            final int zone = mVisible[position];
+            ((TextView) view.findViewById(android.R.id.text1)).setText(mCatalog.mNames[zone]);
+            ((TextView) view.findViewById(android.R.id.text2)).setText(
+                    mOffsets.mLabels[zone]);
+            return view;
+        }
+
+        @Override
+        public Filter getFilter() {
+            if (mFilter == null) {
+                mFilter = new Filter() {
+                    @Override
+                    protected FilterResults performFiltering(CharSequence prefix) {
+                        final FilterResults results = new FilterResults();
+                        if (prefix == null || prefix.length() == 0) {
+                            results.values = mOrder;
+                            results.count = mOrder.length;
+                            return results;
+                        }
+                        final boolean[] matches = mCatalog.search(prefix.toString());
+                        int count = 0;
+                        for (int zone : mOrder) {
+                            if (matches[zone]) count++;
+                        }
+                        final int[] visible = new int[count];
+                        count = 0;
+                        for (int zone : mOrder) {
+                            if (matches[zone]) visible[count++] = zone;
+                        }
+                        results.values = visible;
+                        results.count = count;
+                        return results;
+                    }
+
+                    @Override
+                    protected void publishResults(CharSequence constraint,
+                            FilterResults results) {
+                        mVisible = (int[]) results.values;
+                        if (results.count > 0) {
+                            notifyDataSetChanged();
+                        } else {
+                            notifyDataSetInvalidated();
+                        }
+                    }
+                };
+            }
+            return mFilter;
+        }
+    }
+
     /**
      * Constructs an adapter with TimeZone list. Sorted by TimeZone in default.
      *
      * @param sortedByName use Name for sorting the list.
      */
-    public static SimpleAdapter constructTimezoneAdapter(Context context,
+    public static TimeZoneAdapter constructTimezoneAdapter(Context context,
             boolean sortedByName) {
         return constructTimezoneAdapter(context, sortedByName,
                 R.layout.date_time_setup_custom_list_item_2);
@@ -91,42 +172,29 @@ public class ZonePicker extends ListFragment {
      *
      * @param sortedByName use Name for sorting the list.
      */
-    public static SimpleAdapter constructTimezoneAdapter(Context context,
+    public static TimeZoneAdapter constructTimezoneAdapter(Context context,
             boolean sortedByName, int layoutId) {
-        final String[] from = new String[] {KEY_DISPLAYNAME, KEY_GMT};
-        final int[] to = new int[] {android.R.id.text1, android.R.id.text2};
-
-        final String sortKey = (sortedByName ? KEY_DISPLAYNAME : KEY_OFFSET);
-        final MyComparator comparator = new MyComparator(sortKey);
-        final List<HashMap<String, Object>> sortedList = getZones(context);
-        Collections.sort(sortedList, comparator);
-        final SimpleAdapter adapter = new SimpleAdapter(context,
-                sortedList,
-                layoutId,
-                from,
-                to);
-
-        return adapter;
+        return new TimeZoneAdapter(context, layoutId, sortedByName);
     }
 
     /**
-     * Searches {@link TimeZone} from the given {@link SimpleAdapter} object, and returns
+     * Searches {@link TimeZone} from the given {@link TimeZoneAdapter} object, and returns
      * the index for the TimeZone.
      *
-     * @param adapter SimpleAdapter constructed by
+     * @param adapter TimeZoneAdapter constructed by
      * {@link #constructTimezoneAdapter(Context, boolean)}.
      * @param tz TimeZone to be searched.
      * @return Index for the given TimeZone. -1 when there's no corresponding list item.
      * returned.
      */
-    public static int getTimeZoneIndex(SimpleAdapter adapter, TimeZone tz) {
-        final String defaultId = tz.getID();
-        final int listSize = adapter.getCount();
-        for (int i = 0; i < listSize; i++) {
-            // Using HashMap<String, Object> induces unnecessary warning.
-            final HashMap<?,?> map = (HashMap<?,?>)adapter.getItem(i);
-            final String id = (String)map.get(KEY_ID);
-            if (defaultId.equals(id)) {
+    public static int getTimeZoneIndex(TimeZoneAdapter adapter, TimeZone tz) {
+        final int zone = adapter.mCatalog.indexOf(tz.getID());
+        if (zone < 0) {
+            return -1;
+        }
+        final int[] visible = adapter.mVisible;
+        for (int i = 0; i < visible.length; i++) {
+            if (visible[i] == zone) {
                 // If current timezone is in this list, move focus to it
                 return i;
             }
@@ -140,7 +208,7 @@ public class ZonePicker extends ListFragment {
      * @return TimeZone object corresponding to the item.
      */
     public static TimeZone obtainTimeZoneFromItem(Object item) {
-        return TimeZone.getTimeZone((String)((Map<?, ?>)item).get(KEY_ID));
+        return TimeZone.getTimeZone((String) item);
     }
 
     @Override
@@ -154,6 +222,8 @@ public class ZonePicker extends ListFragment {
         // Sets the adapter
         setSorting(true);
         setHasOptionsMenu(true);
+        // Typing filters by words of the zone names.
+        getListView().setTextFilterEnabled(true);
     }
 
     @Override
@@ -207,7 +277,7 @@ public class ZonePicker extends ListFragment {
     }
 
     private void setSorting(boolean sortByTimezone) {
-        final SimpleAdapter adapter =
+        final TimeZoneAdapter adapter =
                 sortByTimezone ? mTimezoneSortedAdapter : mAlphabeticalAdapter;
         setListAdapter(adapter);
         mSortedByTimezone = sortByTimezone;
@@ -217,79 +287,9 @@ public class ZonePicker extends ListFragment {
         }
     }
 
-    private static List<HashMap<String, Object>> getZones(Context context) {
-        final List<HashMap<String, Object>> myData = new ArrayList<HashMap<String, Object>>();
-        final long date = Calendar.getInstance().getTimeInMillis();
-        try {
-            XmlResourceParser xrp = context.getResources().getXml(R.xml.timezones);
-            while (xrp.next() != XmlResourceParser.START_TAG)
-                continue;
-            xrp.next();
-            while (xrp.getEventType() != XmlResourceParser.END_TAG) {
-                while (xrp.getEventType() != XmlResourceParser.START_TAG) {
-                    if (xrp.getEventType() == XmlResourceParser.END_DOCUMENT) {
-                        return myData;
-                    }
-                    xrp.next();
-                }
-                if (xrp.getName().equals(XMLTAG_TIMEZONE)) {
-                    String id = xrp.getAttributeValue(0);
-                    String displayName = xrp.nextText();
-                    addItem(myData, id, displayName, date);
-                }
-                while (xrp.getEventType() != XmlResourceParser.END_TAG) {
-                    xrp.next();
-                }
-                xrp.next();
-            }
-            xrp.close();
-        } catch (XmlPullParserException xppe) {
-            Log.e(TAG, "Ill-formatted timezones.xml file");
-        } catch (java.io.IOException ioe) {
-            Log.e(TAG, "Unable to read timezones.xml file");
-        }
-
-        return myData;
-    }
-
-    private static void addItem(
-            List<HashMap<String, Object>> myData, String id, String displayName, long date) {
-        final HashMap<String, Object> map = new HashMap<String, Object>();
-        map.put(KEY_ID, id);
-        map.put(KEY_DISPLAYNAME, displayName);
-        final TimeZone tz = TimeZone.getTimeZone(id);
-        final int offset = tz.getOffset(date);
-        final int p = Math.abs(offset);
-        final StringBuilder name = new StringBuilder();
-        name.append("GMT");
-
-        if (offset < 0) {
-            name.append('-');
-        } else {
-            name.append('+');
-        }
-
-        name.append(p / (HOURS_1));
-        name.append(':');
-
-        int min = p / 60000;
-        min %= 60;
-
-        if (min < 10) {
-            name.append('0');
-        }
-        name.append(min);
-
-        map.put(KEY_GMT, name.toString());
-        map.put(KEY_OFFSET, offset);
-
-        myData.add(map);
-    }
-
     @Override
     public void onListItemClick(ListView listView, View v, int position, long id) {
-        final Map<?, ?> map = (Map<?, ?>)listView.getItemAtPosition(position);
-        final String tzId = (String) map.get(KEY_ID);
+        final String tzId = (String) listView.getItemAtPosition(position);
 
         // Update the system timezone value
         final Activity activity = getActivity();
@@ -302,37 +302,4 @@ public class ZonePicker extends ListFragment {
             getActivity().onBackPressed();
         }
     }
-
-    private static class MyComparator implements Comparator<HashMap<?, ?>> {
-        private String mSortingKey;
-
-        public MyComparator(String sortingKey) {
-            mSortingKey = sortingKey;
-        }
-
-        public void setSortingKey(String sortingKey) {
-            mSortingKey = sortingKey;
-        }
-
-        public int compare(HashMap<?, ?> map1, HashMap<?, ?> map2) {
-            Object value1 = map1.get(mSortingKey);
-            Object value2 = map2.get(mSortingKey);
-
-            /*
-             * This should never happen, but just in-case, put non-comparable
-             * items at the end.
-             */
-            if (!isComparable(value1)) {
-                return isComparable(value2) ? 1 : 0;
-            } else if (!isComparable(value2)) {
-                return -1;
-            }
-
-            return ((Comparable) value1).compareTo(value2);
-        }
-
-        private boolean isComparable(Object value) {
-            return (value != null) && (value instanceof Comparable); 
-        }
-    }
 }
@@ -38,6 +38,7 @@ import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Message;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceScreen;
 import android.text.format.DateFormat;
@@ -49,8 +50,23 @@ class AccountPreferenceBase extends SettingsPreferenceFragment
     protected static final String TAG = "AccountSettings";
     public static final String AUTHORITIES_FILTER_KEY = "authorities";
     public static final String ACCOUNT_TYPES_FILTER_KEY = "account_types";
-    private final Handler mHandler = new Handler();
+
+    /** How long to gather sync status callbacks before updating. */
+    private static final long SYNC_STATE_UPDATE_DELAY = 250;
+
+    private static final int MSG_SYNC_STATE_CHANGED = 1;
+
+    private final Handler mHandler = new Handler() {
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == MSG_SYNC_STATE_CHANGED) {
+                mSyncState = null;
+                onSyncStateUpdated();
+            }
+        }
+    };
     private Object mStatusChangeListenerHandle;
+    private SyncStateSnapshot mSyncState;
     private HashMap<String, ArrayList<String>> mAccountTypeToAuthorities = null;
     private AuthenticatorHelper mAuthenticatorHelper = new AuthenticatorHelper();
     private java.text.DateFormat mDateFormat;
@@ -102,18 +118,33 @@ class AccountPreferenceBase extends SettingsPreferenceFragment
     public void onPause() {
         super.onPause();
         ContentResolver.removeStatusChangeListener(mStatusChangeListenerHandle);
+        mHandler.removeMessages(MSG_SYNC_STATE_CHANGED);
+        // Changes aren't reported while paused.
+        mSyncState = null;
     }
 
     private SyncStatusObserver mSyncStatusObserver = new SyncStatusObserver() {
         public void onStatusChanged(int which) {
-            mHandler.post(new Runnable() {
-                public void run() {
-                    onSyncStateUpdated();
-                }
-            });
+            // A running sync reports changes in bursts; update at most once
+            // per delay instead of once per callback.
+            if (!mHandler.hasMessages(MSG_SYNC_STATE_CHANGED)) {
+                mHandler.sendEmptyMessageDelayed(MSG_SYNC_STATE_CHANGED,
+                        SYNC_STATE_UPDATE_DELAY);
+            }
         }
     };
 
+    /**
+     * Returns the sync state as of the last sync status change, which stays
+     * the same until the next change is handled.
+     */
+    protected SyncStateSnapshot getSyncState() {
+        if (mSyncState == null) {
+            mSyncState = new SyncStateSnapshot();
+        }
+        return mSyncState;
+    }
+
     public ArrayList<String> getAuthoritiesForAccountType(String type) {
         if (mAccountTypeToAuthorities == null) {
             mAccountTypeToAuthorities = Maps.newHashMap();
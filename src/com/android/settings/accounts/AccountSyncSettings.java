@@ -29,8 +29,6 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.SyncAdapterType;
-import android.content.SyncInfo;
-import android.content.SyncStatusInfo;
 import android.content.pm.ProviderInfo;
 import android.net.ConnectivityManager;
 import android.os.Bundle;
@@ -39,6 +37,7 @@ import android.preference.Preference;
 import android.preference.PreferenceScreen;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.Pair;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -59,7 +58,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 
 public class AccountSyncSettings extends AccountPreferenceBase {
 
@@ -81,6 +79,12 @@ public class AccountSyncSettings extends AccountPreferenceBase {
     private ArrayList<SyncStateCheckBoxPreference> mCheckBoxes =
                 new ArrayList<SyncStateCheckBoxPreference>();
     private ArrayList<SyncAdapterType> mInvisibleAdapters = Lists.newArrayList();
+    private HashMap<String, ArrayList<String>> mUserVisibleAuthorities = Maps.newHashMap();
+    // The (account, authority) pairs that have a checkbox
+    private ArrayList<Pair<Account, String>> mSyncablePairs;
+    // Sync state shown by the checkboxes, to only update those that changed
+    private SyncStateSnapshot mLastSyncState;
+    private boolean mLastBackgroundDataEnabled;
 
     @Override
     public Dialog onCreateDialog(final int id) {
@@ -254,7 +258,7 @@ public class AccountSyncSettings extends AccountPreferenceBase {
     @Override
     public void onPrepareOptionsMenu(Menu menu) {
         super.onPrepareOptionsMenu(menu);
-        boolean syncActive = ContentResolver.getCurrentSync() != null;
+        boolean syncActive = getSyncState().isSyncActive();
         menu.findItem(MENU_SYNC_NOW_ID).setVisible(!syncActive);
         menu.findItem(MENU_SYNC_CANCEL_ID).setVisible(syncActive);
     }
@@ -349,15 +353,6 @@ public class AccountSyncSettings extends AccountPreferenceBase {
         }
     }
 
-    private boolean isSyncing(List<SyncInfo> currentSyncs, Account account, String authority) {
-        for (SyncInfo syncInfo : currentSyncs) {
-            if (syncInfo.account.equals(account) && syncInfo.authority.equals(authority)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     @Override
     protected void onSyncStateUpdated() {
         if (!isResumed()) return;
@@ -367,12 +362,26 @@ public class AccountSyncSettings extends AccountPreferenceBase {
     private void setFeedsState() {
         // iterate over all the preferences, setting the state properly for each
         Date date = new Date();
-        List<SyncInfo> currentSyncs = ContentResolver.getCurrentSyncs();
+        final SyncStateSnapshot syncState = getSyncState();
         boolean syncIsFailing = false;
 
         // Refresh the sync status checkboxes - some syncs may have become active.
         updateAccountCheckboxes(mAccounts);
 
+        final ConnectivityManager connManager =
+            (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        final boolean masterSyncAutomatically = syncState.getMasterSyncAutomatically();
+        final boolean backgroundDataEnabled = connManager.getBackgroundDataSetting();
+        final boolean oneTimeSyncMode = !masterSyncAutomatically || !backgroundDataEnabled;
+
+        // Only update the checkboxes whose state changed since they were last set.
+        SyncStateSnapshot lastSyncState = mLastSyncState;
+        if (backgroundDataEnabled != mLastBackgroundDataEnabled) {
+            lastSyncState = null;
+        }
+        mLastSyncState = syncState;
+        mLastBackgroundDataEnabled = backgroundDataEnabled;
+
         for (int i = 0, count = getPreferenceScreen().getPreferenceCount(); i < count; i++) {
             Preference pref = getPreferenceScreen().getPreference(i);
             if (! (pref instanceof SyncStateCheckBoxPreference)) {
@@ -383,26 +392,25 @@ public class AccountSyncSettings extends AccountPreferenceBase {
             String authority = syncPref.getAuthority();
             Account account = syncPref.getAccount();
 
-            SyncStatusInfo status = ContentResolver.getSyncStatus(account, authority);
-            boolean syncEnabled = ContentResolver.getSyncAutomatically(account, authority);
-            boolean authorityIsPending = status == null ? false : status.pending;
-            boolean initialSync = status == null ? false : status.initialize;
-
-            boolean activelySyncing = isSyncing(currentSyncs, account, authority);
-            boolean lastSyncFailed = status != null
-                    && status.lastFailureTime != 0
-                    && status.getLastFailureMesgAsInt(0)
-                       != ContentResolver.SYNC_ERROR_SYNC_ALREADY_IN_PROGRESS;
-            if (!syncEnabled) lastSyncFailed = false;
+            final SyncStateSnapshot.State state = syncState.getState(account, authority);
+            boolean syncEnabled = state.syncAutomatically;
+            boolean authorityIsPending = state.pending;
+            boolean initialSync = state.initialize;
+
+            boolean activelySyncing = state.active;
+            boolean lastSyncFailed = syncEnabled && state.lastSyncFailed();
             if (lastSyncFailed && !activelySyncing && !authorityIsPending) {
                 syncIsFailing = true;
             }
+            if (syncState.isUnchanged(lastSyncState, account, authority)) {
+                continue;
+            }
             if (Log.isLoggable(TAG, Log.VERBOSE)) {
                 Log.d(TAG, "Update sync status: " + account + " " + authority +
                         " active = " + activelySyncing + " pend =" +  authorityIsPending);
             }
 
-            final long successEndTime = (status == null) ? 0 : status.lastSuccessTime;
+            final long successEndTime = state.lastSuccessTime;
             if (!syncEnabled) {
                 syncPref.setSummary(R.string.sync_disabled);
             } else if (activelySyncing) {
@@ -414,47 +422,45 @@ public class AccountSyncSettings extends AccountPreferenceBase {
             } else {
                 syncPref.setSummary("");
             }
-            int syncState = ContentResolver.getIsSyncable(account, authority);
+            int syncable = state.syncable;
 
-            syncPref.setActive(activelySyncing && (syncState >= 0) &&
+            syncPref.setActive(activelySyncing && (syncable >= 0) &&
                     !initialSync);
-            syncPref.setPending(authorityIsPending && (syncState >= 0) &&
+            syncPref.setPending(authorityIsPending && (syncable >= 0) &&
                     !initialSync);
 
             syncPref.setFailed(lastSyncFailed);
-            ConnectivityManager connManager =
-                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-            final boolean masterSyncAutomatically = ContentResolver.getMasterSyncAutomatically();
-            final boolean backgroundDataEnabled = connManager.getBackgroundDataSetting();
-            final boolean oneTimeSyncMode = !masterSyncAutomatically || !backgroundDataEnabled;
             syncPref.setOneTimeSyncMode(oneTimeSyncMode);
             syncPref.setChecked(oneTimeSyncMode || syncEnabled);
         }
         mErrorInfoView.setVisibility(syncIsFailing ? View.VISIBLE : View.GONE);
-        getActivity().invalidateOptionsMenu();
+        if (lastSyncState == null || lastSyncState.isSyncActive() != syncState.isSyncActive()) {
+            getActivity().invalidateOptionsMenu();
+        }
     }
 
     @Override
     public void onAccountsUpdated(Account[] accounts) {
         super.onAccountsUpdated(accounts);
         mAccounts = accounts;
+        updateSyncAdapters();
+        mSyncablePairs = null;
         updateAccountCheckboxes(accounts);
         onSyncStateUpdated();
     }
 
-    private void updateAccountCheckboxes(Account[] accounts) {
+    private void updateSyncAdapters() {
         mInvisibleAdapters.clear();
+        mUserVisibleAuthorities.clear();
 
         SyncAdapterType[] syncAdapters = ContentResolver.getSyncAdapterTypes();
-        HashMap<String, ArrayList<String>> accountTypeToAuthorities =
-            Maps.newHashMap();
         for (int i = 0, n = syncAdapters.length; i < n; i++) {
             final SyncAdapterType sa = syncAdapters[i];
             if (sa.isUserVisible()) {
-                ArrayList<String> authorities = accountTypeToAuthorities.get(sa.accountType);
+                ArrayList<String> authorities = mUserVisibleAuthorities.get(sa.accountType);
                 if (authorities == null) {
                     authorities = new ArrayList<String>();
-                    accountTypeToAuthorities.put(sa.accountType, authorities);
+                    mUserVisibleAuthorities.put(sa.accountType, authorities);
                 }
                 if (Log.isLoggable(TAG, Log.VERBOSE)) {
                     Log.d(TAG, "onAccountUpdated: added authority " + sa.authority
@@ -467,32 +473,52 @@ public class AccountSyncSettings extends AccountPreferenceBase {
                 mInvisibleAdapters.add(sa);
             }
         }
+    }
 
-        for (int i = 0, n = mCheckBoxes.size(); i < n; i++) {
-            getPreferenceScreen().removePreference(mCheckBoxes.get(i));
-        }
-        mCheckBoxes.clear();
-
+    /**
+     * Shows a checkbox for each syncable authority of the accounts, unless
+     * the same ones are already shown.
+     */
+    private void updateAccountCheckboxes(Account[] accounts) {
+        final SyncStateSnapshot syncState = getSyncState();
+        final ArrayList<Pair<Account, String>> syncablePairs =
+                new ArrayList<Pair<Account, String>>();
         for (int i = 0, n = accounts.length; i < n; i++) {
             final Account account = accounts[i];
             if (Log.isLoggable(TAG, Log.VERBOSE)) {
                 Log.d(TAG, "looking for sync adapters that match account " + account);
             }
-            final ArrayList<String> authorities = accountTypeToAuthorities.get(account.type);
+            final ArrayList<String> authorities = mUserVisibleAuthorities.get(account.type);
             if (authorities != null && (mAccount == null || mAccount.equals(account))) {
                 for (int j = 0, m = authorities.size(); j < m; j++) {
                     final String authority = authorities.get(j);
                     // We could check services here....
-                    int syncState = ContentResolver.getIsSyncable(account, authority);
+                    int syncable = syncState.getState(account, authority).syncable;
                     if (Log.isLoggable(TAG, Log.VERBOSE)) {
-                        Log.d(TAG, "  found authority " + authority + " " + syncState);
+                        Log.d(TAG, "  found authority " + authority + " " + syncable);
                     }
-                    if (syncState > 0) {
-                        addSyncStateCheckBox(account, authority);
+                    if (syncable > 0) {
+                        syncablePairs.add(Pair.create(account, authority));
                     }
                 }
             }
         }
+        if (syncablePairs.equals(mSyncablePairs)) {
+            return;
+        }
+        mSyncablePairs = syncablePairs;
+        // New checkboxes have no state yet.
+        mLastSyncState = null;
+
+        for (int i = 0, n = mCheckBoxes.size(); i < n; i++) {
+            getPreferenceScreen().removePreference(mCheckBoxes.get(i));
+        }
+        mCheckBoxes.clear();
+
+        for (int i = 0, n = syncablePairs.size(); i < n; i++) {
+            final Pair<Account, String> pair = syncablePairs.get(i);
+            addSyncStateCheckBox(pair.first, pair.second);
+        }
 
         Collections.sort(mCheckBoxes);
         for (int i = 0, n = mCheckBoxes.size(); i < n; i++) {
@@ -507,6 +533,7 @@ public class AccountSyncSettings extends AccountPreferenceBase {
     protected void onAuthDescriptionsUpdated() {
         super.onAuthDescriptionsUpdated();
         getPreferenceScreen().removeAll();
+        mSyncablePairs = null;
         if (mAccount != null) {
             mProviderIcon.setImageDrawable(getDrawableForType(mAccount.type));
             mProviderId.setText(getLabelForType(mAccount.type));
@@ -36,6 +36,8 @@ public class AuthenticatorHelper {
             = new HashMap<String, AuthenticatorDescription>();
     private AuthenticatorDescription[] mAuthDescs;
     private ArrayList<String> mEnabledAccountTypes = new ArrayList<String>();
+    private Map<String, ArrayList<Account>> mAccountsByType =
+            new HashMap<String, ArrayList<Account>>();
     private Map<String, Drawable> mAccTypeIconCache = new HashMap<String, Drawable>();
 
     public AuthenticatorHelper() {
@@ -108,14 +110,32 @@ public class AuthenticatorHelper {
             accounts = AccountManager.get(context).getAccounts();
         }
         mEnabledAccountTypes.clear();
+        mAccountsByType.clear();
         mAccTypeIconCache.clear();
         for (Account account: accounts) {
-            if (!mEnabledAccountTypes.contains(account.type)) {
+            ArrayList<Account> accountsOfType = mAccountsByType.get(account.type);
+            if (accountsOfType == null) {
                 mEnabledAccountTypes.add(account.type);
+                accountsOfType = new ArrayList<Account>();
+                mAccountsByType.put(account.type, accountsOfType);
             }
+            accountsOfType.add(account);
         }
     }
 
+    /**
+     * Gets the accounts of a type as of the last call to onAccountsUpdated().
+     * @param accountType the type of account
+     * @return the accounts of that type, or an empty array if there are none.
+     */
+    public Account[] getAccountsByType(final String accountType) {
+        ArrayList<Account> accounts = mAccountsByType.get(accountType);
+        if (accounts == null) {
+            return new Account[0];
+        }
+        return accounts.toArray(new Account[accounts.size()]);
+    }
+
     public boolean containsAccountType(String accountType) {
         return mTypeToAuthDescription.containsKey(accountType);
     }
@@ -27,8 +27,6 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SyncAdapterType;
-import android.content.SyncInfo;
-import android.content.SyncStatusInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.graphics.drawable.Drawable;
@@ -73,6 +71,9 @@ public class ManageAccountsSettings extends AccountPreferenceBase
 
     private String[] mAuthorities;
     private TextView mErrorInfoView;
+    // Sync state shown by the account preferences, to only update those that changed
+    private SyncStateSnapshot mLastSyncState;
+    private HashSet<String> mUserFacingAuthorities;
 
     private SettingsDialogFragment mDialogFragment;
     // If an account type is set, then show only accounts of that type
@@ -169,7 +170,7 @@ public class ManageAccountsSettings extends AccountPreferenceBase
     @Override
     public void onPrepareOptionsMenu(Menu menu) {
         super.onPrepareOptionsMenu(menu);
-        boolean syncActive = ContentResolver.getCurrentSync() != null;
+        boolean syncActive = getSyncState().isSyncActive();
         menu.findItem(MENU_SYNC_NOW_ID).setVisible(!syncActive && mFirstAccount != null);
         menu.findItem(MENU_SYNC_CANCEL_ID).setVisible(syncActive && mFirstAccount != null);
     }
@@ -219,20 +220,25 @@ public class ManageAccountsSettings extends AccountPreferenceBase
         if (getActivity() == null) return;
 
         // iterate over all the preferences, setting the state properly for each
-        SyncInfo currentSync = ContentResolver.getCurrentSync();
+        final SyncStateSnapshot syncState = getSyncState();
+        final SyncStateSnapshot lastSyncState = mLastSyncState;
+        mLastSyncState = syncState;
 
         boolean anySyncFailed = false; // true if sync on any account failed
         Date date = new Date();
 
         // only track userfacing sync adapters when deciding if account is synced or not
-        final SyncAdapterType[] syncAdapters = ContentResolver.getSyncAdapterTypes();
-        HashSet<String> userFacing = new HashSet<String>();
-        for (int k = 0, n = syncAdapters.length; k < n; k++) {
-            final SyncAdapterType sa = syncAdapters[k];
-            if (sa.isUserVisible()) {
-                userFacing.add(sa.authority);
+        if (mUserFacingAuthorities == null) {
+            final SyncAdapterType[] syncAdapters = ContentResolver.getSyncAdapterTypes();
+            mUserFacingAuthorities = new HashSet<String>();
+            for (int k = 0, n = syncAdapters.length; k < n; k++) {
+                final SyncAdapterType sa = syncAdapters[k];
+                if (sa.isUserVisible()) {
+                    mUserFacingAuthorities.add(sa.authority);
+                }
             }
         }
+        final HashSet<String> userFacing = mUserFacingAuthorities;
         for (int i = 0, count = getPreferenceScreen().getPreferenceCount(); i < count; i++) {
             Preference pref = getPreferenceScreen().getPreference(i);
             if (! (pref instanceof AccountPreference)) {
@@ -246,29 +252,24 @@ public class ManageAccountsSettings extends AccountPreferenceBase
             boolean syncIsFailing = false;
             final ArrayList<String> authorities = accountPref.getAuthorities();
             boolean syncingNow = false;
+            boolean unchanged = lastSyncState != null;
             if (authorities != null) {
                 for (String authority : authorities) {
-                    SyncStatusInfo status = ContentResolver.getSyncStatus(account, authority);
-                    boolean syncEnabled = ContentResolver.getSyncAutomatically(account, authority)
-                            && ContentResolver.getMasterSyncAutomatically()
-                            && (ContentResolver.getIsSyncable(account, authority) > 0);
-                    boolean authorityIsPending = ContentResolver.isSyncPending(account, authority);
-                    boolean activelySyncing = currentSync != null
-                            && currentSync.authority.equals(authority)
-                            && new Account(currentSync.account.name, currentSync.account.type)
-                                    .equals(account);
-                    boolean lastSyncFailed = status != null
-                            && syncEnabled
-                            && status.lastFailureTime != 0
-                            && status.getLastFailureMesgAsInt(0)
-                               != ContentResolver.SYNC_ERROR_SYNC_ALREADY_IN_PROGRESS;
+                    final SyncStateSnapshot.State state = syncState.getState(account, authority);
+                    unchanged &= syncState.isUnchanged(lastSyncState, account, authority);
+                    boolean syncEnabled = state.syncAutomatically
+                            && syncState.getMasterSyncAutomatically()
+                            && (state.syncable > 0);
+                    boolean authorityIsPending = state.pending;
+                    boolean activelySyncing = state.active;
+                    boolean lastSyncFailed = syncEnabled && state.lastSyncFailed();
                     if (lastSyncFailed && !activelySyncing && !authorityIsPending) {
                         syncIsFailing = true;
                         anySyncFailed = true;
                     }
                     syncingNow |= activelySyncing;
-                    if (status != null && lastSuccessTime < status.lastSuccessTime) {
-                        lastSuccessTime = status.lastSuccessTime;
+                    if (lastSuccessTime < state.lastSuccessTime) {
+                        lastSuccessTime = state.lastSuccessTime;
                     }
                     syncCount += syncEnabled && userFacing.contains(authority) ? 1 : 0;
                 }
@@ -277,6 +278,10 @@ public class ManageAccountsSettings extends AccountPreferenceBase
                     Log.v(TAG, "no syncadapters found for " + account);
                 }
             }
+            if (unchanged) {
+                // Nothing this preference shows has changed since last time.
+                continue;
+            }
             if (syncIsFailing) {
                 accountPref.setSyncStatus(AccountPreference.SYNC_ERROR, true);
             } else if (syncCount == 0) {
@@ -307,6 +312,8 @@ public class ManageAccountsSettings extends AccountPreferenceBase
         if (getActivity() == null) return;
         getPreferenceScreen().removeAll();
         mFirstAccount = null;
+        mLastSyncState = null;
+        mUserFacingAuthorities = null;
         addPreferencesFromResource(R.xml.manage_accounts_settings);
         for (int i = 0, n = accounts.length; i < n; i++) {
             final Account account = accounts[i];
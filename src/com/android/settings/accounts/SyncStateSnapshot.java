@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.accounts;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.content.SyncInfo;
+import android.content.SyncStatusInfo;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The sync state of accounts as seen at one moment, so that a screen reads
+ * each (account, authority) from the sync manager at most once per update.
+ *
+ * <p>The master switch and the running syncs are read when the snapshot is
+ * taken; the state of a pair is read the first time it is asked for and
+ * kept from then on.  A snapshot is never refreshed: once the sync manager
+ * reports a change, take a new one and compare the two with
+ * {@link #isUnchanged} to find the pairs that need updating.
+ */
+class SyncStateSnapshot {
+
+    /**
+     * Sync state of one (account, authority) pair.
+     */
+    static class State {
+        boolean syncAutomatically;
+        int syncable;
+        boolean active;
+        boolean pending;
+        boolean initialize;
+        long lastSuccessTime;
+        long lastFailureTime;
+        int lastFailureMesg;
+
+        /**
+         * Returns whether the last sync failed for a reason other than
+         * another sync already running.
+         */
+        boolean lastSyncFailed() {
+            return lastFailureTime != 0
+                    && lastFailureMesg != ContentResolver.SYNC_ERROR_SYNC_ALREADY_IN_PROGRESS;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof State)) {
+                return false;
+            }
+            final State other = (State) o;
+            return syncAutomatically == other.syncAutomatically
+                    && syncable == other.syncable
+                    && active == other.active
+                    && pending == other.pending
+                    && initialize == other.initialize
+                    && lastSuccessTime == other.lastSuccessTime
+                    && lastFailureTime == other.lastFailureTime
+                    && lastFailureMesg == other.lastFailureMesg;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (lastSuccessTime ^ lastFailureTime) * 31 + syncable;
+        }
+    }
+
+    private final boolean mMasterSyncAutomatically;
+    private final List<SyncInfo> mCurrentSyncs;
+    private final HashMap<Account, HashMap<String, State>> mStates =
+            new HashMap<Account, HashMap<String, State>>();
+
+    SyncStateSnapshot() {
+        mMasterSyncAutomatically = ContentResolver.getMasterSyncAutomatically();
+        mCurrentSyncs = ContentResolver.getCurrentSyncs();
+    }
+
+    boolean getMasterSyncAutomatically() {
+        return mMasterSyncAutomatically;
+    }
+
+    /**
+     * Returns whether any sync was running.
+     */
+    boolean isSyncActive() {
+        return !mCurrentSyncs.isEmpty();
+    }
+
+    /**
+     * Returns the state of the given pair, reading it if this snapshot
+     * hasn't yet.
+     */
+    State getState(Account account, String authority) {
+        HashMap<String, State> states = mStates.get(account);
+        if (states == null) {
+            states = new HashMap<String, State>();
+            mStates.put(account, states);
+        }
+        State state = states.get(authority);
+        if (state == null) {
+            state = readState(account, authority);
+            states.put(authority, state);
+        }
+        return state;
+    }
+
+    /**
+     * Returns whether the given pair, and the master switch, are the same as
+     * in an earlier snapshot that also read that pair.
+     */
+    boolean isUnchanged(SyncStateSnapshot previous, Account account, String authority) {
+        if (previous == null
+                || previous.mMasterSyncAutomatically != mMasterSyncAutomatically) {
+            return false;
+        }
+        final HashMap<String, State> states = previous.mStates.get(account);
+        final State state = states != null ? states.get(authority) : null;
+        return state != null && state.equals(getState(account, authority));
+    }
+
+    private State readState(Account account, String authority) {
+        final State state = new State();
+        state.syncAutomatically = ContentResolver.getSyncAutomatically(account, authority);
+        state.syncable = ContentResolver.getIsSyncable(account, authority);
+        for (int i = 0, n = mCurrentSyncs.size(); i < n; i++) {
+            final SyncInfo syncInfo = mCurrentSyncs.get(i);
+            if (syncInfo.account.equals(account) && syncInfo.authority.equals(authority)) {
+                state.active = true;
+                break;
+            }
+        }
+        // The pending flag of the status is what isSyncPending() reports.
+        final SyncStatusInfo status = ContentResolver.getSyncStatus(account, authority);
+        if (status != null) {
+            state.pending = status.pending;
+            state.initialize = status.initialize;
+            state.lastSuccessTime = status.lastSuccessTime;
+            state.lastFailureTime = status.lastFailureTime;
+            state.lastFailureMesg = status.getLastFailureMesgAsInt(0);
+        }
+        return state;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * On-disk snapshot of the expensive parts of {@link ApplicationsState.AppEntry}
+ * (labels, sizes and a downscaled icon), so that a fresh process can show the
+ * application list without first loading every label, icon and size again.
+ *
+ * <p>Records are keyed by package name and tagged with the modification time of
+ * the package's apk; a record is only used if that time still matches.  The
+ * whole file is tagged with the locale and density it was written under, since
+ * both labels and icons depend on them.
+ */
+class AppEntrySnapshot {
+    static final String TAG = "AppEntrySnapshot";
+
+    private static final String FILE_NAME = "app_entries.snapshot";
+    private static final int MAGIC = 0x41505053; // 'APPS'
+    private static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static class Record {
+        String packageName;
+        long updateKey;
+        String label;
+        String normalizedLabel;
+        long size;
+        long internalSize;
+        long externalSize;
+        long cacheSize;
+        long codeSize;
+        long dataSize;
+        long externalCodeSize;
+        long externalDataSize;
+        long externalCacheSize;
+        byte[] icon;
+
+        /**
+         * Copies the cached label and sizes into a freshly created entry.  The
+         * sizes are still marked stale, so they will be recomputed by the
+         * normal size pass; they are only used to populate the list until then.
+         * The icon is handed over undecoded, see {@link #decodeIcon}.
+         */
+        void applyTo(ApplicationsState.AppEntry entry) {
+            entry.label = label;
+            entry.normalizedLabel = normalizedLabel;
+            entry.mounted = true;
+            entry.size = size;
+            entry.internalSize = internalSize;
+            entry.externalSize = externalSize;
+            entry.cacheSize = cacheSize;
+            entry.codeSize = codeSize;
+            entry.dataSize = dataSize;
+            entry.externalCodeSize = externalCodeSize;
+            entry.externalDataSize = externalDataSize;
+            entry.externalCacheSize = externalCacheSize;
+            entry.snapshotIcon = icon;
+        }
+    }
+
+    /**
+     * Decodes an icon stored in the snapshot, or returns null if it can't be
+     * decoded.  Not meant to be called with any ApplicationsState lock but
+     * the entry's held.
+     */
+    static Drawable decodeIcon(byte[] icon, Resources res) {
+        Bitmap bitmap = BitmapFactory.decodeByteArray(icon, 0, icon.length);
+        return bitmap != null ? new BitmapDrawable(res, bitmap) : null;
+    }
+
+    private final AtomicFile mFile;
+
+    AppEntrySnapshot(File dir) {
+        mFile = new AtomicFile(new File(dir, FILE_NAME));
+    }
+
+    /**
+     * Returns the part of the given configuration that labels and icons
+     * depend on.
+     */
+    static String getConfigKey(Resources res) {
+        return res.getConfiguration().locale + "/" + res.getDisplayMetrics().densityDpi;
+    }
+
+    /**
+     * Reads the snapshot through a read-only memory mapping.  Returns an empty
+     * map if there is no snapshot, or it was written by another version or
+     * under another configuration than the given one.
+     */
+    HashMap<String, Record> load(String configKey) {
+        HashMap<String, Record> records = new HashMap<String, Record>();
+        FileInputStream in = null;
+        try {
+            in = mFile.openRead();
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION
+                    || !configKey.equals(readString(buf))) {
+                return records;
+            }
+            final int count = buf.getInt();
+            for (int i=0; i<count; i++) {
+                Record r = new Record();
+                r.packageName = readString(buf);
+                r.updateKey = buf.getLong();
+                r.label = readString(buf);
+                r.normalizedLabel = readString(buf);
+                r.size = buf.getLong();
+                r.internalSize = buf.getLong();
+                r.externalSize = buf.getLong();
+                r.cacheSize = buf.getLong();
+                r.codeSize = buf.getLong();
+                r.dataSize = buf.getLong();
+                r.externalCodeSize = buf.getLong();
+                r.externalDataSize = buf.getLong();
+                r.externalCacheSize = buf.getLong();
+                final int iconLen = readLength(buf);
+                if (iconLen > 0) {
+                    r.icon = new byte[iconLen];
+                    buf.get(r.icon);
+                }
+                records.put(r.packageName, r);
+            }
+        } catch (IOException e) {
+            // No snapshot yet.
+        } catch (BufferUnderflowException e) {
+            Log.w(TAG, "Truncated or corrupt snapshot, ignoring");
+            records.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Writes the given entries, whose labels and icons were loaded under the
+     * configuration with the given key.  Must be called from a background
+     * thread, as icons are re-encoded here.  Entries whose size has not been
+     * computed yet are skipped, and icons that themselves came from the
+     * snapshot are not written back at snapshot resolution.
+     */
+    void save(ArrayList<ApplicationsState.AppEntry> entries, String configKey, int iconSize) {
+        FileOutputStream fos = null;
+        try {
+            ArrayList<ApplicationsState.AppEntry> snapshottable
+                    = new ArrayList<ApplicationsState.AppEntry>(entries.size());
+            for (int i=0; i<entries.size(); i++) {
+                ApplicationsState.AppEntry entry = entries.get(i);
+                synchronized (entry) {
+                    if (entry.mounted && entry.label != null && entry.size >= 0) {
+                        snapshottable.add(entry);
+                    }
+                }
+            }
+
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, configKey);
+            out.writeInt(snapshottable.size());
+            ByteArrayOutputStream iconBytes = new ByteArrayOutputStream();
+            for (int i=0; i<snapshottable.size(); i++) {
+                ApplicationsState.AppEntry entry = snapshottable.get(i);
+                synchronized (entry) {
+                    writeString(out, entry.info.packageName);
+                    out.writeLong(entry.apkFile.lastModified());
+                    writeString(out, entry.label);
+                    writeString(out, entry.getNormalizedLabel());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.internalSize);
+                    out.writeLong(entry.externalSize);
+                    out.writeLong(entry.cacheSize);
+                    out.writeLong(entry.codeSize);
+                    out.writeLong(entry.dataSize);
+                    out.writeLong(entry.externalCodeSize);
+                    out.writeLong(entry.externalDataSize);
+                    out.writeLong(entry.externalCacheSize);
+                    iconBytes.reset();
+                    if (!entry.iconFromSnapshot && encodeIcon(entry.icon, iconSize, iconBytes)) {
+                        out.writeInt(iconBytes.size());
+                        iconBytes.writeTo(out);
+                    } else {
+                        out.writeInt(0);
+                    }
+                }
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed writing snapshot", e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+        }
+    }
+
+    private static boolean encodeIcon(Drawable icon, int iconSize, ByteArrayOutputStream out) {
+        if (icon == null || iconSize <= 0) {
+            return false;
+        }
+        Bitmap bitmap;
+        if (icon instanceof BitmapDrawable) {
+            bitmap = Bitmap.createScaledBitmap(((BitmapDrawable)icon).getBitmap(),
+                    iconSize, iconSize, true);
+        } else {
+            // Draw a private copy, the original's bounds belong to whatever view shows it.
+            Drawable.ConstantState state = icon.getConstantState();
+            if (state == null) {
+                return false;
+            }
+            Drawable copy = state.newDrawable();
+            bitmap = Bitmap.createBitmap(iconSize, iconSize, Bitmap.Config.ARGB_8888);
+            copy.setBounds(0, 0, iconSize, iconSize);
+            copy.draw(new Canvas(bitmap));
+        }
+        return bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a length and checks that that many bytes follow, so a corrupt
+     * length is treated like a truncated file.
+     */
+    private static int readLength(MappedByteBuffer buf) {
+        final int len = buf.getInt();
+        if (len < 0 || len > buf.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return len;
+    }
+
+    private static String readString(MappedByteBuffer buf) {
+        byte[] bytes = new byte[readLength(buf)];
+        buf.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
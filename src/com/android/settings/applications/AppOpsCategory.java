@@ -19,10 +19,7 @@ package com.android.settings.applications;
 import android.app.ListFragment;
 import android.app.LoaderManager;
 import android.content.AsyncTaskLoader;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.Loader;
 import android.content.pm.ActivityInfo;
 import android.content.res.Configuration;
@@ -37,6 +34,7 @@ import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
 
+import java.util.HashSet;
 import java.util.List;
 
 import com.android.settings.R;
@@ -84,51 +82,66 @@ public class AppOpsCategory extends ListFragment implements
     }
 
     /**
-     * Helper class to look for interesting changes to the installed apps
-     * so that the loader can be updated.
+     * A custom Loader that loads all of the installed applications.  It is
+     * fed by the shared {@link AppOpsSnapshot}; when packages change, only
+     * their entries are rebuilt.
      */
-    public static class PackageIntentReceiver extends BroadcastReceiver {
-        final AppListLoader mLoader;
-
-        public PackageIntentReceiver(AppListLoader loader) {
-            mLoader = loader;
-            IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
-            filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
-            filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
-            filter.addDataScheme("package");
-            mLoader.getContext().registerReceiver(this, filter);
-            // Register for events related to sdcard installation.
-            IntentFilter sdFilter = new IntentFilter();
-            sdFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
-            sdFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
-            mLoader.getContext().registerReceiver(this, sdFilter);
-        }
-
-        @Override public void onReceive(Context context, Intent intent) {
-            // Tell the loader about the change.
-            mLoader.onContentChanged();
-        }
-    }
-
-    /**
-     * A custom Loader that loads all of the installed applications.
-     */
-    public static class AppListLoader extends AsyncTaskLoader<List<AppOpEntry>> {
+    public static class AppListLoader extends AsyncTaskLoader<List<AppOpEntry>>
+            implements AppOpsSnapshot.Callback {
         final InterestingConfigChanges mLastConfig = new InterestingConfigChanges();
         final AppOpsState mState;
         final AppOpsState.OpsTemplate mTemplate;
+        final AppOpsSnapshot mSnapshot;
 
         List<AppOpEntry> mApps;
-        PackageIntentReceiver mPackageObserver;
+        boolean mObserving;
+
+        // Guarded by this: packages changed since the last load, or null if
+        // everything needs to be rebuilt.
+        HashSet<String> mChangedPackages;
+
+        // Last result of loadInBackground(), and the snapshot generation it
+        // was built from.
+        volatile List<AppOpEntry> mLastApps;
+        volatile int mLastGeneration;
 
         public AppListLoader(Context context, AppOpsState state, AppOpsState.OpsTemplate template) {
             super(context);
             mState = state;
             mTemplate = template;
+            mSnapshot = AppOpsSnapshot.getInstance(context);
         }
 
         @Override public List<AppOpEntry> loadInBackground() {
-            return mState.buildState(mTemplate);
+            final HashSet<String> changed;
+            synchronized (this) {
+                changed = mChangedPackages;
+                mChangedPackages = new HashSet<String>();
+            }
+            final int generation = mSnapshot.update();
+            final List<AppOpEntry> lastApps = mLastApps;
+            final List<AppOpEntry> apps;
+            if (lastApps != null && changed != null && generation == mLastGeneration) {
+                apps = mState.updateState(mTemplate, lastApps,
+                        changed.toArray(new String[changed.size()]));
+            } else {
+                apps = mState.buildState(mTemplate);
+            }
+            mLastApps = apps;
+            mLastGeneration = generation;
+            return apps;
+        }
+
+        @Override public void onPackagesChanged(String[] packageNames) {
+            synchronized (this) {
+                if (mChangedPackages != null) {
+                    for (String pkg : packageNames) {
+                        mChangedPackages.add(pkg);
+                    }
+                }
+            }
+            // Tell the loader about the change.
+            onContentChanged();
         }
 
         /**
@@ -176,13 +189,23 @@ public class AppOpsCategory extends ListFragment implements
             }
 
             // Start watching for changes in the app data.
-            if (mPackageObserver == null) {
-                mPackageObserver = new PackageIntentReceiver(this);
+            if (!mObserving) {
+                mSnapshot.registerCallback(this);
+                mObserving = true;
             }
 
             // Has something interesting in the configuration changed since we
             // last built the app list?
+            // The shared labels are only dropped if they really are stale;
+            // our own list is built from scratch the first time anyway.
+            mSnapshot.applyConfig(getContext().getResources());
             boolean configChange = mLastConfig.applyNewConfig(getContext().getResources());
+            if (configChange) {
+                // Labels may have changed, so rebuild everything.
+                synchronized (this) {
+                    mChangedPackages = null;
+                }
+            }
 
             if (takeContentChanged() || mApps == null || configChange) {
                 // If the data has changed since the last time it was loaded
@@ -227,10 +250,11 @@ public class AppOpsCategory extends ListFragment implements
             }
 
             // Stop monitoring for changes.
-            if (mPackageObserver != null) {
-                getContext().unregisterReceiver(mPackageObserver);
-                mPackageObserver = null;
+            if (mObserving) {
+                mSnapshot.unregisterCallback(this);
+                mObserving = false;
             }
+            mLastApps = null;
         }
 
         /**
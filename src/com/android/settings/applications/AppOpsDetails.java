@@ -150,6 +150,8 @@ public class AppOpsDetails extends Fragment {
                         mAppOps.setMode(switchOp, entry.getPackageOps().getUid(),
                                 entry.getPackageOps().getPackageName(), isChecked
                                 ? AppOpsManager.MODE_ALLOWED : AppOpsManager.MODE_IGNORED);
+                        AppOpsSnapshot.getInstance(getActivity()).noteOpsChanged(
+                                entry.getPackageOps().getPackageName());
                     }
                 });
             }
@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.AppOpsManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Resources;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Process-wide snapshot of app ops and permission holders for all of
+ * {@link AppOpsState#ALL_TEMPLATES}, shared by the app ops categories so
+ * that switching between them doesn't query the system again.
+ *
+ * <p>Once anyone has registered, package broadcasts are watched for the
+ * life of the process; the changed packages, and those whose ops were
+ * changed through {@link #noteOpsChanged}, are queried again on the next
+ * {@link #update()} and reported to the callbacks, so they can rebuild just
+ * those packages.  Labels are cached per package until the locale or
+ * density changes.
+ */
+public class AppOpsSnapshot {
+    static final String TAG = "AppOpsSnapshot";
+    static final boolean DEBUG = false;
+
+    public interface Callback {
+        /**
+         * Called on the main thread when the given packages changed.
+         */
+        void onPackagesChanged(String[] packageNames);
+    }
+
+    private static AppOpsSnapshot sInstance;
+
+    // Ops and permissions of all templates.
+    private static boolean[] sOpMask;
+    private static int[] sOps;
+    private static String[] sPermissions;
+    private static HashSet<String> sPermissionSet;
+
+    private final Context mContext;
+    private final AppOpsManager mAppOps;
+    private final PackageManager mPm;
+
+    private final ArrayList<Callback> mCallbacks = new ArrayList<Callback>();
+    private boolean mReceiverRegistered;
+
+    // Guarded by this.
+    private final LinkedHashMap<String, AppOpsManager.PackageOps> mPackageOps
+            = new LinkedHashMap<String, AppOpsManager.PackageOps>();
+    private final LinkedHashMap<String, PackageInfo> mPackages
+            = new LinkedHashMap<String, PackageInfo>();
+    private final HashSet<String> mPendingPackages = new HashSet<String>();
+    private boolean mLoaded;
+    private int mGeneration;
+
+    // Guarded by mLabels.
+    private final HashMap<String, String> mLabels = new HashMap<String, String>();
+    private Locale mLabelsLocale;
+    private int mLabelsDensity;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String[] pkgList = null;
+            if (Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE.equals(intent.getAction())
+                    || Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE.equals(
+                            intent.getAction())) {
+                pkgList = intent.getStringArrayExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST);
+            } else if (intent.getData() != null) {
+                pkgList = new String[] { intent.getData().getSchemeSpecificPart() };
+            }
+            if (pkgList == null || pkgList.length == 0) {
+                return;
+            }
+            if (DEBUG) Log.d(TAG, intent.getAction() + ": " + pkgList.length + " packages");
+            synchronized (mLabels) {
+                for (String pkg : pkgList) {
+                    mLabels.remove(pkg);
+                }
+            }
+            packagesChanged(pkgList);
+        }
+    };
+
+    public static synchronized AppOpsSnapshot getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppOpsSnapshot(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AppOpsSnapshot(Context context) {
+        mContext = context;
+        mAppOps = (AppOpsManager)context.getSystemService(Context.APP_OPS_SERVICE);
+        mPm = context.getPackageManager();
+    }
+
+    private static synchronized void ensureOps() {
+        if (sOpMask != null) {
+            return;
+        }
+        final boolean[] mask = new boolean[AppOpsManager._NUM_OP];
+        int count = 0;
+        final ArrayList<String> perms = new ArrayList<String>();
+        for (AppOpsState.OpsTemplate tpl : AppOpsState.ALL_TEMPLATES) {
+            for (int op : tpl.ops) {
+                if (!mask[op]) {
+                    mask[op] = true;
+                    count++;
+                }
+            }
+            for (String perm : new PermissionOpIndex(tpl).getPermissions()) {
+                if (!perms.contains(perm)) {
+                    perms.add(perm);
+                }
+            }
+        }
+        final int[] ops = new int[count];
+        count = 0;
+        for (int op=0; op<mask.length; op++) {
+            if (mask[op]) ops[count++] = op;
+        }
+        sOps = ops;
+        sPermissions = perms.toArray(new String[perms.size()]);
+        sPermissionSet = new HashSet<String>(perms);
+        sOpMask = mask;
+    }
+
+    /**
+     * Returns whether the snapshot holds everything the given template shows.
+     */
+    public static boolean covers(AppOpsState.OpsTemplate tpl) {
+        ensureOps();
+        for (int op : tpl.ops) {
+            if (!sOpMask[op]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Start reporting package changes to the given callback.  Must be called
+     * on the main thread.
+     */
+    public void registerCallback(Callback callback) {
+        if (!mReceiverRegistered) {
+            // Kept registered from now on, so the snapshot can be trusted
+            // while no category is showing.
+            mReceiverRegistered = true;
+            IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
+            filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+            filter.addDataScheme("package");
+            mContext.registerReceiver(mPackageReceiver, filter);
+            // Register for events related to sdcard installation.
+            IntentFilter sdFilter = new IntentFilter();
+            sdFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+            sdFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+            mContext.registerReceiver(mPackageReceiver, sdFilter);
+        }
+        mCallbacks.add(callback);
+    }
+
+    /**
+     * Stop reporting package changes to the given callback.  Must be called
+     * on the main thread.
+     */
+    public void unregisterCallback(Callback callback) {
+        mCallbacks.remove(callback);
+    }
+
+    /**
+     * Tell the snapshot that ops of the given package were changed from
+     * here, since no broadcast reports that.  Must be called on the main
+     * thread.
+     */
+    public void noteOpsChanged(String packageName) {
+        packagesChanged(new String[] { packageName });
+    }
+
+    private void packagesChanged(String[] pkgList) {
+        synchronized (this) {
+            for (String pkg : pkgList) {
+                mPendingPackages.add(pkg);
+            }
+        }
+        for (int i=0; i<mCallbacks.size(); i++) {
+            mCallbacks.get(i).onPackagesChanged(pkgList);
+        }
+    }
+
+    /**
+     * Drop the snapshot, so that the next {@link #update()} queries all
+     * packages again.
+     */
+    public synchronized void invalidate() {
+        mLoaded = false;
+    }
+
+    /**
+     * Drop cached labels if the locale or density changed since labels were
+     * last checked against the configuration.
+     *
+     * @return whether the labels were dropped.
+     */
+    public boolean applyConfig(Resources res) {
+        final Locale locale = res.getConfiguration().locale;
+        final int density = res.getDisplayMetrics().densityDpi;
+        synchronized (mLabels) {
+            final boolean changed = mLabelsLocale != null
+                    && (!mLabelsLocale.equals(locale) || mLabelsDensity != density);
+            if (changed) {
+                mLabels.clear();
+            }
+            mLabelsLocale = locale;
+            mLabelsDensity = density;
+            return changed;
+        }
+    }
+
+    /**
+     * Bring the snapshot up to date, querying all packages if it isn't
+     * loaded or just the changed ones otherwise.  May block on IPC, so don't
+     * call from the main thread.
+     *
+     * @return generation of the snapshot, which changes whenever all
+     *      packages were queried again.
+     */
+    public synchronized int update() {
+        ensureOps();
+        if (!mLoaded) {
+            loadLocked();
+            mLoaded = true;
+            mGeneration++;
+        } else if (mPendingPackages.size() > 0) {
+            for (String pkg : mPendingPackages) {
+                updatePackageLocked(pkg);
+            }
+        }
+        mPendingPackages.clear();
+        return mGeneration;
+    }
+
+    private void loadLocked() {
+        if (DEBUG) Log.d(TAG, "Loading all packages");
+        mPackageOps.clear();
+        mPackages.clear();
+        final List<AppOpsManager.PackageOps> pkgs = mAppOps.getPackagesForOps(sOps);
+        if (pkgs != null) {
+            for (int i=0; i<pkgs.size(); i++) {
+                mPackageOps.put(pkgs.get(i).getPackageName(), pkgs.get(i));
+            }
+        }
+        final List<PackageInfo> apps = mPm.getPackagesHoldingPermissions(sPermissions, 0);
+        for (int i=0; i<apps.size(); i++) {
+            mPackages.put(apps.get(i).packageName, apps.get(i));
+        }
+    }
+
+    private void updatePackageLocked(String packageName) {
+        if (DEBUG) Log.d(TAG, "Loading package " + packageName);
+        mPackageOps.remove(packageName);
+        mPackages.remove(packageName);
+        final PackageInfo pi;
+        try {
+            pi = mPm.getPackageInfo(packageName, PackageManager.GET_PERMISSIONS);
+        } catch (NameNotFoundException e) {
+            // Removed.
+            return;
+        }
+        final List<AppOpsManager.PackageOps> pkgs = mAppOps.getOpsForPackage(
+                pi.applicationInfo.uid, packageName, sOps);
+        if (pkgs != null && pkgs.size() > 0) {
+            mPackageOps.put(packageName, pkgs.get(0));
+        }
+        // Match what getPackagesHoldingPermissions() gives loadLocked(): only
+        // the granted permissions we care about, without flags.
+        if (pi.requestedPermissions != null) {
+            final ArrayList<String> held = new ArrayList<String>();
+            for (int i=0; i<pi.requestedPermissions.length; i++) {
+                final String perm = pi.requestedPermissions[i];
+                if (!sPermissionSet.contains(perm)) {
+                    continue;
+                }
+                if (pi.requestedPermissionsFlags != null
+                        && (pi.requestedPermissionsFlags[i]
+                                & PackageInfo.REQUESTED_PERMISSION_GRANTED) == 0) {
+                    continue;
+                }
+                held.add(perm);
+            }
+            if (held.size() > 0) {
+                pi.requestedPermissions = held.toArray(new String[held.size()]);
+                pi.requestedPermissionsFlags = null;
+                mPackages.put(packageName, pi);
+            }
+        }
+    }
+
+    /**
+     * Returns the ops of all packages using any op of any template.
+     */
+    public synchronized List<AppOpsManager.PackageOps> getPackageOps() {
+        return new ArrayList<AppOpsManager.PackageOps>(mPackageOps.values());
+    }
+
+    /**
+     * Returns all packages holding a permission shown by any template.
+     */
+    public synchronized List<PackageInfo> getPackages() {
+        return new ArrayList<PackageInfo>(mPackages.values());
+    }
+
+    public synchronized AppOpsManager.PackageOps getPackageOps(String packageName) {
+        return mPackageOps.get(packageName);
+    }
+
+    public synchronized PackageInfo getPackage(String packageName) {
+        return mPackages.get(packageName);
+    }
+
+    /**
+     * Returns the label of the given application, loading it if it is not
+     * cached.
+     */
+    public String getLabel(ApplicationInfo info) {
+        synchronized (mLabels) {
+            final String label = mLabels.get(info.packageName);
+            if (label != null) {
+                return label;
+            }
+        }
+        final CharSequence loaded = info.loadLabel(mPm);
+        final String label = loaded != null ? loaded.toString() : info.packageName;
+        synchronized (mLabels) {
+            mLabels.put(info.packageName, label);
+        }
+        return label;
+    }
+}
@@ -30,6 +30,7 @@ import android.text.format.DateUtils;
 
 import android.util.Log;
 import android.util.SparseArray;
+import com.android.settings.AppIconCache;
 import com.android.settings.R;
 
 import java.io.File;
@@ -38,6 +39,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 public class AppOpsState {
@@ -219,7 +221,8 @@ public class AppOpsState {
         public Drawable getIcon() {
             if (mIcon == null) {
                 if (mApkFile.exists()) {
-                    mIcon = mInfo.loadIcon(mState.mPm);
+                    mIcon = AppIconCache.getInstance(mState.mContext).loadIcon(
+                            mState.mPm, mInfo);
                     return mIcon;
                 } else {
                     mMounted = false;
@@ -229,7 +232,8 @@ public class AppOpsState {
                 // its icon.
                 if (mApkFile.exists()) {
                     mMounted = true;
-                    mIcon = mInfo.loadIcon(mState.mPm);
+                    mIcon = AppIconCache.getInstance(mState.mContext).loadIcon(
+                            mState.mPm, mInfo);
                     return mIcon;
                 }
             } else {
@@ -251,8 +255,7 @@ public class AppOpsState {
                     mLabel = mInfo.packageName;
                 } else {
                     mMounted = true;
-                    CharSequence label = mInfo.loadLabel(context.getPackageManager());
-                    mLabel = label != null ? label.toString() : mInfo.packageName;
+                    mLabel = AppOpsSnapshot.getInstance(context).getLabel(mInfo);
                 }
             }
         }
@@ -455,110 +458,188 @@ public class AppOpsState {
     }
 
     public List<AppOpEntry> buildState(OpsTemplate tpl, int uid, String packageName) {
+        final PermissionOpIndex permIndex = new PermissionOpIndex(tpl);
+        List<AppOpsManager.PackageOps> pkgs;
+        List<PackageInfo> apps;
+        // Outside of a single package, answer from the snapshot shared by
+        // all templates when it covers this one.
+        final boolean useSnapshot = packageName == null && AppOpsSnapshot.covers(tpl);
+        if (useSnapshot) {
+            final AppOpsSnapshot snapshot = AppOpsSnapshot.getInstance(mContext);
+            snapshot.update();
+            pkgs = snapshot.getPackageOps();
+            apps = snapshot.getPackages();
+        } else if (packageName != null) {
+            pkgs = mAppOps.getOpsForPackage(uid, packageName, tpl.ops);
+            apps = new ArrayList<PackageInfo>();
+            try {
+                PackageInfo pi = mPm.getPackageInfo(packageName, PackageManager.GET_PERMISSIONS);
+                apps.add(pi);
+            } catch (NameNotFoundException e) {
+            }
+        } else {
+            pkgs = mAppOps.getPackagesForOps(tpl.ops);
+            apps = mPm.getPackagesHoldingPermissions(permIndex.getPermissions(), 0);
+        }
+
+        final List<AppOpEntry> entries = buildEntries(tpl, permIndex, pkgs, apps, useSnapshot,
+                packageName);
+
+        // Sort the list.
+        Collections.sort(entries, APP_OP_COMPARATOR);
+
+        // Done!
+        return entries;
+    }
+
+    /**
+     * Rebuild the entries of the given packages in a list previously built
+     * for the same template, from the shared {@link AppOpsSnapshot}.
+     */
+    public List<AppOpEntry> updateState(OpsTemplate tpl, List<AppOpEntry> previous,
+            String[] packageNames) {
+        if (!AppOpsSnapshot.covers(tpl)) {
+            return buildState(tpl);
+        }
+        final AppOpsSnapshot snapshot = AppOpsSnapshot.getInstance(mContext);
+        snapshot.update();
+
+        final HashSet<String> changed = new HashSet<String>();
+        final List<AppOpsManager.PackageOps> pkgs = new ArrayList<AppOpsManager.PackageOps>();
+        final List<PackageInfo> apps = new ArrayList<PackageInfo>();
+        for (String pkg : packageNames) {
+            if (!changed.add(pkg)) {
+                continue;
+            }
+            AppOpsManager.PackageOps pkgOps = snapshot.getPackageOps(pkg);
+            if (pkgOps != null) {
+                pkgs.add(pkgOps);
+            }
+            PackageInfo pi = snapshot.getPackage(pkg);
+            if (pi != null) {
+                apps.add(pi);
+            }
+        }
+
+        final List<AppOpEntry> entries = new ArrayList<AppOpEntry>(previous.size());
+        for (int i=0; i<previous.size(); i++) {
+            AppOpEntry entry = previous.get(i);
+            if (!changed.contains(entry.getAppEntry().getApplicationInfo().packageName)) {
+                entries.add(entry);
+            }
+        }
+        if (DEBUG) Log.d(TAG, "Rebuilding " + changed.size() + " packages, keeping "
+                + entries.size() + " of " + previous.size() + " entries");
+        entries.addAll(buildEntries(tpl, new PermissionOpIndex(tpl), pkgs, apps, true, null));
+        Collections.sort(entries, APP_OP_COMPARATOR);
+        return entries;
+    }
+
+    private List<AppOpEntry> buildEntries(OpsTemplate tpl, PermissionOpIndex permIndex,
+            List<AppOpsManager.PackageOps> pkgs, List<PackageInfo> apps, boolean filterOps,
+            String packageName) {
         final Context context = mContext;
 
         final HashMap<String, AppEntry> appEntries = new HashMap<String, AppEntry>();
         final List<AppOpEntry> entries = new ArrayList<AppOpEntry>();
 
-        final ArrayList<String> perms = new ArrayList<String>();
-        final ArrayList<Integer> permOps = new ArrayList<Integer>();
+        final boolean[] inTemplate = new boolean[AppOpsManager._NUM_OP];
         final int[] opToOrder = new int[AppOpsManager._NUM_OP];
         for (int i=0; i<tpl.ops.length; i++) {
-            if (tpl.showPerms[i]) {
-                String perm = AppOpsManager.opToPermission(tpl.ops[i]);
-                if (perm != null && !perms.contains(perm)) {
-                    perms.add(perm);
-                    permOps.add(tpl.ops[i]);
-                    opToOrder[tpl.ops[i]] = i;
-                }
+            inTemplate[tpl.ops[i]] = true;
+            if (tpl.showPerms[i] && permIndex.getOp(
+                    AppOpsManager.opToPermission(tpl.ops[i])) == tpl.ops[i]) {
+                opToOrder[tpl.ops[i]] = i;
             }
         }
 
-        List<AppOpsManager.PackageOps> pkgs;
-        if (packageName != null) {
-            pkgs = mAppOps.getOpsForPackage(uid, packageName, tpl.ops);
-        } else {
-            pkgs = mAppOps.getPackagesForOps(tpl.ops);
-        }
-
         if (pkgs != null) {
             for (int i=0; i<pkgs.size(); i++) {
                 AppOpsManager.PackageOps pkgOps = pkgs.get(i);
+                List<AppOpsManager.OpEntry> ops = pkgOps.getOps();
+                if (filterOps) {
+                    // The snapshot holds the ops of every template; keep ours.
+                    ArrayList<AppOpsManager.OpEntry> tplOps = null;
+                    for (int j=0; j<ops.size(); j++) {
+                        if (inTemplate[ops.get(j).getOp()]) {
+                            if (tplOps == null) {
+                                tplOps = new ArrayList<AppOpsManager.OpEntry>(ops.size());
+                            }
+                            tplOps.add(ops.get(j));
+                        }
+                    }
+                    if (tplOps == null) {
+                        continue;
+                    }
+                    if (tplOps.size() != ops.size()) {
+                        pkgOps = new AppOpsManager.PackageOps(pkgOps.getPackageName(),
+                                pkgOps.getUid(), tplOps);
+                        ops = tplOps;
+                    }
+                }
                 AppEntry appEntry = getAppEntry(context, appEntries, pkgOps.getPackageName(), null);
                 if (appEntry == null) {
                     continue;
                 }
-                for (int j=0; j<pkgOps.getOps().size(); j++) {
-                    AppOpsManager.OpEntry opEntry = pkgOps.getOps().get(j);
+                for (int j=0; j<ops.size(); j++) {
+                    AppOpsManager.OpEntry opEntry = ops.get(j);
                     addOp(entries, pkgOps, appEntry, opEntry, packageName == null,
                             packageName == null ? 0 : opToOrder[opEntry.getOp()]);
                 }
             }
         }
 
-        List<PackageInfo> apps;
-        if (packageName != null) {
-            apps = new ArrayList<PackageInfo>();
-            try {
-                PackageInfo pi = mPm.getPackageInfo(packageName, PackageManager.GET_PERMISSIONS);
-                apps.add(pi);
-            } catch (NameNotFoundException e) {
-            }
-        } else {
-            String[] permsArray = new String[perms.size()];
-            perms.toArray(permsArray);
-            apps = mPm.getPackagesHoldingPermissions(permsArray, 0);
-        }
         for (int i=0; i<apps.size(); i++) {
             PackageInfo appInfo = apps.get(i);
-            AppEntry appEntry = getAppEntry(context, appEntries, appInfo.packageName,
-                    appInfo.applicationInfo);
-            if (appEntry == null) {
+            if (appInfo.requestedPermissions == null) {
                 continue;
             }
+            AppEntry appEntry = null;
             List<AppOpsManager.OpEntry> dummyOps = null;
             AppOpsManager.PackageOps pkgOps = null;
-            if (appInfo.requestedPermissions != null) {
-                for (int j=0; j<appInfo.requestedPermissions.length; j++) {
-                    if (appInfo.requestedPermissionsFlags != null) {
-                        if ((appInfo.requestedPermissionsFlags[j]
-                                & PackageInfo.REQUESTED_PERMISSION_GRANTED) == 0) {
-                            if (DEBUG) Log.d(TAG, "Pkg " + appInfo.packageName + " perm "
-                                    + appInfo.requestedPermissions[j] + " not granted; skipping");
-                            break;
-                        }
+            for (int j=0; j<appInfo.requestedPermissions.length; j++) {
+                if (appInfo.requestedPermissionsFlags != null) {
+                    if ((appInfo.requestedPermissionsFlags[j]
+                            & PackageInfo.REQUESTED_PERMISSION_GRANTED) == 0) {
+                        if (DEBUG) Log.d(TAG, "Pkg " + appInfo.packageName + " perm "
+                                + appInfo.requestedPermissions[j] + " not granted; skipping");
+                        break;
                     }
-                    if (DEBUG) Log.d(TAG, "Pkg " + appInfo.packageName + ": requested perm "
-                            + appInfo.requestedPermissions[j]);
-                    for (int k=0; k<perms.size(); k++) {
-                        if (!perms.get(k).equals(appInfo.requestedPermissions[j])) {
-                            continue;
-                        }
-                        if (DEBUG) Log.d(TAG, "Pkg " + appInfo.packageName + " perm " + perms.get(k)
-                                + " has op " + permOps.get(k) + ": " + appEntry.hasOp(permOps.get(k)));
-                        if (appEntry.hasOp(permOps.get(k))) {
-                            continue;
-                        }
-                        if (dummyOps == null) {
-                            dummyOps = new ArrayList<AppOpsManager.OpEntry>();
-                            pkgOps = new AppOpsManager.PackageOps(
-                                    appInfo.packageName, appInfo.applicationInfo.uid, dummyOps);
-
-                        }
-                        AppOpsManager.OpEntry opEntry = new AppOpsManager.OpEntry(
-                                permOps.get(k), AppOpsManager.MODE_ALLOWED, 0, 0, 0);
-                        dummyOps.add(opEntry);
-                        addOp(entries, pkgOps, appEntry, opEntry, packageName == null,
-                                packageName == null ? 0 : opToOrder[opEntry.getOp()]);
+                }
+                if (DEBUG) Log.d(TAG, "Pkg " + appInfo.packageName + ": requested perm "
+                        + appInfo.requestedPermissions[j]);
+                final int op = permIndex.getOp(appInfo.requestedPermissions[j]);
+                if (op < 0) {
+                    continue;
+                }
+                if (appEntry == null) {
+                    // Only load labels for apps that actually show up.
+                    appEntry = getAppEntry(context, appEntries, appInfo.packageName,
+                            appInfo.applicationInfo);
+                    if (appEntry == null) {
+                        break;
                     }
                 }
+                if (DEBUG) Log.d(TAG, "Pkg " + appInfo.packageName + " perm "
+                        + appInfo.requestedPermissions[j] + " has op " + op + ": "
+                        + appEntry.hasOp(op));
+                if (appEntry.hasOp(op)) {
+                    continue;
+                }
+                if (dummyOps == null) {
+                    dummyOps = new ArrayList<AppOpsManager.OpEntry>();
+                    pkgOps = new AppOpsManager.PackageOps(
+                            appInfo.packageName, appInfo.applicationInfo.uid, dummyOps);
+
+                }
+                AppOpsManager.OpEntry opEntry = new AppOpsManager.OpEntry(
+                        op, AppOpsManager.MODE_ALLOWED, 0, 0, 0);
+                dummyOps.add(opEntry);
+                addOp(entries, pkgOps, appEntry, opEntry, packageName == null,
+                        packageName == null ? 0 : opToOrder[opEntry.getOp()]);
             }
         }
 
-        // Sort the list.
-        Collections.sort(entries, APP_OP_COMPARATOR);
-
-        // Done!
         return entries;
     }
 }
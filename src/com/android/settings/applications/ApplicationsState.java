@@ -2,6 +2,7 @@ package com.android.settings.applications;
 
 import android.app.Application;
 import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -10,6 +11,8 @@ import android.content.pm.IPackageStatsObserver;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageStats;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Configuration;
+import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Handler;
@@ -22,15 +25,22 @@ import android.os.UserHandle;
 import android.text.format.Formatter;
 import android.util.Log;
 
+import com.android.settings.AppIconCache;
+
 import java.io.File;
 import java.text.Collator;
 import java.text.Normalizer;
 import java.text.Normalizer.Form;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Pattern;
 
 /**
@@ -41,6 +51,8 @@ public class ApplicationsState {
     static final String TAG = "ApplicationsState";
     static final boolean DEBUG = false;
     static final boolean DEBUG_LOCKING = false;
+    static final boolean DEBUG_STARTUP = Log.isLoggable(TAG, Log.DEBUG);
+    static final boolean DEBUG_LOCK_WAIT = Log.isLoggable(TAG, Log.VERBOSE);
 
     public static interface Callbacks {
         public void onRunningStateChanged(boolean running);
@@ -51,6 +63,20 @@ public class ApplicationsState {
         public void onAllSizesComputed();
     }
 
+    /**
+     * Callbacks that can follow changes to the last rebuilt list one entry
+     * at a time.  Sessions created with these get their list kept up to date
+     * as packages are added, removed or change size, instead of needing a
+     * full rebuild.  Indices refer to the list last passed to
+     * {@link Callbacks#onRebuildComplete} or returned by
+     * {@link Session#rebuild}, with all earlier changes applied.
+     */
+    public static interface IncrementalCallbacks extends Callbacks {
+        public void onEntryInserted(int index, AppEntry entry);
+        public void onEntryRemoved(int index);
+        public void onEntryMoved(int fromIndex, int toIndex);
+    }
+
     public static interface AppFilter {
         public void init();
         public boolean filterApp(ApplicationInfo info);
@@ -59,6 +85,18 @@ public class ApplicationsState {
     static final int SIZE_UNKNOWN = -1;
     static final int SIZE_INVALID = -2;
 
+    // Number of package size requests kept in flight at once.
+    static final int DEFAULT_SIZE_WINDOW = 4;
+    // How long to wait for a single package size before asking again, and
+    // how many times to ask before giving up on it.
+    static final long SIZE_LOAD_TIMEOUT = 10*1000;
+    static final int SIZE_LOAD_MAX_RETRIES = 2;
+    // Maximum number of recently displayed packages whose sizes are
+    // computed ahead of the others.
+    static final int MAX_PRIORITY_SIZE_PKGS = 32;
+    // Number of per-package latencies kept for the percentiles.
+    static final int SIZE_LATENCY_SAMPLES = 256;
+
     static final Pattern REMOVE_DIACRITICALS_PATTERN
             = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
 
@@ -107,11 +145,14 @@ public class ApplicationsState {
         // Need to synchronize on 'this' for the following.
         ApplicationInfo info;
         Drawable icon;
+        boolean iconFromSnapshot;
+        // Encoded icon from the snapshot, until decoded or replaced.
+        byte[] snapshotIcon;
         String sizeStr;
         String internalSizeStr;
         String externalSizeStr;
         boolean sizeStale;
-        long sizeLoadStart;
+        int sizeRetries;
 
         String normalizedLabel;
 
@@ -123,6 +164,38 @@ public class ApplicationsState {
             this.sizeStale = true;
             ensureLabel(context);
         }
+
+        AppEntry(Context context, ApplicationInfo info, long id,
+                AppEntrySnapshot.Record record) {
+            apkFile = new File(info.sourceDir);
+            this.id = id;
+            this.info = info;
+            this.sizeStale = true;
+            record.applyTo(this);
+            this.sizeStr = formatSize(context, this.size);
+            this.internalSizeStr = formatSize(context, this.internalSize);
+            this.externalSizeStr = formatSize(context, this.externalSize);
+        }
+
+        private AppEntry(AppEntry other) {
+            apkFile = other.apkFile;
+            id = other.id;
+            synchronized (other) {
+                info = other.info;
+                label = other.label;
+                size = other.size;
+                internalSize = other.internalSize;
+                externalSize = other.externalSize;
+            }
+        }
+
+        /**
+         * Returns a copy of what the comparators look at, so that a list
+         * sorted by it stays sorted while sizes change on other threads.
+         */
+        AppEntry sortKey() {
+            return new AppEntry(this);
+        }
         
         void ensureLabel(Context context) {
             if (this.label == null || !this.mounted) {
@@ -137,10 +210,31 @@ public class ApplicationsState {
             }
         }
         
+        /**
+         * Decodes the icon from the snapshot, to show until the real one has
+         * been loaded.
+         *
+         * @return whether there is a new icon.
+         */
+        boolean decodeSnapshotIconLocked(Resources res) {
+            final byte[] bytes = this.snapshotIcon;
+            this.snapshotIcon = null;
+            if (bytes == null || this.icon != null) {
+                return false;
+            }
+            this.icon = AppEntrySnapshot.decodeIcon(bytes, res);
+            this.iconFromSnapshot = this.icon != null;
+            return this.iconFromSnapshot;
+        }
+
         boolean ensureIconLocked(Context context, PackageManager pm) {
-            if (this.icon == null) {
+            if (this.icon == null || this.iconFromSnapshot) {
+                // An icon restored from the snapshot is only a placeholder
+                // until the real one has been loaded.
+                this.iconFromSnapshot = false;
+                this.snapshotIcon = null;
                 if (this.apkFile.exists()) {
-                    this.icon = this.info.loadIcon(pm);
+                    this.icon = AppIconCache.getInstance(context).loadIcon(pm, this.info);
                     return true;
                 } else {
                     this.mounted = false;
@@ -152,7 +246,7 @@ public class ApplicationsState {
                 // its icon.
                 if (this.apkFile.exists()) {
                     this.mounted = true;
-                    this.icon = this.info.loadIcon(pm);
+                    this.icon = AppIconCache.getInstance(context).loadIcon(pm, this.info);
                     return true;
                 }
             }
@@ -160,6 +254,13 @@ public class ApplicationsState {
         }
     }
 
+    static String formatSize(Context context, long size) {
+        if (size >= 0) {
+            return Formatter.formatFileSize(context, size);
+        }
+        return null;
+    }
+
     public static final Comparator<AppEntry> ALPHA_COMPARATOR = new Comparator<AppEntry>() {
         private final Collator sCollator = Collator.getInstance();
         @Override
@@ -272,17 +373,99 @@ public class ApplicationsState {
     boolean mHaveDisabledApps;
 
     // Information about all applications.  Synchronize on mEntriesMap
-    // to protect access to these.
+    // to protect access to these.  The entries themselves may be read
+    // without the lock: mEntriesMap and mAppEntries are safe to look up and
+    // iterate while the loader thread modifies them, so that the main
+    // thread does not have to wait for it.
     final ArrayList<Session> mSessions = new ArrayList<Session>();
     final ArrayList<Session> mRebuildingSessions = new ArrayList<Session>();
     final InterestingConfigChanges mInterestingConfigChanges = new InterestingConfigChanges();
-    final HashMap<String, AppEntry> mEntriesMap = new HashMap<String, AppEntry>();
-    final ArrayList<AppEntry> mAppEntries = new ArrayList<AppEntry>();
+    final ConcurrentHashMap<String, AppEntry> mEntriesMap
+            = new ConcurrentHashMap<String, AppEntry>();
+    final CopyOnWriteArrayList<AppEntry> mAppEntries = new CopyOnWriteArrayList<AppEntry>();
+    final LockWaitStats mLockStats = new LockWaitStats(TAG, DEBUG_LOCK_WAIT);
     List<ApplicationInfo> mApplications = new ArrayList<ApplicationInfo>();
     long mCurId = 1;
-    String mCurComputingSizePkg;
     boolean mSessionsChanged;
 
+    // Size computation.  Packages currently being sized map to the time
+    // their request was issued.  Synchronize on mEntriesMap.
+    final HashMap<String, Long> mComputingSizePkgs = new HashMap<String, Long>();
+    final ArrayList<String> mPrioritySizePkgs = new ArrayList<String>();
+    int mSizeWindow = DEFAULT_SIZE_WINDOW;
+    final SizeComputeStats mSizeStats = new SizeComputeStats();
+
+    // Entries persisted by a previous process, consumed as entries are
+    // created.  Synchronize on mEntriesMap.
+    final AppEntrySnapshot mSnapshot;
+    final HashMap<String, AppEntrySnapshot.Record> mSnapshotRecords;
+    // Whether entries hold snapshot icons that haven't been decoded yet.
+    volatile boolean mSnapshotIconsPending;
+    boolean mSnapshotDirty;
+    // Configuration that the entries' labels and icons were loaded under.
+    String mEntriesConfigKey;
+
+    // Startup latency instrumentation, see DEBUG_STARTUP.
+    static final int LOAD_PHASE_ENTRIES = 0;
+    static final int LOAD_PHASE_ICONS = 1;
+    static final int LOAD_PHASE_SIZES = 2;
+    static final int LOAD_PHASE_DONE = 3;
+    long mLoadStartTime;
+    String mLoadKind;
+    int mLoadPhase = LOAD_PHASE_DONE;
+
+    /**
+     * Counters describing the package size computation, for tuning the
+     * in-flight window.  Synchronize on mEntriesMap.
+     */
+    public static class SizeComputeStats {
+        public int inFlight;
+        public int completed;
+        public int timeouts;
+        public int failures;
+        final long[] mLatencies = new long[SIZE_LATENCY_SAMPLES];
+        int mNumLatencies;
+
+        void addLatency(long latency) {
+            mLatencies[mNumLatencies % SIZE_LATENCY_SAMPLES] = latency;
+            mNumLatencies++;
+        }
+
+        /**
+         * Returns the given percentile of the most recent per-package
+         * latencies in milliseconds, or -1 if nothing has completed yet.
+         */
+        public long getLatencyPercentile(int percentile) {
+            final int num = Math.min(mNumLatencies, SIZE_LATENCY_SAMPLES);
+            if (num == 0) {
+                return -1;
+            }
+            long[] sorted = new long[num];
+            System.arraycopy(mLatencies, 0, sorted, 0, num);
+            Arrays.sort(sorted);
+            return sorted[Math.min(num - 1, (num * percentile) / 100)];
+        }
+
+        SizeComputeStats copy() {
+            SizeComputeStats stats = new SizeComputeStats();
+            stats.inFlight = inFlight;
+            stats.completed = completed;
+            stats.timeouts = timeouts;
+            stats.failures = failures;
+            System.arraycopy(mLatencies, 0, stats.mLatencies, 0, SIZE_LATENCY_SAMPLES);
+            stats.mNumLatencies = mNumLatencies;
+            return stats;
+        }
+
+        @Override
+        public String toString() {
+            return "SizeComputeStats{inFlight=" + inFlight + " completed=" + completed
+                    + " timeouts=" + timeouts + " failures=" + failures
+                    + " p50=" + getLatencyPercentile(50) + "ms"
+                    + " p99=" + getLatencyPercentile(99) + "ms}";
+        }
+    }
+
     // Temporary for dispatching session callbacks.  Only touched by main thread.
     final ArrayList<Session> mActiveSessions = new ArrayList<Session>();
 
@@ -344,7 +527,9 @@ public class ApplicationsState {
     }
 
     void rebuildActiveSessions() {
+        final long lockStart = mLockStats.begin();
         synchronized (mEntriesMap) {
+            mLockStats.end("rebuildActiveSessions", lockStart);
             if (!mSessionsChanged) {
                 return;
             }
@@ -365,6 +550,7 @@ public class ApplicationsState {
         static final int MSG_PACKAGE_SIZE_CHANGED = 4;
         static final int MSG_ALL_SIZES_COMPUTED = 5;
         static final int MSG_RUNNING_STATE_CHANGED = 6;
+        static final int MSG_LIST_DELTA = 7;
 
         @Override
         public void handleMessage(Message msg) {
@@ -373,7 +559,33 @@ public class ApplicationsState {
                 case MSG_REBUILD_COMPLETE: {
                     Session s = (Session)msg.obj;
                     if (mActiveSessions.contains(s)) {
-                        s.mCallbacks.onRebuildComplete(s.mLastAppList);
+                        ArrayList<AppEntry> apps;
+                        synchronized (s.mRebuildSync) {
+                            apps = s.mLastAppList;
+                            s.mDeliveredGeneration = s.mLastGeneration;
+                        }
+                        s.mCallbacks.onRebuildComplete(apps);
+                    }
+                } break;
+                case MSG_LIST_DELTA: {
+                    ListDelta delta = (ListDelta)msg.obj;
+                    Session s = delta.session;
+                    // Changes to a list the callbacks never saw are dropped,
+                    // the rebuild that replaced it already includes them.
+                    if (mActiveSessions.contains(s)
+                            && delta.generation == s.mDeliveredGeneration) {
+                        IncrementalCallbacks callbacks = (IncrementalCallbacks)s.mCallbacks;
+                        switch (delta.op) {
+                            case ListDelta.INSERTED:
+                                callbacks.onEntryInserted(delta.toIndex, delta.entry);
+                                break;
+                            case ListDelta.REMOVED:
+                                callbacks.onEntryRemoved(delta.fromIndex);
+                                break;
+                            case ListDelta.MOVED:
+                                callbacks.onEntryMoved(delta.fromIndex, delta.toIndex);
+                                break;
+                        }
                     }
                 } break;
                 case MSG_PACKAGE_LIST_CHANGED: {
@@ -414,6 +626,44 @@ public class ApplicationsState {
     static final Object sLock = new Object();
     static ApplicationsState sInstance;
 
+    /**
+     * Entries live as long as the process, so drop their icons when memory
+     * gets tight, leaving only those shown on screen.  Icons are loaded
+     * again through {@link AppIconCache} when the entries are next shown.
+     */
+    final ComponentCallbacks2 mTrimCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            // Also while running, once the system is about to kill processes.
+            if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+                releaseIcons();
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            releaseIcons();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
+
+    void releaseIcons() {
+        int released = 0;
+        for (AppEntry entry : mAppEntries) {
+            synchronized (entry) {
+                if (entry.icon != null) {
+                    entry.icon = null;
+                    entry.iconFromSnapshot = false;
+                    released++;
+                }
+            }
+        }
+        if (DEBUG) Log.i(TAG, "Released " + released + " icons");
+    }
+
     static ApplicationsState getInstance(Application app) {
         synchronized (sLock) {
             if (sInstance == null) {
@@ -430,6 +680,14 @@ public class ApplicationsState {
                 Process.THREAD_PRIORITY_BACKGROUND);
         mThread.start();
         mBackgroundHandler = new BackgroundHandler(mThread.getLooper());
+        mContext.registerComponentCallbacks(mTrimCallbacks);
+
+        long snapshotStart = SystemClock.uptimeMillis();
+        mEntriesConfigKey = AppEntrySnapshot.getConfigKey(mContext.getResources());
+        mSnapshot = new AppEntrySnapshot(mContext.getCacheDir());
+        mSnapshotRecords = mSnapshot.load(mEntriesConfigKey);
+        if (DEBUG_STARTUP) Log.d(TAG, "Loaded " + mSnapshotRecords.size()
+                + " snapshot entries in " + (SystemClock.uptimeMillis() - snapshotStart) + "ms");
 
         // Only the owner can see all apps.
         if (UserHandle.myUserId() == 0) {
@@ -463,8 +721,32 @@ public class ApplicationsState {
         }
     }
 
+    static final class ListDelta {
+        static final int INSERTED = 1;
+        static final int REMOVED = 2;
+        static final int MOVED = 3;
+
+        final Session session;
+        final int generation;
+        final int op;
+        final int fromIndex;
+        final int toIndex;
+        final AppEntry entry;
+
+        ListDelta(Session session, int generation, int op, int fromIndex, int toIndex,
+                AppEntry entry) {
+            this.session = session;
+            this.generation = generation;
+            this.op = op;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.entry = entry;
+        }
+    }
+
     public class Session {
         final Callbacks mCallbacks;
+        final boolean mIncremental;
         boolean mResumed;
 
         // Rebuilding of app list.  Synchronized on mRebuildSync.
@@ -475,14 +757,33 @@ public class ApplicationsState {
         Comparator<AppEntry> mRebuildComparator;
         ArrayList<AppEntry> mRebuildResult;
         ArrayList<AppEntry> mLastAppList;
+        // Each rebuilt list gets a new generation, so that changes made to
+        // an older list can be told apart.
+        int mLastGeneration;
+        int mRebuildResultGeneration;
+
+        // Generation of the list the callbacks last received.  Only touched
+        // by the main thread.
+        int mDeliveredGeneration = -1;
+
+        // Sorted, filtered list kept up to date for incremental sessions,
+        // and the sort key of each entry as of when it was last placed.
+        // Only touched by the background thread.
+        ArrayList<AppEntry> mIndex;
+        ArrayList<AppEntry> mIndexKeys;
+        AppFilter mIndexFilter;
+        Comparator<AppEntry> mIndexComparator;
 
         Session(Callbacks callbacks) {
             mCallbacks = callbacks;
+            mIncremental = callbacks instanceof IncrementalCallbacks;
         }
 
         public void resume() {
             if (DEBUG_LOCKING) Log.v(TAG, "resume about to acquire lock...");
+            final long lockStart = mLockStats.begin();
             synchronized (mEntriesMap) {
+                mLockStats.end("resume", lockStart);
                 if (!mResumed) {
                     mResumed = true;
                     mSessionsChanged = true;
@@ -494,7 +795,9 @@ public class ApplicationsState {
 
         public void pause() {
             if (DEBUG_LOCKING) Log.v(TAG, "pause about to acquire lock...");
+            final long lockStart = mLockStats.begin();
             synchronized (mEntriesMap) {
+                mLockStats.end("pause", lockStart);
                 if (mResumed) {
                     mResumed = false;
                     mSessionsChanged = true;
@@ -508,7 +811,9 @@ public class ApplicationsState {
         // Creates a new list of app entries with the given filter and comparator.
         ArrayList<AppEntry> rebuild(AppFilter filter, Comparator<AppEntry> comparator) {
             synchronized (mRebuildSync) {
+                final long lockStart = mLockStats.begin();
                 synchronized (mEntriesMap) {
+                    mLockStats.end("rebuild", lockStart);
                     mRebuildingSessions.add(this);
                     mRebuildRequested = true;
                     mRebuildAsync = false;
@@ -537,6 +842,7 @@ public class ApplicationsState {
                 }
 
                 mRebuildAsync = true;
+                mDeliveredGeneration = mRebuildResult != null ? mRebuildResultGeneration : -1;
 
                 return mRebuildResult;
             }
@@ -564,7 +870,9 @@ public class ApplicationsState {
             }
             
             List<ApplicationInfo> apps;
+            final long lockStart = mLockStats.begin();
             synchronized (mEntriesMap) {
+                mLockStats.end("handleRebuildList", lockStart);
                 apps = new ArrayList<ApplicationInfo>(mApplications);
             }
 
@@ -573,24 +881,57 @@ public class ApplicationsState {
             for (int i=0; i<apps.size(); i++) {
                 ApplicationInfo info = apps.get(i);
                 if (filter == null || filter.filterApp(info)) {
-                    synchronized (mEntriesMap) {
-                        if (DEBUG_LOCKING) Log.v(TAG, "rebuild acquired lock");
-                        AppEntry entry = getEntryLocked(info);
+                    // Only take the lock if the entry needs to be created
+                    // or updated, rather than once per application.
+                    AppEntry entry = mEntriesMap.get(info.packageName);
+                    if (entry == null || entry.info != info) {
+                        final long lockStart = mLockStats.begin();
+                        synchronized (mEntriesMap) {
+                            mLockStats.end("handleRebuildList.entry", lockStart);
+                            if (DEBUG_LOCKING) Log.v(TAG, "rebuild acquired lock");
+                            entry = getEntryLocked(info);
+                            if (DEBUG_LOCKING) Log.v(TAG, "rebuild releasing lock");
+                        }
+                    }
+                    synchronized (entry) {
                         entry.ensureLabel(mContext);
-                        if (DEBUG) Log.i(TAG, "Using " + info.packageName + ": " + entry);
-                        filteredApps.add(entry);
-                        if (DEBUG_LOCKING) Log.v(TAG, "rebuild releasing lock");
                     }
+                    if (DEBUG) Log.i(TAG, "Using " + info.packageName + ": " + entry);
+                    filteredApps.add(entry);
                 }
             }
 
-            Collections.sort(filteredApps, comparator);
+            // Sort copies of the keys: sizes still being computed would
+            // otherwise change under the sort.
+            final HashMap<AppEntry, AppEntry> entriesByKey = new HashMap<AppEntry, AppEntry>();
+            final ArrayList<AppEntry> keys = new ArrayList<AppEntry>(filteredApps.size());
+            for (int i=0; i<filteredApps.size(); i++) {
+                final AppEntry entry = filteredApps.get(i);
+                final AppEntry key = entry.sortKey();
+                entriesByKey.put(key, entry);
+                keys.add(key);
+            }
+            Collections.sort(keys, comparator);
+            for (int i=0; i<keys.size(); i++) {
+                filteredApps.set(i, entriesByKey.get(keys.get(i)));
+            }
 
             synchronized (mRebuildSync) {
                 if (!mRebuildRequested) {
+                    if (mIncremental) {
+                        // Keep our own copy to apply changes to, the one
+                        // handed out belongs to the main thread.
+                        mIndex = filteredApps;
+                        mIndexKeys = keys;
+                        mIndexFilter = filter;
+                        mIndexComparator = comparator;
+                        filteredApps = new ArrayList<AppEntry>(filteredApps);
+                    }
+                    mLastGeneration++;
                     mLastAppList = filteredApps;
                     if (!mRebuildAsync) {
                         mRebuildResult = filteredApps;
+                        mRebuildResultGeneration = mLastGeneration;
                         mRebuildSync.notifyAll();
                     } else {
                         if (!mMainHandler.hasMessages(MainHandler.MSG_REBUILD_COMPLETE, this)) {
@@ -605,6 +946,80 @@ public class ApplicationsState {
             Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
         }
 
+        void postDelta(int op, int fromIndex, int toIndex, AppEntry entry) {
+            Message msg = mMainHandler.obtainMessage(MainHandler.MSG_LIST_DELTA,
+                    new ListDelta(this, mLastGeneration, op, fromIndex, toIndex, entry));
+            mMainHandler.sendMessage(msg);
+        }
+
+        /**
+         * Returns where an entry with the given sort key belongs.  Searches
+         * the keys rather than the entries, whose sizes may already have
+         * changed without them having been moved yet.
+         */
+        int insertionPoint(AppEntry key) {
+            int index = Collections.binarySearch(mIndexKeys, key, mIndexComparator);
+            return index >= 0 ? index : -(index + 1);
+        }
+
+        void handlePackageAdded(ApplicationInfo info) {
+            if (mIndex == null) {
+                return;
+            }
+            if (mIndexFilter != null && !mIndexFilter.filterApp(info)) {
+                return;
+            }
+            AppEntry entry;
+            synchronized (mEntriesMap) {
+                if (indexOfApplicationInfoLocked(info.packageName) < 0) {
+                    // Removed again before we got here.
+                    return;
+                }
+                entry = getEntryLocked(info);
+                entry.ensureLabel(mContext);
+            }
+            if (mIndex.contains(entry)) {
+                // Already picked up by a rebuild.
+                return;
+            }
+            AppEntry key = entry.sortKey();
+            int index = insertionPoint(key);
+            mIndex.add(index, entry);
+            mIndexKeys.add(index, key);
+            postDelta(ListDelta.INSERTED, -1, index, entry);
+        }
+
+        void handleEntryRemoved(AppEntry entry) {
+            if (mIndex == null) {
+                return;
+            }
+            int index = mIndex.indexOf(entry);
+            if (index >= 0) {
+                mIndex.remove(index);
+                mIndexKeys.remove(index);
+                postDelta(ListDelta.REMOVED, index, -1, entry);
+            }
+        }
+
+        void handleEntryChanged(AppEntry entry) {
+            if (mIndex == null) {
+                return;
+            }
+            int fromIndex = mIndex.indexOf(entry);
+            if (fromIndex < 0) {
+                return;
+            }
+            mIndex.remove(fromIndex);
+            mIndexKeys.remove(fromIndex);
+            AppEntry key = entry.sortKey();
+            int toIndex = insertionPoint(key);
+            mIndex.add(toIndex, entry);
+            mIndexKeys.add(toIndex, key);
+            if (toIndex != fromIndex) {
+                postDelta(ListDelta.MOVED, fromIndex, toIndex, entry);
+            }
+        }
+
         public void release() {
             pause();
             synchronized (mEntriesMap) {
@@ -637,7 +1052,13 @@ public class ApplicationsState {
 
         if (mInterestingConfigChanges.applyNewConfig(mContext.getResources())) {
             // If an interesting part of the configuration has changed, we
-            // should completely reload the app entries.
+            // should completely reload the app entries.  The snapshot was
+            // written under the old configuration, so drop it too.
+            final String configKey = AppEntrySnapshot.getConfigKey(mContext.getResources());
+            if (!configKey.equals(mEntriesConfigKey)) {
+                mSnapshotRecords.clear();
+                mEntriesConfigKey = configKey;
+            }
             mEntriesMap.clear();
             mAppEntries.clear();
         } else {
@@ -664,12 +1085,33 @@ public class ApplicationsState {
                 entry.info = info;
             }
         }
-        mCurComputingSizePkg = null;
+        mComputingSizePkgs.clear();
+        mSizeStats.inFlight = 0;
+        if (DEBUG_STARTUP) {
+            mLoadStartTime = SystemClock.uptimeMillis();
+            mLoadPhase = LOAD_PHASE_ENTRIES;
+            if (!mEntriesMap.isEmpty()) {
+                mLoadKind = "warm";
+            } else if (!mSnapshotRecords.isEmpty()) {
+                mLoadKind = "snapshot";
+            } else {
+                mLoadKind = "cold";
+            }
+        }
         if (!mBackgroundHandler.hasMessages(BackgroundHandler.MSG_LOAD_ENTRIES)) {
             mBackgroundHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ENTRIES);
         }
     }
 
+    void noteLoadPhaseCompleteLocked(int phase) {
+        if (DEBUG_STARTUP && mLoadPhase == phase) {
+            mLoadPhase = phase + 1;
+            final String[] names = { "entries", "icons", "sizes" };
+            Log.d(TAG, mLoadKind + " load: " + names[phase] + " ready after "
+                    + (SystemClock.uptimeMillis() - mLoadStartTime) + "ms");
+        }
+    }
+
     public boolean haveDisabledApps() {
         return mHaveDisabledApps;
     }
@@ -688,12 +1130,19 @@ public class ApplicationsState {
             mPackageIntentReceiver.unregisterReceiver();
             mPackageIntentReceiver = null;
         }
+        mLockStats.dump();
     }
 
     AppEntry getEntry(String packageName) {
+        AppEntry entry = mEntriesMap.get(packageName);
+        if (entry != null) {
+            return entry;
+        }
         if (DEBUG_LOCKING) Log.v(TAG, "getEntry about to acquire lock...");
+        final long lockStart = mLockStats.begin();
         synchronized (mEntriesMap) {
-            AppEntry entry = mEntriesMap.get(packageName);
+            mLockStats.end("getEntry", lockStart);
+            entry = mEntriesMap.get(packageName);
             if (entry == null) {
                 for (int i=0; i<mApplications.size(); i++) {
                     ApplicationInfo info = mApplications.get(i);
@@ -718,25 +1167,72 @@ public class ApplicationsState {
     }
     
     void requestSize(String packageName) {
-        if (DEBUG_LOCKING) Log.v(TAG, "requestSize about to acquire lock...");
+        if (mEntriesMap.containsKey(packageName)) {
+            mPm.getPackageSizeInfo(packageName, mBackgroundHandler.mStatsObserver);
+        }
+    }
+
+    /**
+     * Sets how many package size requests may be outstanding at once.
+     */
+    public void setSizeComputeWindow(int window) {
         synchronized (mEntriesMap) {
-            AppEntry entry = mEntriesMap.get(packageName);
-            if (entry != null) {
-                mPm.getPackageSizeInfo(packageName, mBackgroundHandler.mStatsObserver);
+            mSizeWindow = Math.max(1, window);
+        }
+        mBackgroundHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_SIZES);
+    }
+
+    public SizeComputeStats getSizeComputeStats() {
+        synchronized (mEntriesMap) {
+            return mSizeStats.copy();
+        }
+    }
+
+    /**
+     * Asks for the size of the given package to be computed ahead of the
+     * packages that are not currently shown.  Doesn't take any lock, so
+     * it can be called for every row that is bound.
+     */
+    void prioritizeSize(String packageName) {
+        mBackgroundHandler.obtainMessage(BackgroundHandler.MSG_PRIORITIZE_SIZE, packageName)
+                .sendToTarget();
+    }
+
+    void prioritizeSizeLocked(String packageName) {
+        mPrioritySizePkgs.remove(packageName);
+        mPrioritySizePkgs.add(packageName);
+        if (mPrioritySizePkgs.size() > MAX_PRIORITY_SIZE_PKGS) {
+            mPrioritySizePkgs.remove(0);
+        }
+    }
+
+    boolean needsSizeLocked(AppEntry entry) {
+        return (entry.size == SIZE_UNKNOWN || entry.sizeStale)
+                && !mComputingSizePkgs.containsKey(entry.info.packageName);
+    }
+
+    AppEntry nextSizeEntryLocked() {
+        // Most recently displayed packages first.
+        while (mPrioritySizePkgs.size() > 0) {
+            String pkg = mPrioritySizePkgs.remove(mPrioritySizePkgs.size() - 1);
+            AppEntry entry = mEntriesMap.get(pkg);
+            if (entry != null && needsSizeLocked(entry)) {
+                return entry;
+            }
+        }
+        for (int i=0; i<mAppEntries.size(); i++) {
+            AppEntry entry = mAppEntries.get(i);
+            if (needsSizeLocked(entry)) {
+                return entry;
             }
-            if (DEBUG_LOCKING) Log.v(TAG, "...requestSize releasing lock");
         }
+        return null;
     }
 
     long sumCacheSizes() {
         long sum = 0;
-        if (DEBUG_LOCKING) Log.v(TAG, "sumCacheSizes about to acquire lock...");
-        synchronized (mEntriesMap) {
-            if (DEBUG_LOCKING) Log.v(TAG, "-> sumCacheSizes now has lock");
-            for (int i=mAppEntries.size()-1; i>=0; i--) {
-                sum += mAppEntries.get(i).cacheSize;
-            }
-            if (DEBUG_LOCKING) Log.v(TAG, "...sumCacheSizes releasing lock");
+        for (AppEntry entry : mAppEntries) {
+            sum += entry.cacheSize;
         }
         return sum;
     }
@@ -752,7 +1248,9 @@ public class ApplicationsState {
 
     void addPackage(String pkgName) {
         try {
+            final long lockStart = mLockStats.begin();
             synchronized (mEntriesMap) {
+                mLockStats.end("addPackage", lockStart);
                 if (DEBUG_LOCKING) Log.v(TAG, "addPackage acquired lock");
                 if (DEBUG) Log.i(TAG, "Adding package " + pkgName);
                 if (!mResumed) {
@@ -776,6 +1274,8 @@ public class ApplicationsState {
                     mHaveDisabledApps = true;
                 }
                 mApplications.add(info);
+                mBackgroundHandler.sendMessage(mBackgroundHandler.obtainMessage(
+                        BackgroundHandler.MSG_PACKAGE_ADDED, info));
                 if (!mBackgroundHandler.hasMessages(BackgroundHandler.MSG_LOAD_ENTRIES)) {
                     mBackgroundHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ENTRIES);
                 }
@@ -789,7 +1289,9 @@ public class ApplicationsState {
     }
 
     void removePackage(String pkgName) {
+        final long lockStart = mLockStats.begin();
         synchronized (mEntriesMap) {
+            mLockStats.end("removePackage", lockStart);
             if (DEBUG_LOCKING) Log.v(TAG, "removePackage acquired lock");
             int idx = indexOfApplicationInfoLocked(pkgName);
             if (DEBUG) Log.i(TAG, "removePackage: " + pkgName + " @ " + idx);
@@ -799,6 +1301,9 @@ public class ApplicationsState {
                 if (entry != null) {
                     mEntriesMap.remove(pkgName);
                     mAppEntries.remove(entry);
+                    mSnapshotDirty = true;
+                    mBackgroundHandler.sendMessage(mBackgroundHandler.obtainMessage(
+                            BackgroundHandler.MSG_ENTRY_REMOVED, entry));
                 }
                 ApplicationInfo info = mApplications.get(idx);
                 mApplications.remove(idx);
@@ -829,7 +1334,17 @@ public class ApplicationsState {
         if (DEBUG) Log.i(TAG, "Looking up entry of pkg " + info.packageName + ": " + entry);
         if (entry == null) {
             if (DEBUG) Log.i(TAG, "Creating AppEntry for " + info.packageName);
-            entry = new AppEntry(mContext, info, mCurId++);
+            AppEntrySnapshot.Record record = mSnapshotRecords.remove(info.packageName);
+            if (record != null && record.updateKey == new File(info.sourceDir).lastModified()) {
+                entry = new AppEntry(mContext, info, mCurId++, record);
+                if (entry.snapshotIcon != null) {
+                    mSnapshotIconsPending = true;
+                }
+            } else {
+                // Not in the snapshot, or the package was updated since.
+                entry = new AppEntry(mContext, info, mCurId++);
+                mSnapshotDirty = true;
+            }
             mEntriesMap.put(info.packageName, entry);
             mAppEntries.add(entry);
         } else if (entry.info != info) {
@@ -859,10 +1374,7 @@ public class ApplicationsState {
     }
 
     private String getSizeStr(long size) {
-        if (size >= 0) {
-            return Formatter.formatFileSize(mContext, size);
-        }
-        return null;
+        return formatSize(mContext, size);
     }
 
     final HandlerThread mThread;
@@ -872,19 +1384,36 @@ public class ApplicationsState {
         static final int MSG_LOAD_ENTRIES = 2;
         static final int MSG_LOAD_ICONS = 3;
         static final int MSG_LOAD_SIZES = 4;
+        static final int MSG_SAVE_SNAPSHOT = 5;
+        static final int MSG_SIZE_TIMEOUT = 6;
+        static final int MSG_PACKAGE_ADDED = 7;
+        static final int MSG_ENTRY_REMOVED = 8;
+        static final int MSG_ENTRY_CHANGED = 9;
+        static final int MSG_PRIORITIZE_SIZE = 10;
 
         boolean mRunning;
 
         final IPackageStatsObserver.Stub mStatsObserver = new IPackageStatsObserver.Stub() {
             public void onGetStatsCompleted(PackageStats stats, boolean succeeded) {
                 boolean sizeChanged = false;
+                final long lockStart = mLockStats.begin();
                 synchronized (mEntriesMap) {
+                    mLockStats.end("onGetStatsCompleted", lockStart);
                     if (DEBUG_LOCKING) Log.v(TAG, "onGetStatsCompleted acquired lock");
                     AppEntry entry = mEntriesMap.get(stats.packageName);
+                    Long startTime = mComputingSizePkgs.remove(stats.packageName);
+                    if (startTime != null) {
+                        mSizeStats.inFlight = mComputingSizePkgs.size();
+                        mSizeStats.completed++;
+                        mSizeStats.addLatency(SystemClock.uptimeMillis() - startTime);
+                        if (!succeeded) {
+                            mSizeStats.failures++;
+                        }
+                    }
                     if (entry != null) {
                         synchronized (entry) {
                             entry.sizeStale = false;
-                            entry.sizeLoadStart = 0;
+                            entry.sizeRetries = 0;
                             long externalCodeSize = stats.externalCodeSize
                                     + stats.externalObbSize;
                             long externalDataSize = stats.externalDataSize
@@ -913,17 +1442,17 @@ public class ApplicationsState {
                                 if (DEBUG) Log.i(TAG, "Set size of " + entry.label + " " + entry
                                         + ": " + entry.sizeStr);
                                 sizeChanged = true;
+                                mSnapshotDirty = true;
                             }
                         }
                         if (sizeChanged) {
                             Message msg = mMainHandler.obtainMessage(
                                     MainHandler.MSG_PACKAGE_SIZE_CHANGED, stats.packageName);
                             mMainHandler.sendMessage(msg);
+                            sendMessage(obtainMessage(MSG_ENTRY_CHANGED, entry));
                         }
                     }
-                    if (mCurComputingSizePkg == null
-                            || mCurComputingSizePkg.equals(stats.packageName)) {
-                        mCurComputingSizePkg = null;
+                    if (startTime != null || mComputingSizePkgs.isEmpty()) {
                         sendEmptyMessage(MSG_LOAD_SIZES);
                     }
                     if (DEBUG_LOCKING) Log.v(TAG, "onGetStatsCompleted releasing lock");
@@ -935,11 +1464,56 @@ public class ApplicationsState {
             super(looper);
         }
 
+        ArrayList<Session> getIncrementalSessions() {
+            ArrayList<Session> sessions = new ArrayList<Session>();
+            synchronized (mEntriesMap) {
+                for (int i=0; i<mSessions.size(); i++) {
+                    if (mSessions.get(i).mIncremental) {
+                        sessions.add(mSessions.get(i));
+                    }
+                }
+            }
+            return sessions;
+        }
+
+        /**
+         * Drops size requests that have been outstanding for too long, so
+         * that they are issued again, or given up on after too many tries.
+         */
+        void expireSizeRequestsLocked(long now) {
+            Iterator<Map.Entry<String, Long>> it = mComputingSizePkgs.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> request = it.next();
+                if (request.getValue() > now - SIZE_LOAD_TIMEOUT) {
+                    continue;
+                }
+                it.remove();
+                mSizeStats.timeouts++;
+                AppEntry entry = mEntriesMap.get(request.getKey());
+                if (entry == null) {
+                    continue;
+                }
+                synchronized (entry) {
+                    entry.sizeRetries++;
+                    if (entry.sizeRetries > SIZE_LOAD_MAX_RETRIES) {
+                        Log.w(TAG, "Giving up on size of " + request.getKey());
+                        entry.sizeRetries = 0;
+                        entry.sizeStale = false;
+                        if (entry.size == SIZE_UNKNOWN) {
+                            entry.size = SIZE_INVALID;
+                        }
+                    }
+                }
+            }
+        }
+
         @Override
         public void handleMessage(Message msg) {
             // Always try rebuilding list first thing, if needed.
             ArrayList<Session> rebuildingSessions = null;
+            final long lockStart = mLockStats.begin();
             synchronized (mEntriesMap) {
+                mLockStats.end("handleMessage", lockStart);
                 if (mRebuildingSessions.size() > 0) {
                     rebuildingSessions = new ArrayList<Session>(mRebuildingSessions);
                     mRebuildingSessions.clear();
@@ -954,9 +1528,36 @@ public class ApplicationsState {
             switch (msg.what) {
                 case MSG_REBUILD_LIST: {
                 } break;
+                case MSG_PACKAGE_ADDED: {
+                    ArrayList<Session> sessions = getIncrementalSessions();
+                    for (int i=0; i<sessions.size(); i++) {
+                        sessions.get(i).handlePackageAdded((ApplicationInfo)msg.obj);
+                    }
+                } break;
+                case MSG_ENTRY_REMOVED: {
+                    ArrayList<Session> sessions = getIncrementalSessions();
+                    for (int i=0; i<sessions.size(); i++) {
+                        sessions.get(i).handleEntryRemoved((AppEntry)msg.obj);
+                    }
+                } break;
+                case MSG_ENTRY_CHANGED: {
+                    ArrayList<Session> sessions = getIncrementalSessions();
+                    for (int i=0; i<sessions.size(); i++) {
+                        sessions.get(i).handleEntryChanged((AppEntry)msg.obj);
+                    }
+                } break;
+                case MSG_PRIORITIZE_SIZE: {
+                    final long lockStart = mLockStats.begin();
+                    synchronized (mEntriesMap) {
+                        mLockStats.end("prioritizeSize", lockStart);
+                        prioritizeSizeLocked((String)msg.obj);
+                    }
+                } break;
                 case MSG_LOAD_ENTRIES: {
                     int numDone = 0;
+                    final long lockStart = mLockStats.begin();
                     synchronized (mEntriesMap) {
+                        mLockStats.end("loadEntries", lockStart);
                         if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ENTRIES acquired lock");
                         for (int i=0; i<mApplications.size() && numDone<6; i++) {
                             if (!mRunning) {
@@ -977,30 +1578,49 @@ public class ApplicationsState {
                     if (numDone >= 6) {
                         sendEmptyMessage(MSG_LOAD_ENTRIES);
                     } else {
+                        synchronized (mEntriesMap) {
+                            noteLoadPhaseCompleteLocked(LOAD_PHASE_ENTRIES);
+                        }
                         sendEmptyMessage(MSG_LOAD_ICONS);
                     }
                 } break;
                 case MSG_LOAD_ICONS: {
+                    if (mSnapshotIconsPending) {
+                        // Placeholders first: they are small, and show
+                        // something while the real icons load.
+                        mSnapshotIconsPending = false;
+                        final Resources res = mContext.getResources();
+                        boolean decoded = false;
+                        for (AppEntry entry : mAppEntries) {
+                            synchronized (entry) {
+                                decoded |= entry.decodeSnapshotIconLocked(res);
+                            }
+                        }
+                        if (decoded && !mMainHandler.hasMessages(
+                                MainHandler.MSG_PACKAGE_ICON_CHANGED)) {
+                            mMainHandler.sendEmptyMessage(MainHandler.MSG_PACKAGE_ICON_CHANGED);
+                        }
+                    }
                     int numDone = 0;
-                    synchronized (mEntriesMap) {
-                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS acquired lock");
-                        for (int i=0; i<mAppEntries.size() && numDone<2; i++) {
-                            AppEntry entry = mAppEntries.get(i);
-                            if (entry.icon == null || !entry.mounted) {
-                                synchronized (entry) {
-                                    if (entry.ensureIconLocked(mContext, mPm)) {
-                                        if (!mRunning) {
-                                            mRunning = true;
-                                            Message m = mMainHandler.obtainMessage(
-                                                    MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
-                                            mMainHandler.sendMessage(m);
-                                        }
-                                        numDone++;
+                    // Icons are loaded holding only the entry's lock, so
+                    // that the main thread can use mEntriesMap meanwhile.
+                    for (AppEntry entry : mAppEntries) {
+                        if (numDone >= 2) {
+                            break;
+                        }
+                        if (entry.icon == null || !entry.mounted || entry.iconFromSnapshot) {
+                            synchronized (entry) {
+                                if (entry.ensureIconLocked(mContext, mPm)) {
+                                    if (!mRunning) {
+                                        mRunning = true;
+                                        Message m = mMainHandler.obtainMessage(
+                                                MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
+                                        mMainHandler.sendMessage(m);
                                     }
+                                    numDone++;
                                 }
                             }
                         }
-                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS releasing lock");
                     }
                     if (numDone > 0) {
                         if (!mMainHandler.hasMessages(MainHandler.MSG_PACKAGE_ICON_CHANGED)) {
@@ -1010,37 +1630,47 @@ public class ApplicationsState {
                     if (numDone >= 2) {
                         sendEmptyMessage(MSG_LOAD_ICONS);
                     } else {
+                        synchronized (mEntriesMap) {
+                            noteLoadPhaseCompleteLocked(LOAD_PHASE_ICONS);
+                        }
                         sendEmptyMessage(MSG_LOAD_SIZES);
                     }
                 } break;
+                case MSG_SIZE_TIMEOUT:
                 case MSG_LOAD_SIZES: {
+                    final long lockStart = mLockStats.begin();
                     synchronized (mEntriesMap) {
+                        mLockStats.end("loadSizes", lockStart);
                         if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES acquired lock");
-                        if (mCurComputingSizePkg != null) {
-                            if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing: currently computing");
-                            return;
+                        long now = SystemClock.uptimeMillis();
+                        expireSizeRequestsLocked(now);
+
+                        while (mComputingSizePkgs.size() < mSizeWindow) {
+                            AppEntry entry = nextSizeEntryLocked();
+                            if (entry == null) {
+                                break;
+                            }
+                            if (!mRunning) {
+                                mRunning = true;
+                                Message m = mMainHandler.obtainMessage(
+                                        MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
+                                mMainHandler.sendMessage(m);
+                            }
+                            final String pkg = entry.info.packageName;
+                            mComputingSizePkgs.put(pkg, now);
+                            mPm.getPackageSizeInfo(pkg, mStatsObserver);
                         }
+                        mSizeStats.inFlight = mComputingSizePkgs.size();
 
-                        long now = SystemClock.uptimeMillis();
-                        for (int i=0; i<mAppEntries.size(); i++) {
-                            AppEntry entry = mAppEntries.get(i);
-                            if (entry.size == SIZE_UNKNOWN || entry.sizeStale) {
-                                if (entry.sizeLoadStart == 0 ||
-                                        (entry.sizeLoadStart < (now-20*1000))) {
-                                    if (!mRunning) {
-                                        mRunning = true;
-                                        Message m = mMainHandler.obtainMessage(
-                                                MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
-                                        mMainHandler.sendMessage(m);
-                                    }
-                                    entry.sizeLoadStart = now;
-                                    mCurComputingSizePkg = entry.info.packageName;
-                                    mPm.getPackageSizeInfo(mCurComputingSizePkg, mStatsObserver);
-                                }
-                                if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing: now computing");
-                                return;
+                        if (mComputingSizePkgs.size() > 0) {
+                            // Come back to retry any request that never completes.
+                            if (!hasMessages(MSG_SIZE_TIMEOUT)) {
+                                sendEmptyMessageDelayed(MSG_SIZE_TIMEOUT, SIZE_LOAD_TIMEOUT);
                             }
+                            if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing: now computing");
+                            return;
                         }
+
                         if (!mMainHandler.hasMessages(MainHandler.MSG_ALL_SIZES_COMPUTED)) {
                             mMainHandler.sendEmptyMessage(MainHandler.MSG_ALL_SIZES_COMPUTED);
                             mRunning = false;
@@ -1048,9 +1678,30 @@ public class ApplicationsState {
                                     MainHandler.MSG_RUNNING_STATE_CHANGED, 0);
                             mMainHandler.sendMessage(m);
                         }
+                        if (DEBUG_STARTUP && mLoadPhase == LOAD_PHASE_SIZES) {
+                            Log.d(TAG, mSizeStats.toString());
+                        }
+                        noteLoadPhaseCompleteLocked(LOAD_PHASE_SIZES);
+                        if (mSnapshotDirty && !hasMessages(MSG_SAVE_SNAPSHOT)) {
+                            sendEmptyMessage(MSG_SAVE_SNAPSHOT);
+                        }
                         if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing lock");
                     }
                 } break;
+                case MSG_SAVE_SNAPSHOT: {
+                    ArrayList<AppEntry> entries;
+                    String configKey;
+                    synchronized (mEntriesMap) {
+                        entries = new ArrayList<AppEntry>(mAppEntries);
+                        configKey = mEntriesConfigKey;
+                        mSnapshotDirty = false;
+                    }
+                    long start = SystemClock.uptimeMillis();
+                    mSnapshot.save(entries, configKey, mContext.getResources()
+                            .getDimensionPixelSize(android.R.dimen.app_icon_size));
+                    if (DEBUG_STARTUP) Log.d(TAG, "Saved snapshot of " + entries.size()
+                            + " entries in " + (SystemClock.uptimeMillis() - start) + "ms");
+                } break;
             }
         }
 
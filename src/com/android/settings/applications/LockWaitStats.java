@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Histograms of how long callers waited to acquire a lock, per call site.
+ * Waits on the main thread are kept apart from the others, as those are the
+ * ones that show up as jank.  Does nothing unless enabled.
+ *
+ * <p>Usage:
+ * <pre>
+ * final long start = stats.begin();
+ * synchronized (lock) {
+ *     stats.end("site", start);
+ *     ...
+ * }
+ * </pre>
+ */
+class LockWaitStats {
+    // Upper bounds of the histogram buckets, in microseconds.  The last
+    // bucket counts everything above the last bound.
+    static final long[] BUCKET_LIMITS_US = { 100, 1000, 4000, 16000, 64000 };
+
+    private final String mTag;
+    private final boolean mEnabled;
+    private final HashMap<String, long[]> mHistograms = new HashMap<String, long[]>();
+
+    LockWaitStats(String tag, boolean enabled) {
+        mTag = tag;
+        mEnabled = enabled;
+    }
+
+    long begin() {
+        return mEnabled ? System.nanoTime() : 0;
+    }
+
+    void end(String site, long start) {
+        if (!mEnabled) {
+            return;
+        }
+        final long waitUs = (System.nanoTime() - start) / 1000;
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            site = site + "[main]";
+        }
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_US.length && waitUs >= BUCKET_LIMITS_US[bucket]) {
+            bucket++;
+        }
+        synchronized (mHistograms) {
+            long[] histogram = mHistograms.get(site);
+            if (histogram == null) {
+                // Buckets, followed by the longest wait seen.
+                histogram = new long[BUCKET_LIMITS_US.length + 2];
+                mHistograms.put(site, histogram);
+            }
+            histogram[bucket]++;
+            if (waitUs > histogram[histogram.length - 1]) {
+                histogram[histogram.length - 1] = waitUs;
+            }
+        }
+    }
+
+    void dump() {
+        if (!mEnabled) {
+            return;
+        }
+        synchronized (mHistograms) {
+            for (Map.Entry<String, long[]> e : mHistograms.entrySet()) {
+                final long[] histogram = e.getValue();
+                StringBuilder sb = new StringBuilder(128);
+                sb.append(e.getKey()).append(':');
+                for (int i=0; i<BUCKET_LIMITS_US.length; i++) {
+                    sb.append(" <").append(BUCKET_LIMITS_US[i]).append("us=")
+                            .append(histogram[i]);
+                }
+                sb.append(" more=").append(histogram[BUCKET_LIMITS_US.length]);
+                sb.append(" max=").append(histogram[histogram.length - 1]).append("us");
+                Log.d(mTag, sb.toString());
+            }
+        }
+    }
+}
@@ -77,6 +77,8 @@ import com.android.settings.applications.ApplicationsState.AppEntry;
 import com.android.settings.deviceinfo.StorageMeasurement;
 import com.android.settings.Utils;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
@@ -529,15 +531,23 @@ public class ManageApplications extends Fragment implements
      * The order of applications in the list is mirrored in mAppLocalList
      */
     static class ApplicationsAdapter extends BaseAdapter implements Filterable,
-            ApplicationsState.Callbacks, AbsListView.RecyclerListener {
+            ApplicationsState.IncrementalCallbacks, AbsListView.RecyclerListener {
         private final ApplicationsState mState;
         private final ApplicationsState.Session mSession;
         private final TabInfo mTab;
         private final Context mContext;
         private final ArrayList<View> mActive = new ArrayList<View>();
         private final int mFilterMode;
+        private final Handler mHandler = new Handler();
+        // Only touched by the main thread; entry changes are applied to it
+        // in place.  mEntries is the same list while no prefix is set.
         private ArrayList<ApplicationsState.AppEntry> mBaseEntries;
         private ArrayList<ApplicationsState.AppEntry> mEntries;
+        // Copy of mBaseEntries for mFilter, which runs on another thread.
+        // Only copied again when a filter is about to run.
+        private volatile ArrayList<ApplicationsState.AppEntry> mFilterBaseEntries;
+        private boolean mFilterBaseStale;
+        private boolean mChangesPending;
         private boolean mResumed;
         private int mLastSortMode=-1;
         private boolean mWaitingForData;
@@ -548,7 +558,7 @@ public class ManageApplications extends Fragment implements
             @Override
             protected FilterResults performFiltering(CharSequence constraint) {
                 ArrayList<ApplicationsState.AppEntry> entries
-                        = applyPrefixFilter(constraint, mBaseEntries);
+                        = applyPrefixFilter(constraint, mFilterBaseEntries);
                 FilterResults fr = new FilterResults();
                 fr.values = entries;
                 fr.count = entries.size();
@@ -558,7 +568,13 @@ public class ManageApplications extends Fragment implements
             @Override
             protected void publishResults(CharSequence constraint, FilterResults results) {
                 mCurFilterPrefix = constraint;
-                mEntries = (ArrayList<ApplicationsState.AppEntry>)results.values;
+                if (mFilterBaseStale || constraint == null || constraint.length() == 0) {
+                    // Entries changed while filtering, or there is no prefix
+                    // and the list to show is mBaseEntries itself.
+                    mEntries = applyPrefixFilter(constraint, mBaseEntries);
+                } else {
+                    mEntries = (ArrayList<ApplicationsState.AppEntry>)results.values;
+                }
                 notifyDataSetChanged();
                 mTab.updateStorageUsage();
             }
@@ -651,6 +667,7 @@ public class ManageApplications extends Fragment implements
                 return;
             }
             mBaseEntries = entries;
+            mFilterBaseStale = true;
             if (mBaseEntries != null) {
                 mEntries = applyPrefixFilter(mCurFilterPrefix, mBaseEntries);
             } else {
@@ -706,6 +723,7 @@ public class ManageApplications extends Fragment implements
             mTab.mLoadingContainer.setVisibility(View.GONE);
             mWaitingForData = false;
             mBaseEntries = apps;
+            mFilterBaseStale = true;
             mEntries = applyPrefixFilter(mCurFilterPrefix, mBaseEntries);
             notifyDataSetChanged();
             mTab.updateStorageUsage();
@@ -713,9 +731,60 @@ public class ManageApplications extends Fragment implements
 
         @Override
         public void onPackageListChanged() {
-            rebuild(false);
+            // Added and removed packages arrive through onEntryInserted()
+            // and onEntryRemoved().
+        }
+
+        @Override
+        public void onEntryInserted(int index, AppEntry entry) {
+            mBaseEntries.add(index, entry);
+            onBaseEntriesChanged();
         }
 
+        @Override
+        public void onEntryRemoved(int index) {
+            mBaseEntries.remove(index);
+            onBaseEntriesChanged();
+        }
+
+        @Override
+        public void onEntryMoved(int fromIndex, int toIndex) {
+            mBaseEntries.add(toIndex, mBaseEntries.remove(fromIndex));
+            onBaseEntriesChanged();
+        }
+
+        private void onBaseEntriesChanged() {
+            mFilterBaseStale = true;
+            if (mEntries == mBaseEntries) {
+                // The list view must hear about the change before its next
+                // layout, but that only costs a layout request.
+                notifyDataSetChanged();
+            }
+            if (!mChangesPending) {
+                mChangesPending = true;
+                mHandler.post(mApplyChanges);
+            }
+        }
+
+        /**
+         * Does the work that depends on the whole list once for all entry
+         * changes that arrived together.
+         */
+        private final Runnable mApplyChanges = new Runnable() {
+            @Override
+            public void run() {
+                mChangesPending = false;
+                if (mBaseEntries == null) {
+                    return;
+                }
+                if (mEntries != mBaseEntries) {
+                    mEntries = applyPrefixFilter(mCurFilterPrefix, mBaseEntries);
+                    notifyDataSetChanged();
+                }
+                mTab.updateStorageUsage();
+            }
+        };
+
         @Override
         public void onPackageIconChanged() {
             // We ensure icons are loaded when their item is displayed, so
@@ -730,14 +799,8 @@ public class ManageApplications extends Fragment implements
                     synchronized (holder.entry) {
                         holder.updateSizeText(mTab.mInvalidSizeStr, mWhichSize);
                     }
-                    if (holder.entry.info.packageName.equals(mTab.mOwner.mCurrentPkgName)
-                            && mLastSortMode == SORT_ORDER_SIZE) {
-                        // We got the size information for the last app the
-                        // user viewed, and are sorting by size...  they may
-                        // have cleared data, so we immediately want to resort
-                        // the list with the new size to reflect it to the user.
-                        rebuild(false);
-                    }
+                    // If we are sorting by size, the entry is moved to its new
+                    // position through onEntryMoved().
                     mTab.updateStorageUsage();
                     return;
                 }
@@ -746,9 +809,6 @@ public class ManageApplications extends Fragment implements
 
         @Override
         public void onAllSizesComputed() {
-            if (mLastSortMode == SORT_ORDER_SIZE) {
-                rebuild(false);
-            }
             mTab.updateStorageUsage();
         }
         
@@ -776,8 +836,10 @@ public class ManageApplications extends Fragment implements
 
             // Bind the data efficiently with the holder
             ApplicationsState.AppEntry entry = mEntries.get(position);
+            boolean needsSize;
             synchronized (entry) {
                 holder.entry = entry;
+                needsSize = entry.size == ApplicationsState.SIZE_UNKNOWN || entry.sizeStale;
                 if (entry.label != null) {
                     holder.appName.setText(entry.label);
                 }
@@ -803,6 +865,10 @@ public class ManageApplications extends Fragment implements
                     holder.checkBox.setVisibility(View.GONE);
                 }
             }
+            if (needsSize) {
+                // Visible rows get their sizes computed first.
+                mState.prioritizeSize(entry.info.packageName);
+            }
             mActive.remove(convertView);
             mActive.add(convertView);
             return convertView;
@@ -810,6 +876,12 @@ public class ManageApplications extends Fragment implements
 
         @Override
         public Filter getFilter() {
+            // Called on the main thread right before each filter() call.
+            if (mFilterBaseStale) {
+                mFilterBaseEntries = mBaseEntries != null
+                        ? new ArrayList<ApplicationsState.AppEntry>(mBaseEntries) : null;
+                mFilterBaseStale = false;
+            }
             return mFilter;
         }
 
@@ -1065,6 +1137,16 @@ public class ManageApplications extends Fragment implements
         super.onDestroy();
     }
 
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        TabInfo tab = tabForType(LIST_TYPE_RUNNING);
+        if (tab != null && tab.mRunningProcessesView != null
+                && tab.mRunningProcessesView.mState != null) {
+            tab.mRunningProcessesView.mState.dump(prefix + "  ", writer);
+        }
+    }
+
     void updateOptionsMenu() {
         if (mOptionsMenu == null) {
             return;
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.AppOpsManager;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Lookup from permission name to the op an {@link AppOpsState.OpsTemplate}
+ * shows for apps holding that permission.
+ *
+ * <p>Every permission that guards some op is given a small id once per
+ * process; each index is then just an array from that id to an op.
+ */
+public class PermissionOpIndex {
+    private static HashMap<String, Integer> sPermissionIds;
+    private static String[] sPermissions;
+
+    /** Op shown for each permission id, or -1. */
+    private final int[] mOps;
+    private final String[] mTemplatePermissions;
+
+    public PermissionOpIndex(AppOpsState.OpsTemplate tpl) {
+        ensurePermissionIds();
+        mOps = new int[sPermissions.length];
+        Arrays.fill(mOps, -1);
+        final String[] perms = new String[tpl.ops.length];
+        int count = 0;
+        for (int i=0; i<tpl.ops.length; i++) {
+            if (tpl.showPerms[i]) {
+                String perm = AppOpsManager.opToPermission(tpl.ops[i]);
+                if (perm != null) {
+                    final int id = sPermissionIds.get(perm);
+                    // The first op in the template wins.
+                    if (mOps[id] < 0) {
+                        mOps[id] = tpl.ops[i];
+                        perms[count++] = perm;
+                    }
+                }
+            }
+        }
+        mTemplatePermissions = Arrays.copyOf(perms, count);
+    }
+
+    private static synchronized void ensurePermissionIds() {
+        if (sPermissionIds != null) {
+            return;
+        }
+        final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+        final String[] perms = new String[AppOpsManager._NUM_OP];
+        for (int op=0; op<AppOpsManager._NUM_OP; op++) {
+            String perm = AppOpsManager.opToPermission(op);
+            if (perm != null && !ids.containsKey(perm)) {
+                perms[ids.size()] = perm;
+                ids.put(perm, ids.size());
+            }
+        }
+        sPermissions = Arrays.copyOf(perms, ids.size());
+        sPermissionIds = ids;
+    }
+
+    /**
+     * Returns the op shown for holders of the given permission, or -1 if
+     * the template doesn't show one.
+     */
+    public int getOp(String permission) {
+        final Integer id = sPermissionIds.get(permission);
+        return id != null ? mOps[id] : -1;
+    }
+
+    /**
+     * Returns the permissions whose holders the template shows, in template
+     * order.
+     */
+    public String[] getPermissions() {
+        return mTemplatePermissions;
+    }
+}
@@ -37,12 +37,17 @@ import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.text.format.Formatter;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseLongArray;
 
+import com.android.settings.AppIconCache;
+
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -68,6 +73,8 @@ public class RunningState {
 
     static final long TIME_UPDATE_DELAY = 1000;
     static final long CONTENTS_UPDATE_DELAY = 2000;
+    static final long MAX_CONTENTS_UPDATE_DELAY = 16000;
+    static final long PSS_STALE_DELAY = 6000;
 
     static final int MAX_SERVICES = 100;
 
@@ -129,6 +136,7 @@ public class RunningState {
 
         AppProcessInfo(ActivityManager.RunningAppProcessInfo _info) {
             info = _info;
+            sItemsCreated++;
         }
     }
 
@@ -137,6 +145,20 @@ public class RunningState {
 
     int mSequence = 0;
 
+    // Fingerprint of the services and processes seen by the last full update;
+    // if the next snapshot has the same one, the structure is left alone.
+    boolean mFingerprintValid;
+    long mLastFingerprint;
+
+    // Last PSS of each process, and when it was sampled.  Only touched by
+    // the background thread.
+    final SparseLongArray mPssCache = new SparseLongArray();
+    final SparseLongArray mPssSampleTimes = new SparseLongArray();
+
+    // Number of items and process infos created, for the debug dump.  Only
+    // touched by the background thread.
+    static int sItemsCreated;
+
     final Comparator<RunningState.MergedItem> mBackgroundComparator
         = new Comparator<RunningState.MergedItem>() {
             @Override
@@ -216,6 +238,20 @@ public class RunningState {
     int mNumServiceProcesses;
     long mServiceProcessMemory;
 
+    // Statistics about update cycles, for the debug dump.
+    int mUpdateCycles;
+    int mFastPathCycles;
+    long mLastUpdateMicros;
+    long mTotalUpdateMicros;
+    int mLastItemsCreated;
+    long mTotalItemsCreated;
+    long mPssRequested;
+    long mPssCached;
+
+    // Current delay between contents updates, which grows while nothing
+    // changes.
+    long mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
+
     // ----- BACKGROUND MONITORING THREAD -----
 
     final HandlerThread mBackgroundThread;
@@ -236,12 +272,13 @@ public class RunningState {
                             return;
                         }
                     }
+                    final int refresh = update(mApplicationContext, mAm);
                     Message cmd = mHandler.obtainMessage(MSG_REFRESH_UI);
-                    cmd.arg1 = update(mApplicationContext, mAm) ? 1 : 0;
+                    cmd.arg1 = refresh;
                     mHandler.sendMessage(cmd);
                     removeMessages(MSG_UPDATE_CONTENTS);
                     msg = obtainMessage(MSG_UPDATE_CONTENTS);
-                    sendMessageDelayed(msg, CONTENTS_UPDATE_DELAY);
+                    sendMessageDelayed(msg, nextContentsUpdateDelay(refresh));
                     break;
             }
         }
@@ -256,9 +293,8 @@ public class RunningState {
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case MSG_REFRESH_UI:
-                    mNextUpdate = msg.arg1 != 0
-                            ? OnRefreshUiListener.REFRESH_STRUCTURE
-                            : OnRefreshUiListener.REFRESH_DATA;
+                    // Keep the largest refresh asked for since the last tick.
+                    mNextUpdate = Math.max(mNextUpdate, msg.arg1);
                     break;
                 case MSG_UPDATE_TIME:
                     synchronized (mLock) {
@@ -283,6 +319,10 @@ public class RunningState {
 
     // ----- DATA STRUCTURES -----
 
+    /**
+     * Refresh levels, in increasing order of how much of the UI needs to be
+     * rebuilt.
+     */
     static interface OnRefreshUiListener {
         public static final int REFRESH_TIME = 0;
         public static final int REFRESH_DATA = 1;
@@ -318,11 +358,12 @@ public class RunningState {
         public BaseItem(boolean isProcess, int userId) {
             mIsProcess = isProcess;
             mUserId = userId;
+            sItemsCreated++;
         }
 
         public Drawable loadIcon(Context context, RunningState state) {
             if (mPackageInfo != null) {
-                return mPackageInfo.loadIcon(state.mPm);
+                return AppIconCache.getInstance(context).loadIcon(state.mPm, mPackageInfo);
             }
             return null;
         }
@@ -332,6 +373,10 @@ public class RunningState {
         ActivityManager.RunningServiceInfo mRunningService;
         ServiceInfo mServiceInfo;
         boolean mShownAsStarted;
+
+        // Client that mDescription was built for.
+        String mClientPackage;
+        int mClientLabel;
         
         MergedItem mMergedItem;
         
@@ -488,19 +533,28 @@ public class RunningState {
                     si.mShownAsStarted = false;
                     changed = true;
                 }
-                try {
-                    Resources clientr = pm.getResourcesForApplication(service.clientPackage);
-                    String label = clientr.getString(service.clientLabel);
-                    si.mDescription = context.getResources().getString(
-                            R.string.service_client_name, label);
-                } catch (PackageManager.NameNotFoundException e) {
-                    si.mDescription = null;
+                // Only go to the client's resources when the client changed.
+                if (si.mDescription == null || si.mClientLabel != service.clientLabel
+                        || !service.clientPackage.equals(si.mClientPackage)) {
+                    si.mClientPackage = service.clientPackage;
+                    si.mClientLabel = service.clientLabel;
+                    try {
+                        Resources clientr = pm.getResourcesForApplication(
+                                service.clientPackage);
+                        String label = clientr.getString(service.clientLabel);
+                        si.mDescription = context.getResources().getString(
+                                R.string.service_client_name, label);
+                    } catch (PackageManager.NameNotFoundException e) {
+                        si.mDescription = null;
+                    }
                 }
             } else {
                 if (!si.mShownAsStarted) {
                     si.mShownAsStarted = true;
                     changed = true;
                 }
+                si.mClientPackage = null;
+                si.mClientLabel = 0;
                 si.mDescription = context.getResources().getString(
                         R.string.service_started_by_app);
             }
@@ -744,6 +798,7 @@ public class RunningState {
     void resume(OnRefreshUiListener listener) {
         synchronized (mLock) {
             mResumed = true;
+            mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
             mRefreshUiListener = listener;
             if (mInterestingConfigChanges.applyNewConfig(mApplicationContext.getResources())) {
                 mHaveData = false;
@@ -760,6 +815,7 @@ public class RunningState {
 
     void updateNow() {
         synchronized (mLock) {
+            mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
             mBackgroundHandler.removeMessages(MSG_UPDATE_CONTENTS);
             mBackgroundHandler.sendEmptyMessage(MSG_UPDATE_CONTENTS);
         }
@@ -812,6 +868,7 @@ public class RunningState {
         mProcessItems.clear();
         mAllProcessItems.clear();
         mUsers.clear();
+        mFingerprintValid = false;
     }
 
     private void addOtherUserItem(Context context, ArrayList<MergedItem> newMergedItems,
@@ -846,11 +903,72 @@ public class RunningState {
         userItem.mChildren.add(newItem);
     }
 
-    private boolean update(Context context, ActivityManager am) {
+    /**
+     * Fold the parts of the service and process snapshot that the update
+     * below looks at into a single value.
+     */
+    private static long fingerprint(List<ActivityManager.RunningServiceInfo> services, int NS,
+            List<ActivityManager.RunningAppProcessInfo> processes, int NP) {
+        long h = 0xcbf29ce484222325L;
+        h = mix(h, NS);
+        for (int i=0; i<NS; i++) {
+            ActivityManager.RunningServiceInfo si = services.get(i);
+            h = mix(h, si.service.hashCode());
+            h = mix(h, si.uid);
+            h = mix(h, si.pid);
+            h = mix(h, si.process.hashCode());
+            h = mix(h, si.foreground ? 1 : 0);
+            h = mix(h, si.started ? 1 : 0);
+            h = mix(h, si.restarting);
+            h = mix(h, si.activeSince);
+            h = mix(h, si.flags);
+            h = mix(h, si.clientLabel);
+            h = mix(h, si.clientPackage != null ? si.clientPackage.hashCode() : 0);
+        }
+        h = mix(h, NP);
+        for (int i=0; i<NP; i++) {
+            ActivityManager.RunningAppProcessInfo pi = processes.get(i);
+            h = mix(h, pi.pid);
+            h = mix(h, pi.uid);
+            h = mix(h, pi.processName.hashCode());
+            h = mix(h, pi.flags);
+            h = mix(h, pi.lru);
+            h = mix(h, pi.importance);
+            h = mix(h, pi.importanceReasonCode);
+            h = mix(h, pi.importanceReasonPid);
+        }
+        return h;
+    }
+
+    private static long mix(long h, long value) {
+        h ^= value;
+        h *= 0x100000001b3L;
+        return h;
+    }
+
+    /**
+     * Update our view of running services and processes, and return the
+     * {@link OnRefreshUiListener} refresh level the UI now needs.
+     */
+    private int update(Context context, ActivityManager am) {
+        final long startTime = System.nanoTime();
+        final int startItems = sItemsCreated;
+        final int result = updateContents(context, am);
+        final long elapsed = (System.nanoTime() - startTime) / 1000;
+        final int items = sItemsCreated - startItems;
+        synchronized (mLock) {
+            mUpdateCycles++;
+            mLastUpdateMicros = elapsed;
+            mTotalUpdateMicros += elapsed;
+            mLastItemsCreated = items;
+            mTotalItemsCreated += items;
+        }
+        return result;
+    }
+
+    private int updateContents(Context context, ActivityManager am) {
         final PackageManager pm = context.getPackageManager();
         
-        mSequence++;
-        
         boolean changed = false;
 
         // Retrieve list of services, filtering out anything that definitely
@@ -885,6 +1003,21 @@ public class RunningState {
         List<ActivityManager.RunningAppProcessInfo> processes
                 = am.getRunningAppProcesses();
         final int NP = processes != null ? processes.size() : 0;
+
+        // Nothing started, stopped or moved since the last full update; only
+        // memory use needs to be looked at again.
+        final long fingerprint = fingerprint(services, NS, processes, NP);
+        if (mFingerprintValid && fingerprint == mLastFingerprint) {
+            synchronized (mLock) {
+                mFastPathCycles++;
+            }
+            return updateSizes(context, false);
+        }
+        mLastFingerprint = fingerprint;
+        mFingerprintValid = true;
+
+        mSequence++;
+
         mTmpAppProcesses.clear();
         for (int i=0; i<NP; i++) {
             ActivityManager.RunningAppProcessInfo pi = processes.get(i);
@@ -1231,6 +1364,14 @@ public class RunningState {
             }
         }
         
+        return updateSizes(context, changed);
+    }
+
+    /**
+     * Retrieve memory use of all processes found by the last full update,
+     * and rebuild the background items if their order changed.
+     */
+    private int updateSizes(Context context, boolean changed) {
         // Count number of interesting other (non-active) processes, and
         // build a list of all processes we will retrieve memory for.
         mAllProcessItems.clear();
@@ -1238,7 +1379,7 @@ public class RunningState {
         int numBackgroundProcesses = 0;
         int numForegroundProcesses = 0;
         int numServiceProcesses = 0;
-        NRP = mRunningProcesses.size();
+        final int NRP = mRunningProcesses.size();
         for (int i=0; i<NRP; i++) {
             ProcessItem proc = mRunningProcesses.valueAt(i);
             if (proc.mCurSeq != mSequence) {
@@ -1268,15 +1409,9 @@ public class RunningState {
         ArrayList<MergedItem> newUserBackgroundItems = null;
         boolean diffUsers = false;
         try {
-            final int numProc = mAllProcessItems.size();
-            int[] pids = new int[numProc];
-            for (int i=0; i<numProc; i++) {
-                pids[i] = mAllProcessItems.get(i).mPid;
-            }
-            long[] pss = ActivityManagerNative.getDefault()
-                    .getProcessPss(pids);
+            final long[] pss = getProcessPss();
             int bgIndex = 0;
-            for (int i=0; i<pids.length; i++) {
+            for (int i=0; i<pss.length; i++) {
                 ProcessItem proc = mAllProcessItems.get(i);
                 changed |= proc.updateSize(context, pss[i], mSequence);
                 if (proc.mCurSeq == mSequence) {
@@ -1316,6 +1451,8 @@ public class RunningState {
                 }
             }
         } catch (RemoteException e) {
+            // Start over with a full update next time.
+            mFingerprintValid = false;
         }
         
         if (newBackgroundItems == null) {
@@ -1367,7 +1504,14 @@ public class RunningState {
             mMergedItems.get(i).updateSize(context);
         }
         
+        boolean dataChanged;
         synchronized (mLock) {
+            dataChanged = mNumBackgroundProcesses != numBackgroundProcesses
+                    || mNumForegroundProcesses != numForegroundProcesses
+                    || mNumServiceProcesses != numServiceProcesses
+                    || mBackgroundProcessMemory != backgroundProcessMemory
+                    || mForegroundProcessMemory != foregroundProcessMemory
+                    || mServiceProcessMemory != serviceProcessMemory;
             mNumBackgroundProcesses = numBackgroundProcesses;
             mNumForegroundProcesses = numForegroundProcesses;
             mNumServiceProcesses = numServiceProcesses;
@@ -1387,7 +1531,93 @@ public class RunningState {
             }
         }
         
-        return changed;
+        if (changed) {
+            return OnRefreshUiListener.REFRESH_STRUCTURE;
+        }
+        return dataChanged ? OnRefreshUiListener.REFRESH_DATA : OnRefreshUiListener.REFRESH_TIME;
+    }
+
+    /**
+     * Return the PSS of every process in mAllProcessItems.  Processes sampled
+     * less than PSS_STALE_DELAY ago are answered from the cache; all others
+     * are asked for in one call.
+     */
+    private long[] getProcessPss() throws RemoteException {
+        final long now = SystemClock.uptimeMillis();
+        final int numProc = mAllProcessItems.size();
+        final long[] pss = new long[numProc];
+
+        int numStale = 0;
+        for (int i=0; i<numProc; i++) {
+            final long sampled = mPssSampleTimes.get(mAllProcessItems.get(i).mPid, -1);
+            if (sampled < 0 || now - sampled >= PSS_STALE_DELAY) {
+                numStale++;
+            }
+        }
+        if (numStale > 0) {
+            final int[] pids = new int[numStale];
+            int j = 0;
+            for (int i=0; i<numProc; i++) {
+                final int pid = mAllProcessItems.get(i).mPid;
+                final long sampled = mPssSampleTimes.get(pid, -1);
+                if (sampled < 0 || now - sampled >= PSS_STALE_DELAY) {
+                    pids[j++] = pid;
+                }
+            }
+            final long[] fresh = ActivityManagerNative.getDefault().getProcessPss(pids);
+            for (int i=0; i<numStale; i++) {
+                mPssCache.put(pids[i], fresh[i]);
+                mPssSampleTimes.put(pids[i], now);
+            }
+        }
+
+        // Anything still stale belongs to a process that is gone.
+        for (int i=mPssSampleTimes.size()-1; i>=0; i--) {
+            if (now - mPssSampleTimes.valueAt(i) >= PSS_STALE_DELAY) {
+                mPssCache.delete(mPssSampleTimes.keyAt(i));
+                mPssSampleTimes.removeAt(i);
+            }
+        }
+
+        for (int i=0; i<numProc; i++) {
+            pss[i] = mPssCache.get(mAllProcessItems.get(i).mPid);
+        }
+        mPssRequested += numStale;
+        mPssCached += numProc - numStale;
+        return pss;
+    }
+
+    /**
+     * Pick the delay until the next contents update: back off while nothing
+     * changes, and return to the shortest delay as soon as the structure does.
+     */
+    private long nextContentsUpdateDelay(int refresh) {
+        synchronized (mLock) {
+            if (refresh == OnRefreshUiListener.REFRESH_STRUCTURE) {
+                mContentsUpdateDelay = CONTENTS_UPDATE_DELAY;
+            } else if (refresh == OnRefreshUiListener.REFRESH_TIME) {
+                mContentsUpdateDelay = Math.min(mContentsUpdateDelay * 2,
+                        MAX_CONTENTS_UPDATE_DELAY);
+            }
+            return mContentsUpdateDelay;
+        }
+    }
+
+    void dump(String prefix, PrintWriter pw) {
+        synchronized (mLock) {
+            pw.print(prefix); pw.print("RunningState: cycles="); pw.print(mUpdateCycles);
+                    pw.print(" fastPath="); pw.println(mFastPathCycles);
+            pw.print(prefix); pw.print("  last="); pw.print(mLastUpdateMicros);
+                    pw.print("us avg=");
+                    pw.print(mUpdateCycles > 0 ? mTotalUpdateMicros / mUpdateCycles : 0);
+                    pw.println("us");
+            pw.print(prefix); pw.print("  itemsCreated last="); pw.print(mLastItemsCreated);
+                    pw.print(" total="); pw.println(mTotalItemsCreated);
+            pw.print(prefix); pw.print("  pss requested="); pw.print(mPssRequested);
+                    pw.print(" cached="); pw.print(mPssCached);
+                    pw.print(" nextDelay="); pw.print(mContentsUpdateDelay);
+                    pw.println("ms");
+        }
     }
     
     ArrayList<BaseItem> getCurrentItems() {
@@ -27,6 +27,7 @@ import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.android.settings.AppIconCache;
 import com.android.settings.R;
 import com.android.settings.cyanogenmod.privacyguard.PrivacyGuardManager.AppInfo;
 
@@ -112,7 +113,8 @@ public class PrivacyGuardAppListAdapter extends BaseAdapter {
         protected Void doInBackground(PrivacyGuardManager.AppInfo... apps) {
             for (PrivacyGuardManager.AppInfo app : apps) {
                 try {
-                    Drawable icon = mPm.getApplicationIcon(app.packageName);
+                    Drawable icon = AppIconCache.getInstance(mContext)
+                            .getApplicationIcon(mPm, app.packageName);
                     mIcons.put(app.packageName, icon);
                     publishProgress();
                 } catch (PackageManager.NameNotFoundException e) {
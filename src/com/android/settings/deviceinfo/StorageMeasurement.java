@@ -34,6 +34,7 @@ import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Parcel;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.os.storage.StorageVolume;
@@ -51,6 +52,12 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.concurrent.GuardedBy;
 
@@ -58,6 +65,11 @@ import javax.annotation.concurrent.GuardedBy;
  * Utility for measuring the disk usage of internal storage or a physical
  * {@link StorageVolume}. Connects with a remote {@link IMediaContainerService}
  * and delivers results to {@link MeasurementReceiver}.
+ * <p>
+ * Independent directories are sized concurrently on a small shared pool, and
+ * partial {@link MeasurementDetails} are delivered while they finish. Sizes
+ * are kept in a {@link StorageSizeIndex}, so directories that haven't changed
+ * since an earlier visit aren't walked again before showing results.
  */
 public class StorageMeasurement {
     private static final String TAG = "StorageMeasurement";
@@ -78,6 +90,34 @@ public class StorageMeasurement {
             Environment.DIRECTORY_RINGTONES, Environment.DIRECTORY_PODCASTS,
             Environment.DIRECTORY_DOWNLOADS, Environment.DIRECTORY_ANDROID);
 
+    /** Directories sized at once, across all volumes. */
+    private static final int MAX_PARALLEL_DIRECTORIES = 4;
+
+    /** Minimum delay between partial updates. */
+    private static final long PARTIAL_UPDATE_DELAY = 500;
+
+    private static final ThreadPoolExecutor sDirectoryExecutor = new ThreadPoolExecutor(
+            MAX_PARALLEL_DIRECTORIES, MAX_PARALLEL_DIRECTORIES, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "StorageMeasurement #" + mCount.getAndIncrement());
+                }
+            });
+
+    static {
+        sDirectoryExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Distrust indexed sizes of media directories. */
+    public static final int DIRTY_MEDIA = 1 << 0;
+    /** Distrust indexed sizes of app files on external storage. */
+    public static final int DIRTY_APP_FILES = 1 << 1;
+    /** Distrust all indexed sizes. */
+    public static final int DIRTY_ALL = 0xff;
+
     @GuardedBy("sInstances")
     private static HashMap<StorageVolume, StorageMeasurement> sInstances = Maps.newHashMap();
 
@@ -142,6 +182,13 @@ public class StorageMeasurement {
          * internal storage. Key is {@link UserHandle}.
          */
         public SparseLongArray usersSize = new SparseLongArray();
+
+        /**
+         * Whether everything has been measured. Until then, values grow as
+         * more directories and apps are measured, and sizes taken from the
+         * index may still be corrected once they are measured again.
+         */
+        public boolean complete;
     }
 
     public interface MeasurementReceiver {
@@ -164,10 +211,19 @@ public class StorageMeasurement {
 
     List<FileInfo> mFileInfoForMisc;
 
+    /** Measurement in progress, if any. */
+    private volatile Measurement mCurrent;
+    /** Finished measurement whose indexed sizes are being revalidated, if any. */
+    private volatile Measurement mRevalidation;
+
+    private final StorageSizeIndex mIndex;
+
     private StorageMeasurement(Context context, StorageVolume volume) {
         mVolume = volume;
         mIsInternal = volume == null;
         mIsPrimary = volume != null ? volume.isPrimary() : false;
+        mIndex = new StorageSizeIndex(new File(context.getCacheDir(), "storage_index"
+                + (volume != null ? volume.getPath().replace('/', '_') : "_internal")));
 
         // Start the thread that will measure the disk usage.
         final HandlerThread handlerThread = new HandlerThread("MemoryMeasurement");
@@ -189,12 +245,28 @@ public class StorageMeasurement {
 
     public void cleanUp() {
         mReceiver = null;
+        final Measurement current = mCurrent;
+        if (current != null) {
+            current.cancel();
+        }
+        final Measurement revalidation = mRevalidation;
+        if (revalidation != null) {
+            revalidation.cancel();
+        }
         mHandler.removeMessages(MeasurementHandler.MSG_MEASURE);
         mHandler.sendEmptyMessage(MeasurementHandler.MSG_DISCONNECT);
     }
 
     public void invalidate() {
-        mHandler.sendEmptyMessage(MeasurementHandler.MSG_INVALIDATE);
+        invalidate(0);
+    }
+
+    /**
+     * Like {@link #invalidate()}, also distrusting indexed sizes of the given
+     * parts of the volume, such as {@link #DIRTY_MEDIA}.
+     */
+    public void invalidate(int dirty) {
+        mHandler.obtainMessage(MeasurementHandler.MSG_INVALIDATE, dirty, 0).sendToTarget();
     }
 
     private void sendInternalApproximateUpdate() {
@@ -216,6 +288,79 @@ public class StorageMeasurement {
         receiver.updateDetails(this, details);
     }
 
+    /** Directory whose size was taken from the index. */
+    private static class IndexHit {
+        final File dir;
+        final long size;
+        final DirectoryCallback callback;
+
+        IndexHit(File dir, long size, DirectoryCallback callback) {
+            this.dir = dir;
+            this.size = size;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * State of one pass over the volume. Its details are guarded by
+     * themselves; {@link #remaining} is only used on the measurement thread.
+     */
+    private static class Measurement {
+        final IMediaContainerService imcs;
+        final long startTime = SystemClock.elapsedRealtime();
+        final MeasurementDetails details = new MeasurementDetails();
+        final ArrayList<FileInfo> miscFiles = new ArrayList<FileInfo>();
+        /** Directories whose size came from the index, and those that didn't. */
+        final ArrayList<IndexHit> indexHits = new ArrayList<IndexHit>();
+        int indexMisses;
+
+        /** Parts that haven't finished yet, or directories left to revalidate. */
+        int remaining;
+
+        private volatile boolean mCancelled;
+        private final ArrayList<Future<?>> mFutures = new ArrayList<Future<?>>();
+
+        Measurement(IMediaContainerService imcs) {
+            this.imcs = imcs;
+        }
+
+        synchronized void submit(Runnable task) {
+            if (!mCancelled) {
+                mFutures.add(sDirectoryExecutor.submit(task));
+            }
+        }
+
+        synchronized void cancel() {
+            mCancelled = true;
+            for (Future<?> future : mFutures) {
+                future.cancel(false);
+            }
+            mFutures.clear();
+        }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /** Copy of the details measured so far. */
+        MeasurementDetails snapshotDetails() {
+            final MeasurementDetails copy = new MeasurementDetails();
+            synchronized (details) {
+                copy.totalSize = details.totalSize;
+                copy.availSize = details.availSize;
+                copy.appsSize = details.appsSize;
+                copy.cacheSize = details.cacheSize;
+                copy.mediaSize.putAll(details.mediaSize);
+                copy.miscSize = details.miscSize;
+                for (int i = 0; i < details.usersSize.size(); i++) {
+                    copy.usersSize.put(details.usersSize.keyAt(i), details.usersSize.valueAt(i));
+                }
+                copy.complete = details.complete;
+            }
+            return copy;
+        }
+    }
+
     private static class StatsObserver extends IPackageStatsObserver.Stub {
         private final boolean mIsInternal;
         private final MeasurementDetails mDetails;
@@ -284,8 +429,10 @@ public class StorageMeasurement {
         public static final int MSG_MEASURE = 1;
         public static final int MSG_CONNECTED = 2;
         public static final int MSG_DISCONNECT = 3;
-        public static final int MSG_COMPLETED = 4;
+        public static final int MSG_PART_COMPLETED = 4;
         public static final int MSG_INVALIDATE = 5;
+        public static final int MSG_PARTIAL_UPDATE = 6;
+        public static final int MSG_REVALIDATED = 7;
 
         private Object mLock = new Object();
 
@@ -348,7 +495,11 @@ public class StorageMeasurement {
                 case MSG_CONNECTED: {
                     IMediaContainerService imcs = (IMediaContainerService) msg.obj;
                     measureApproximateStorage(imcs);
-                    measureExactStorage(imcs);
+                    final Measurement current = mCurrent;
+                    if (current == null || current.isCancelled()) {
+                        measureExactStorage(imcs);
+                    }
+                    // Otherwise the running measurement will deliver details.
                     break;
                 }
                 case MSG_DISCONNECT: {
@@ -365,13 +516,34 @@ public class StorageMeasurement {
                     }
                     break;
                 }
-                case MSG_COMPLETED: {
-                    mCached = (MeasurementDetails) msg.obj;
-                    sendExactUpdate(mCached);
+                case MSG_PART_COMPLETED: {
+                    onPartCompleted((Measurement) msg.obj);
                     break;
                 }
                 case MSG_INVALIDATE: {
                     mCached = null;
+                    final Measurement current = mCurrent;
+                    if (current != null) {
+                        current.cancel();
+                        mCurrent = null;
+                    }
+                    final Measurement revalidation = mRevalidation;
+                    if (revalidation != null) {
+                        revalidation.cancel();
+                        mRevalidation = null;
+                    }
+                    markDirty(msg.arg1);
+                    break;
+                }
+                case MSG_REVALIDATED: {
+                    onRevalidated((Measurement) msg.obj);
+                    break;
+                }
+                case MSG_PARTIAL_UPDATE: {
+                    final Measurement measurement = (Measurement) msg.obj;
+                    if (measurement == mCurrent && !measurement.isCancelled()) {
+                        sendExactUpdate(measurement.snapshotDetails());
+                    }
                     break;
                 }
             }
@@ -397,8 +569,9 @@ public class StorageMeasurement {
                 return;
             }
 
-            final MeasurementDetails details = new MeasurementDetails();
-            final Message finished = obtainMessage(MSG_COMPLETED, details);
+            final Measurement measurement = new Measurement(imcs);
+            final MeasurementDetails details = measurement.details;
+            mCurrent = measurement;
 
             details.totalSize = mTotalSize;
             details.availSize = mAvailSize;
@@ -415,10 +588,24 @@ public class StorageMeasurement {
             final boolean measureMedia = (mIsInternal && Environment.isExternalStorageEmulated())
                     || mIsPrimary;
             if (measureMedia) {
-                for (String type : sMeasureMediaTypes) {
+                for (final String type : sMeasureMediaTypes) {
+                    if (mIsInternal) {
+                        // return zero for internal -- skipping would crash
+                        details.mediaSize.put(type, 0L);
+                        continue;
+                    }
                     final File path = currentEnv.getExternalStoragePublicDirectory(type);
-                    final long size = (mIsInternal ? 0 : getDirectorySize(imcs, path)); /* return zero for internal -- skipping would crash */
-                    details.mediaSize.put(type, size);
+                    submitDirectory(measurement, imcs, path, new DirectoryCallback() {
+                        @Override
+                        public void onMeasured(long size) {
+                            details.mediaSize.put(type, size);
+                        }
+
+                        @Override
+                        public void onRemeasured(long oldSize, long newSize) {
+                            details.mediaSize.put(type, newSize);
+                        }
+                    });
                 }
             }
 
@@ -426,15 +613,25 @@ public class StorageMeasurement {
             if (measureMedia) {
                 final File path = mIsInternal ? currentEnv.getExternalStorageDirectory()
                         : mVolume.getPathFile();
-                details.miscSize = measureMisc(imcs, path);
+                measureMisc(measurement, imcs, path);
             }
 
             // Measure total emulated storage of all users; internal apps data
             // will be spliced in later
-            for (UserInfo user : users) {
+            for (final UserInfo user : users) {
                 final UserEnvironment userEnv = new UserEnvironment(user.id);
-                final long size = getDirectorySize(imcs, userEnv.getExternalStorageDirectory());
-                addValue(details.usersSize, user.id, size);
+                submitDirectory(measurement, imcs, userEnv.getExternalStorageDirectory(),
+                        new DirectoryCallback() {
+                            @Override
+                            public void onMeasured(long size) {
+                                addValue(details.usersSize, user.id, size);
+                            }
+
+                            @Override
+                            public void onRemeasured(long oldSize, long newSize) {
+                                addValue(details.usersSize, user.id, newSize - oldSize);
+                            }
+                        });
             }
 
             // Measure all apps for all users
@@ -445,77 +642,291 @@ public class StorageMeasurement {
                         | PackageManager.GET_DISABLED_COMPONENTS);
 
                 final int count = users.size() * apps.size();
-                final StatsObserver observer = new StatsObserver(
-                        mIsInternal, details, currentUser, finished, count);
+                if (count > 0) {
+                    final Message finished = obtainMessage(MSG_PART_COMPLETED, measurement);
+                    final StatsObserver observer = new StatsObserver(
+                            mIsInternal, details, currentUser, finished, count);
+                    measurement.remaining++;
+
+                    for (UserInfo user : users) {
+                        for (ApplicationInfo app : apps) {
+                            pm.getPackageSizeInfo(app.packageName, user.id, observer);
+                        }
+                    }
+                }
+            }
 
-                for (UserInfo user : users) {
-                    for (ApplicationInfo app : apps) {
-                        pm.getPackageSizeInfo(app.packageName, user.id, observer);
+            // Account for the parts started above, and finish right away if
+            // there were none.
+            measurement.remaining++;
+            onPartCompleted(measurement);
+        }
+
+        /**
+         * Size the given directory on the shared pool, then hand the result to
+         * {@code callback} while holding the details lock.
+         */
+        private void submitDirectory(final Measurement measurement,
+                final IMediaContainerService imcs, final File path,
+                final DirectoryCallback callback) {
+            measurement.remaining++;
+            measurement.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (measurement.isCancelled()) {
+                        return;
                     }
+                    final StorageSizeIndex.Stamp stamp = StorageSizeIndex.Stamp.of(path);
+                    long size = mIndex.get(path, stamp);
+                    final boolean hit = size >= 0;
+                    if (!hit) {
+                        size = getDirectorySize(imcs, path);
+                        if (measurement.isCancelled()) {
+                            return;
+                        }
+                        if (size >= 0) {
+                            mIndex.put(path, stamp, size);
+                        } else {
+                            size = 0;
+                        }
+                    }
+                    synchronized (measurement.details) {
+                        if (hit) {
+                            measurement.indexHits.add(new IndexHit(path, size, callback));
+                        } else {
+                            measurement.indexMisses++;
+                        }
+                        callback.onMeasured(size);
+                    }
+                    obtainMessage(MSG_PART_COMPLETED, measurement).sendToTarget();
                 }
+            });
+        }
 
-            } else {
-                finished.sendToTarget();
+        private void onPartCompleted(Measurement measurement) {
+            if (measurement != mCurrent || measurement.isCancelled()) {
+                return;
             }
+            if (--measurement.remaining > 0) {
+                if (!hasMessages(MSG_PARTIAL_UPDATE)) {
+                    sendMessageDelayed(obtainMessage(MSG_PARTIAL_UPDATE, measurement),
+                            PARTIAL_UPDATE_DELAY);
+                }
+                return;
+            }
+
+            removeMessages(MSG_PARTIAL_UPDATE);
+            synchronized (measurement.details) {
+                // sort the list of FileInfo objects collected in descending
+                // order of their sizes
+                Collections.sort(measurement.miscFiles);
+                mFileInfoForMisc = new ArrayList<FileInfo>(measurement.miscFiles);
+                // Sizes from the index are only final once revalidated.
+                measurement.details.complete = measurement.indexHits.isEmpty();
+            }
+            mCurrent = null;
+            mCached = measurement.snapshotDetails();
+            sendExactUpdate(mCached);
+
+            final int hits = measurement.indexHits.size();
+            final int overallHits = mIndex.getHitCount();
+            Log.d(TAG, "Measured " + (mIsInternal ? "internal storage" : mVolume.getPath())
+                    + " in " + (SystemClock.elapsedRealtime() - measurement.startTime)
+                    + "ms; index hits " + hits + "/" + (hits + measurement.indexMisses)
+                    + " directories, " + overallHits + "/"
+                    + (overallHits + mIndex.getMissCount()) + " overall");
+
+            mIndex.save();
+            revalidate(measurement);
         }
-    }
 
-    private static long getDirectorySize(IMediaContainerService imcs, File path) {
-        try {
-            final long size = imcs.calculateDirectorySize(path.toString());
-            Log.d(TAG, "getDirectorySize(" + path + ") returned " + size);
-            return size;
-        } catch (Exception e) {
-            Log.w(TAG, "Could not read memory from default container service for " + path, e);
-            return 0;
+        /**
+         * Measure again, in the background, the directories whose size came
+         * from the index, since changes below their top level don't show in
+         * their stamps.  Only the details fed by directories whose size
+         * changed are updated.
+         */
+        private void revalidate(final Measurement measurement) {
+            if (measurement.indexHits.isEmpty()) {
+                return;
+            }
+            if (LOGV) {
+                Log.v(TAG, "Revalidating " + measurement.indexHits.size()
+                        + " indexed directories");
+            }
+
+            mRevalidation = measurement;
+            measurement.remaining = measurement.indexHits.size();
+            for (final IndexHit hit : measurement.indexHits) {
+                measurement.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (measurement.isCancelled()) {
+                            return;
+                        }
+                        final StorageSizeIndex.Stamp stamp = StorageSizeIndex.Stamp.of(hit.dir);
+                        final long size = getDirectorySize(measurement.imcs, hit.dir);
+                        if (measurement.isCancelled()) {
+                            return;
+                        }
+                        if (size >= 0) {
+                            mIndex.put(hit.dir, stamp, size);
+                            if (size != hit.size) {
+                                synchronized (measurement.details) {
+                                    hit.callback.onRemeasured(hit.size, size);
+                                }
+                            }
+                        }
+                        obtainMessage(MSG_REVALIDATED, measurement).sendToTarget();
+                    }
+                });
+            }
         }
-    }
 
-    private long measureMisc(IMediaContainerService imcs, File dir) {
-        mFileInfoForMisc = new ArrayList<FileInfo>();
+        private void onRevalidated(Measurement measurement) {
+            if (measurement != mRevalidation || measurement.isCancelled()) {
+                return;
+            }
+            if (--measurement.remaining > 0) {
+                return;
+            }
 
-        final Parcel p = Parcel.obtain();
-        try {
-            final byte[] bytes = imcs.listDirectory(dir.toString());
-            p.unmarshall(bytes, 0, bytes.length);
-            p.setDataPosition(0);
-        } catch (Exception e) {
-            Log.w(TAG, "Could not list directory from default container service for " + dir, e);
-            return 0;
+            mRevalidation = null;
+            mIndex.save();
+            synchronized (measurement.details) {
+                Collections.sort(measurement.miscFiles);
+                mFileInfoForMisc = new ArrayList<FileInfo>(measurement.miscFiles);
+                measurement.details.complete = true;
+            }
+            mCached = measurement.snapshotDetails();
+            if (mCurrent == null) {
+                sendExactUpdate(mCached);
+            }
         }
 
-        // Get sizes of all top level nodes except the ones already computed
-        long counter = 0;
-        long miscSize = 0;
-
-        int count = p.readInt();
-        for (int i = 0; i < count; i++) {
-            final String path = p.readString();
-            final String name = p.readString();
-            final boolean isDirectory = p.readInt() == 1;
-            final boolean isFile = p.readInt() == 1;
-            final long fileSize = isFile ? p.readLong() : 0;
-
-            if (sMeasureMediaTypes.contains(name)) {
-                continue;
-            }
-
-            if (isFile) {
-                mFileInfoForMisc.add(new FileInfo(path, fileSize, counter++));
-                miscSize += fileSize;
-            } else if (isDirectory) {
-                final long dirSize = getDirectorySize(imcs, new File(path));
-                mFileInfoForMisc.add(new FileInfo(path, dirSize, counter++));
-                miscSize += dirSize;
-            } else {
-                // Non directory, non file: not listed
+        private void markDirty(int dirty) {
+            if (dirty == 0) {
+                return;
+            }
+            if ((dirty & DIRTY_ALL) == DIRTY_ALL) {
+                mIndex.markAllDirty();
+                return;
             }
+            final UserEnvironment currentEnv = new UserEnvironment(
+                    ActivityManager.getCurrentUser());
+            for (String type : sMeasureMediaTypes) {
+                final boolean appFiles = Environment.DIRECTORY_ANDROID.equals(type);
+                if ((appFiles && (dirty & DIRTY_APP_FILES) != 0)
+                        || (!appFiles && (dirty & DIRTY_MEDIA) != 0)) {
+                    mIndex.markDirty(currentEnv.getExternalStoragePublicDirectory(type));
+                }
+            }
+            if ((dirty & DIRTY_MEDIA) != 0) {
+                // Media may also be scanned in the directories counted as misc.
+                final File root = mIsInternal ? currentEnv.getExternalStorageDirectory()
+                        : mVolume.getPathFile();
+                final String[] names = root.list();
+                if (names == null) {
+                    mIndex.markDirty(root);
+                    return;
+                }
+                for (String name : names) {
+                    if (!sMeasureMediaTypes.contains(name)) {
+                        mIndex.markDirty(new File(root, name));
+                    }
+                }
+            }
+        }
+
+        private void measureMisc(final Measurement measurement, IMediaContainerService imcs,
+                File dir) {
+            final MeasurementDetails details = measurement.details;
+            final Parcel p = Parcel.obtain();
+            try {
+                final byte[] bytes = imcs.listDirectory(dir.toString());
+                p.unmarshall(bytes, 0, bytes.length);
+                p.setDataPosition(0);
+            } catch (Exception e) {
+                Log.w(TAG, "Could not list directory from default container service for " + dir,
+                        e);
+                p.recycle();
+                return;
+            }
+
+            // Get sizes of all top level nodes except the ones already computed
+            long counter = 0;
+
+            int count = p.readInt();
+            for (int i = 0; i < count; i++) {
+                final String path = p.readString();
+                final String name = p.readString();
+                final boolean isDirectory = p.readInt() == 1;
+                final boolean isFile = p.readInt() == 1;
+                final long fileSize = isFile ? p.readLong() : 0;
+
+                if (sMeasureMediaTypes.contains(name)) {
+                    continue;
+                }
+
+                if (isFile) {
+                    synchronized (details) {
+                        measurement.miscFiles.add(new FileInfo(path, fileSize, counter++));
+                        details.miscSize += fileSize;
+                    }
+                } else if (isDirectory) {
+                    final long id = counter++;
+                    submitDirectory(measurement, imcs, new File(path), new DirectoryCallback() {
+                        @Override
+                        public void onMeasured(long size) {
+                            measurement.miscFiles.add(new FileInfo(path, size, id));
+                            details.miscSize += size;
+                        }
+
+                        @Override
+                        public void onRemeasured(long oldSize, long newSize) {
+                            final ArrayList<FileInfo> files = measurement.miscFiles;
+                            for (int i = 0; i < files.size(); i++) {
+                                if (files.get(i).mId == id) {
+                                    files.set(i, new FileInfo(path, newSize, id));
+                                    break;
+                                }
+                            }
+                            details.miscSize += newSize - oldSize;
+                        }
+                    });
+                } else {
+                    // Non directory, non file: not listed
+                }
+            }
+            p.recycle();
         }
+    }
+
+    private interface DirectoryCallback {
+        /**
+         * Called with the details lock held once a directory is sized.
+         */
+        void onMeasured(long size);
 
-        // sort the list of FileInfo objects collected above in descending order of their sizes
-        Collections.sort(mFileInfoForMisc);
+        /**
+         * Called with the details lock held when a directory whose size came
+         * from the index turned out to have a different size.
+         */
+        void onRemeasured(long oldSize, long newSize);
+    }
 
-        return miscSize;
+    /**
+     * Returns the size of the given directory, or -1 if it couldn't be read.
+     */
+    private static long getDirectorySize(IMediaContainerService imcs, File path) {
+        try {
+            final long size = imcs.calculateDirectorySize(path.toString());
+            Log.d(TAG, "getDirectorySize(" + path + ") returned " + size);
+            return size;
+        } catch (Exception e) {
+            Log.w(TAG, "Could not read memory from default container service for " + path, e);
+            return -1;
+        }
     }
 
     static class FileInfo implements Comparable<FileInfo> {
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo;
+
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * On-disk index of directory sizes measured by {@link StorageMeasurement},
+ * so that a later visit can show them without asking the container service
+ * to walk the whole volume again.
+ *
+ * <p>Entries are keyed by path and tagged with the directory's modification
+ * time and number of children when it was measured; an entry is only used
+ * while both still match and it hasn't been marked dirty.  A directory
+ * that can't be listed, or has no modification time, is never indexed.
+ * Since neither changes when files deeper down grow, sizes taken from the
+ * index are revalidated in the background once a measurement has finished.
+ */
+class StorageSizeIndex {
+    static final String TAG = "StorageSizeIndex";
+
+    private static final int MAGIC = 0x53495a45; // 'SIZE'
+    private static final int VERSION = 3;
+
+    /** Modification time and child count of a directory. */
+    static class Stamp {
+        final long mtime;
+        final int childCount;
+
+        Stamp(long mtime, int childCount) {
+            this.mtime = mtime;
+            this.childCount = childCount;
+        }
+
+        static Stamp of(File dir) {
+            final String[] children = dir.list();
+            return new Stamp(dir.lastModified(), children != null ? children.length : -1);
+        }
+
+        /**
+         * Returns whether the stamp says anything about the directory, which
+         * it doesn't when the directory couldn't be read.
+         */
+        boolean isValid() {
+            return mtime != 0 && childCount >= 0;
+        }
+
+        boolean matches(Entry entry) {
+            return entry.mtime == mtime && entry.childCount == childCount;
+        }
+    }
+
+    private static class Entry {
+        long mtime;
+        int childCount;
+        long size;
+        boolean dirty;
+    }
+
+    private final AtomicFile mFile;
+
+    // Guarded by this.
+    private HashMap<String, Entry> mEntries;
+    private boolean mModified;
+    private int mHits;
+    private int mMisses;
+
+    StorageSizeIndex(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Returns the indexed size of the given directory, or -1 if it isn't
+     * indexed, is dirty, or changed since it was measured.
+     */
+    synchronized long get(File dir, Stamp stamp) {
+        ensureLoadedLocked();
+        final Entry entry = mEntries.get(dir.getPath());
+        if (entry == null || entry.dirty || !stamp.isValid() || !stamp.matches(entry)) {
+            mMisses++;
+            return -1;
+        }
+        mHits++;
+        return entry.size;
+    }
+
+    /**
+     * Records the size of the given directory, as measured after it had the
+     * given stamp.  If the stamp isn't valid, the directory is dropped from
+     * the index instead.
+     *
+     * @return whether the size differs from what was indexed.
+     */
+    synchronized boolean put(File dir, Stamp stamp, long size) {
+        ensureLoadedLocked();
+        Entry entry = mEntries.get(dir.getPath());
+        final boolean changed = entry == null || entry.size != size;
+        if (!stamp.isValid()) {
+            if (entry != null) {
+                mEntries.remove(dir.getPath());
+                mModified = true;
+            }
+            return entry != null && changed;
+        }
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(dir.getPath(), entry);
+        }
+        entry.mtime = stamp.mtime;
+        entry.childCount = stamp.childCount;
+        entry.size = size;
+        entry.dirty = false;
+        mModified = true;
+        return changed;
+    }
+
+    /**
+     * Marks the given directory dirty, along with everything below and above
+     * it, since sizes of its ancestors include it.
+     */
+    synchronized void markDirty(File root) {
+        ensureLoadedLocked();
+        final String path = root.getPath();
+        for (Map.Entry<String, Entry> e : mEntries.entrySet()) {
+            final String key = e.getKey();
+            if (isSameOrBelow(key, path) || isSameOrBelow(path, key)) {
+                e.getValue().dirty = true;
+                mModified = true;
+            }
+        }
+    }
+
+    synchronized void markAllDirty() {
+        ensureLoadedLocked();
+        for (Entry entry : mEntries.values()) {
+            entry.dirty = true;
+        }
+        mModified |= mEntries.size() > 0;
+    }
+
+    synchronized int getHitCount() {
+        return mHits;
+    }
+
+    synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    private static boolean isSameOrBelow(String path, String root) {
+        return path.startsWith(root)
+                && (path.length() == root.length() || path.charAt(root.length()) == '/');
+    }
+
+    private void ensureLoadedLocked() {
+        if (mEntries != null) {
+            return;
+        }
+        mEntries = new HashMap<String, Entry>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String path = in.readUTF();
+                final Entry entry = new Entry();
+                entry.mtime = in.readLong();
+                entry.childCount = in.readInt();
+                entry.size = in.readLong();
+                mEntries.put(path, entry);
+            }
+        } catch (EOFException e) {
+            Log.w(TAG, "Truncated index, ignoring");
+            mEntries.clear();
+        } catch (IOException e) {
+            // No index yet.
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the index if it changed.  Dirty entries are left out.
+     */
+    synchronized void save() {
+        if (!mModified) {
+            return;
+        }
+        FileOutputStream fos = null;
+        try {
+            int count = 0;
+            for (Entry entry : mEntries.values()) {
+                if (!entry.dirty) count++;
+            }
+
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            for (Map.Entry<String, Entry> e : mEntries.entrySet()) {
+                final Entry entry = e.getValue();
+                if (entry.dirty) {
+                    continue;
+                }
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.mtime);
+                out.writeInt(entry.childCount);
+                out.writeLong(entry.size);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+            mModified = false;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed writing index", e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+        }
+    }
+}
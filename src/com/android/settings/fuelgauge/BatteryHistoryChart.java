@@ -34,6 +34,8 @@ import android.util.AttributeSet;
 import android.util.TypedValue;
 import android.view.View;
 
+import java.util.Arrays;
+
 public class BatteryHistoryChart extends View {
     static final int CHART_DATA_X_MASK = 0x0000ffff;
     static final int CHART_DATA_BIN_MASK = 0xffff0000;
@@ -98,6 +100,114 @@ public class BatteryHistoryChart extends View {
         }
     }
 
+    /**
+     * History records decoded once into columns, with the aggregates the chart
+     * needs and the paths already built from it for recent sizes.  Keep one
+     * around to avoid iterating {@link BatteryStats} history again, for
+     * example across configuration changes.
+     */
+    static class HistoryBuffer {
+        /** Number of records, up to and including the last update. */
+        int mSize;
+        long[] mTimes;
+        byte[] mLevels;
+        int[] mStates;
+        byte[] mCmds;
+
+        long mHistStart;
+        long mHistEnd;
+        int mAggrStates;
+
+        /** Paths for the most recent sizes, most recent first. */
+        final ChartPaths[] mPaths = new ChartPaths[2];
+
+        static HistoryBuffer decode(BatteryStats stats) {
+            final HistoryBuffer hist = new HistoryBuffer();
+            int size = 0;
+            int lastInteresting = 0;
+            long[] times = new long[256];
+            byte[] levels = new byte[256];
+            int[] states = new int[256];
+            byte[] cmds = new byte[256];
+            boolean first = true;
+            if (stats.startIteratingHistoryLocked()) {
+                final HistoryItem rec = new HistoryItem();
+                while (stats.getNextHistoryLocked(rec)) {
+                    if (size == times.length) {
+                        times = Arrays.copyOf(times, size*2);
+                        levels = Arrays.copyOf(levels, size*2);
+                        states = Arrays.copyOf(states, size*2);
+                        cmds = Arrays.copyOf(cmds, size*2);
+                    }
+                    times[size] = rec.time;
+                    levels[size] = rec.batteryLevel;
+                    states[size] = rec.states;
+                    cmds[size] = rec.cmd;
+                    size++;
+                    if (rec.cmd == HistoryItem.CMD_UPDATE) {
+                        if (first) {
+                            first = false;
+                            hist.mHistStart = rec.time;
+                        }
+                        lastInteresting = size;
+                        hist.mHistEnd = rec.time;
+                        hist.mAggrStates |= rec.states;
+                    }
+                }
+            }
+            hist.mSize = lastInteresting;
+            hist.mTimes = times;
+            hist.mLevels = levels;
+            hist.mStates = states;
+            hist.mCmds = cmds;
+            return hist;
+        }
+
+        ChartPaths getPaths(int width, int height, int textHeight, boolean largeMode) {
+            for (ChartPaths paths : mPaths) {
+                if (paths != null && paths.mWidth == width && paths.mHeight == height
+                        && paths.mTextHeight == textHeight && paths.mLargeMode == largeMode) {
+                    return paths;
+                }
+            }
+            return null;
+        }
+
+        void putPaths(ChartPaths paths) {
+            System.arraycopy(mPaths, 0, mPaths, 1, mPaths.length-1);
+            mPaths[0] = paths;
+        }
+    }
+
+    /**
+     * Everything built from a {@link HistoryBuffer} for one chart size.
+     */
+    static class ChartPaths {
+        final int mWidth;
+        final int mHeight;
+        final int mTextHeight;
+        final boolean mLargeMode;
+
+        final Path mBatLevelPath = new Path();
+        final Path mBatGoodPath = new Path();
+        final Path mBatWarnPath = new Path();
+        final Path mBatCriticalPath = new Path();
+        final Path mChargingPath = new Path();
+        final Path mScreenOnPath = new Path();
+        final Path mGpsOnPath = new Path();
+        final Path mWifiRunningPath = new Path();
+        final Path mWakeLockPath = new Path();
+        int[] mPhoneSignalTicks;
+        int mPhoneSignalNumTicks;
+
+        ChartPaths(int width, int height, int textHeight, boolean largeMode) {
+            mWidth = width;
+            mHeight = height;
+            mTextHeight = textHeight;
+            mLargeMode = largeMode;
+        }
+    }
+
     static final int SANS = 1;
     static final int SERIF = 2;
     static final int MONOSPACE = 3;
@@ -121,19 +231,21 @@ public class BatteryHistoryChart extends View {
     final ChartData mPhoneSignalChart = new ChartData();
     final TextPaint mTextPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
     
-    final Path mBatLevelPath = new Path();
-    final Path mBatGoodPath = new Path();
-    final Path mBatWarnPath = new Path();
-    final Path mBatCriticalPath = new Path();
-    final Path mChargingPath = new Path();
-    final Path mScreenOnPath = new Path();
-    final Path mGpsOnPath = new Path();
-    final Path mWifiRunningPath = new Path();
-    final Path mWakeLockPath = new Path();
+    // Set from the current ChartPaths.
+    Path mBatLevelPath = new Path();
+    Path mBatGoodPath = new Path();
+    Path mBatWarnPath = new Path();
+    Path mBatCriticalPath = new Path();
+    Path mChargingPath = new Path();
+    Path mScreenOnPath = new Path();
+    Path mGpsOnPath = new Path();
+    Path mWifiRunningPath = new Path();
+    Path mWakeLockPath = new Path();
     
     int mFontSize;
     
     BatteryStats mStats;
+    HistoryBuffer mHistory;
     long mStatsPeriod;
     String mDurationString;
     String mTotalDurationString;
@@ -335,7 +447,16 @@ public class BatteryHistoryChart extends View {
     }
     
     void setStats(BatteryStats stats) {
+        setStats(stats, HistoryBuffer.decode(stats));
+    }
+
+    /**
+     * Like {@link #setStats(BatteryStats)}, with history already decoded
+     * from {@code stats}.
+     */
+    void setStats(BatteryStats stats, HistoryBuffer history) {
         mStats = stats;
+        mHistory = history;
         
         long uSecTime = mStats.computeBatteryRealtime(SystemClock.elapsedRealtime() * 1000,
                 BatteryStats.STATS_SINCE_CHARGED);
@@ -350,32 +471,12 @@ public class BatteryHistoryChart extends View {
         mWakeLockLabel = getContext().getString(R.string.battery_stats_wake_lock_label);
         mPhoneSignalLabel = getContext().getString(R.string.battery_stats_phone_signal_label);
         
-        int pos = 0;
-        int lastInteresting = 0;
-        byte lastLevel = -1;
         mBatLow = 0;
         mBatHigh = 100;
-        int aggrStates = 0;
-        boolean first = true;
-        if (stats.startIteratingHistoryLocked()) {
-            final HistoryItem rec = new HistoryItem();
-            while (stats.getNextHistoryLocked(rec)) {
-                pos++;
-                if (rec.cmd == HistoryItem.CMD_UPDATE) {
-                    if (first) {
-                        first = false;
-                        mHistStart = rec.time;
-                    }
-                    if (rec.batteryLevel != lastLevel || pos == 1) {
-                        lastLevel = rec.batteryLevel;
-                    }
-                    lastInteresting = pos;
-                    mHistEnd = rec.time;
-                    aggrStates |= rec.states;
-                }
-            }
-        }
-        mNumHist = lastInteresting;
+        mHistStart = history.mHistStart;
+        mHistEnd = history.mHistEnd;
+        final int aggrStates = history.mAggrStates;
+        mNumHist = history.mSize;
         mHaveGps = (aggrStates&HistoryItem.STATE_GPS_ON_FLAG) != 0;
         mHaveWifi = (aggrStates&HistoryItem.STATE_WIFI_RUNNING_FLAG) != 0;
         if (!com.android.settings.Utils.isWifiOnly(getContext())) {
@@ -494,15 +595,39 @@ public class BatteryHistoryChart extends View {
             }
         }
 
-        mBatLevelPath.reset();
-        mBatGoodPath.reset();
-        mBatWarnPath.reset();
-        mBatCriticalPath.reset();
-        mScreenOnPath.reset();
-        mGpsOnPath.reset();
-        mWifiRunningPath.reset();
-        mWakeLockPath.reset();
-        mChargingPath.reset();
+        final int levelh = h - mLevelOffset - mLevelTop;
+        mLevelBottom = mLevelTop + levelh;
+
+        // Paths only depend on the size, so reuse them if this history was
+        // already drawn at this size, such as before a rotation.
+        ChartPaths paths = mHistory.getPaths(w, h, textHeight, mLargeMode);
+        if (paths != null) {
+            usePaths(paths);
+            mPhoneSignalChart.mTicks = paths.mPhoneSignalTicks;
+            mPhoneSignalChart.mNumTicks = paths.mPhoneSignalNumTicks;
+            return;
+        }
+        paths = new ChartPaths(w, h, textHeight, mLargeMode);
+        usePaths(paths);
+        buildPaths(w, h, levelh);
+        paths.mPhoneSignalTicks = mPhoneSignalChart.mTicks;
+        paths.mPhoneSignalNumTicks = mPhoneSignalChart.mNumTicks;
+        mHistory.putPaths(paths);
+    }
+
+    private void usePaths(ChartPaths paths) {
+        mBatLevelPath = paths.mBatLevelPath;
+        mBatGoodPath = paths.mBatGoodPath;
+        mBatWarnPath = paths.mBatWarnPath;
+        mBatCriticalPath = paths.mBatCriticalPath;
+        mChargingPath = paths.mChargingPath;
+        mScreenOnPath = paths.mScreenOnPath;
+        mGpsOnPath = paths.mGpsOnPath;
+        mWifiRunningPath = paths.mWifiRunningPath;
+        mWakeLockPath = paths.mWakeLockPath;
+    }
+
+    private void buildPaths(int w, int h, int levelh) {
         
         final long timeStart = mHistStart;
         final long timeChange = mHistEnd-mHistStart;
@@ -510,139 +635,133 @@ public class BatteryHistoryChart extends View {
         final int batLow = mBatLow;
         final int batChange = mBatHigh-mBatLow;
         
-        final int levelh = h - mLevelOffset - mLevelTop;
-        mLevelBottom = mLevelTop + levelh;
-        
         int x = 0, y = 0, startX = 0, lastX = -1, lastY = -1;
-        int i = 0;
         Path curLevelPath = null;
         Path lastLinePath = null;
         boolean lastCharging = false, lastScreenOn = false, lastGpsOn = false;
         boolean lastWifiRunning = false, lastWakeLock = false;
+        final HistoryBuffer hist = mHistory;
         final int N = mNumHist;
-        if (mStats.startIteratingHistoryLocked()) {
-            final HistoryItem rec = new HistoryItem();
-            while (mStats.getNextHistoryLocked(rec) && i < N) {
-                if (rec.cmd == BatteryStats.HistoryItem.CMD_UPDATE) {
-                    x = (int)(((rec.time-timeStart)*w)/timeChange);
-                    y = mLevelTop + levelh - ((rec.batteryLevel-batLow)*(levelh-1))/batChange;
-
-                    if (lastX != x) {
-                        // We have moved by at least a pixel.
-                        if (lastY != y) {
-                            // Don't plot changes within a pixel.
-                            Path path;
-                            byte value = rec.batteryLevel;
-                            if (value <= BATTERY_CRITICAL) path = mBatCriticalPath;
-                            else if (value <= BATTERY_WARN) path = mBatWarnPath;
-                            else path = mBatGoodPath;
-
-                            if (path != lastLinePath) {
-                                if (lastLinePath != null) {
-                                    lastLinePath.lineTo(x, y);
-                                }
-                                path.moveTo(x, y);
-                                lastLinePath = path;
-                            } else {
-                                path.lineTo(x, y);
-                            }
-
-                            if (curLevelPath == null) {
-                                curLevelPath = mBatLevelPath;
-                                curLevelPath.moveTo(x, y);
-                                startX = x;
-                            } else {
-                                curLevelPath.lineTo(x, y);
+        for (int i=0; i<N; i++) {
+            final byte cmd = hist.mCmds[i];
+            final int states = hist.mStates[i];
+            if (cmd == BatteryStats.HistoryItem.CMD_UPDATE) {
+                x = (int)(((hist.mTimes[i]-timeStart)*w)/timeChange);
+                y = mLevelTop + levelh - ((hist.mLevels[i]-batLow)*(levelh-1))/batChange;
+
+                if (lastX != x) {
+                    // We have moved by at least a pixel.
+                    if (lastY != y) {
+                        // Don't plot changes within a pixel.
+                        Path path;
+                        byte value = hist.mLevels[i];
+                        if (value <= BATTERY_CRITICAL) path = mBatCriticalPath;
+                        else if (value <= BATTERY_WARN) path = mBatWarnPath;
+                        else path = mBatGoodPath;
+
+                        if (path != lastLinePath) {
+                            if (lastLinePath != null) {
+                                lastLinePath.lineTo(x, y);
                             }
-                            lastX = x;
-                            lastY = y;
+                            path.moveTo(x, y);
+                            lastLinePath = path;
+                        } else {
+                            path.lineTo(x, y);
                         }
-                    }
 
-                    final boolean charging =
-                        (rec.states&HistoryItem.STATE_BATTERY_PLUGGED_FLAG) != 0;
-                    if (charging != lastCharging) {
-                        if (charging) {
-                            mChargingPath.moveTo(x, h-mChargingOffset);
+                        if (curLevelPath == null) {
+                            curLevelPath = mBatLevelPath;
+                            curLevelPath.moveTo(x, y);
+                            startX = x;
                         } else {
-                            mChargingPath.lineTo(x, h-mChargingOffset);
+                            curLevelPath.lineTo(x, y);
                         }
-                        lastCharging = charging;
+                        lastX = x;
+                        lastY = y;
                     }
+                }
 
-                    final boolean screenOn =
-                        (rec.states&HistoryItem.STATE_SCREEN_ON_FLAG) != 0;
-                    if (screenOn != lastScreenOn) {
-                        if (screenOn) {
-                            mScreenOnPath.moveTo(x, h-mScreenOnOffset);
-                        } else {
-                            mScreenOnPath.lineTo(x, h-mScreenOnOffset);
-                        }
-                        lastScreenOn = screenOn;
+                final boolean charging =
+                    (states&HistoryItem.STATE_BATTERY_PLUGGED_FLAG) != 0;
+                if (charging != lastCharging) {
+                    if (charging) {
+                        mChargingPath.moveTo(x, h-mChargingOffset);
+                    } else {
+                        mChargingPath.lineTo(x, h-mChargingOffset);
                     }
+                    lastCharging = charging;
+                }
 
-                    final boolean gpsOn =
-                        (rec.states&HistoryItem.STATE_GPS_ON_FLAG) != 0;
-                    if (gpsOn != lastGpsOn) {
-                        if (gpsOn) {
-                            mGpsOnPath.moveTo(x, h-mGpsOnOffset);
-                        } else {
-                            mGpsOnPath.lineTo(x, h-mGpsOnOffset);
-                        }
-                        lastGpsOn = gpsOn;
+                final boolean screenOn =
+                    (states&HistoryItem.STATE_SCREEN_ON_FLAG) != 0;
+                if (screenOn != lastScreenOn) {
+                    if (screenOn) {
+                        mScreenOnPath.moveTo(x, h-mScreenOnOffset);
+                    } else {
+                        mScreenOnPath.lineTo(x, h-mScreenOnOffset);
                     }
+                    lastScreenOn = screenOn;
+                }
 
-                    final boolean wifiRunning =
-                        (rec.states&HistoryItem.STATE_WIFI_RUNNING_FLAG) != 0;
-                    if (wifiRunning != lastWifiRunning) {
-                        if (wifiRunning) {
-                            mWifiRunningPath.moveTo(x, h-mWifiRunningOffset);
-                        } else {
-                            mWifiRunningPath.lineTo(x, h-mWifiRunningOffset);
-                        }
-                        lastWifiRunning = wifiRunning;
+                final boolean gpsOn =
+                    (states&HistoryItem.STATE_GPS_ON_FLAG) != 0;
+                if (gpsOn != lastGpsOn) {
+                    if (gpsOn) {
+                        mGpsOnPath.moveTo(x, h-mGpsOnOffset);
+                    } else {
+                        mGpsOnPath.lineTo(x, h-mGpsOnOffset);
                     }
+                    lastGpsOn = gpsOn;
+                }
 
-                    final boolean wakeLock =
-                        (rec.states&HistoryItem.STATE_WAKE_LOCK_FLAG) != 0;
-                    if (wakeLock != lastWakeLock) {
-                        if (wakeLock) {
-                            mWakeLockPath.moveTo(x, h-mWakeLockOffset);
-                        } else {
-                            mWakeLockPath.lineTo(x, h-mWakeLockOffset);
-                        }
-                        lastWakeLock = wakeLock;
+                final boolean wifiRunning =
+                    (states&HistoryItem.STATE_WIFI_RUNNING_FLAG) != 0;
+                if (wifiRunning != lastWifiRunning) {
+                    if (wifiRunning) {
+                        mWifiRunningPath.moveTo(x, h-mWifiRunningOffset);
+                    } else {
+                        mWifiRunningPath.lineTo(x, h-mWifiRunningOffset);
                     }
+                    lastWifiRunning = wifiRunning;
+                }
 
-                    if (mLargeMode && mHavePhoneSignal) {
-                        int bin;
-                        if (((rec.states&HistoryItem.STATE_PHONE_STATE_MASK)
-                                >> HistoryItem.STATE_PHONE_STATE_SHIFT)
-                                == ServiceState.STATE_POWER_OFF) {
-                            bin = 0;
-                        } else if ((rec.states&HistoryItem.STATE_PHONE_SCANNING_FLAG) != 0) {
-                            bin = 1;
-                        } else {
-                            bin = (rec.states&HistoryItem.STATE_SIGNAL_STRENGTH_MASK)
-                                    >> HistoryItem.STATE_SIGNAL_STRENGTH_SHIFT;
-                            bin += 2;
-                        }
-                        mPhoneSignalChart.addTick(x, bin);
+                final boolean wakeLock =
+                    (states&HistoryItem.STATE_WAKE_LOCK_FLAG) != 0;
+                if (wakeLock != lastWakeLock) {
+                    if (wakeLock) {
+                        mWakeLockPath.moveTo(x, h-mWakeLockOffset);
+                    } else {
+                        mWakeLockPath.lineTo(x, h-mWakeLockOffset);
                     }
+                    lastWakeLock = wakeLock;
+                }
 
-                } else if (rec.cmd != BatteryStats.HistoryItem.CMD_OVERFLOW) {
-                    if (curLevelPath != null) {
-                        finishPaths(x+1, h, levelh, startX, lastY, curLevelPath, lastX,
-                                lastCharging, lastScreenOn, lastGpsOn, lastWifiRunning,
-                                lastWakeLock, lastLinePath);
-                        lastX = lastY = -1;
-                        curLevelPath = null;
-                        lastLinePath = null;
-                        lastCharging = lastScreenOn = lastGpsOn = lastWakeLock = false;
+                if (mLargeMode && mHavePhoneSignal) {
+                    int bin;
+                    if (((states&HistoryItem.STATE_PHONE_STATE_MASK)
+                            >> HistoryItem.STATE_PHONE_STATE_SHIFT)
+                            == ServiceState.STATE_POWER_OFF) {
+                        bin = 0;
+                    } else if ((states&HistoryItem.STATE_PHONE_SCANNING_FLAG) != 0) {
+                        bin = 1;
+                    } else {
+                        bin = (states&HistoryItem.STATE_SIGNAL_STRENGTH_MASK)
+                                >> HistoryItem.STATE_SIGNAL_STRENGTH_SHIFT;
+                        bin += 2;
                     }
+                    mPhoneSignalChart.addTick(x, bin);
+                }
+
+            } else if (cmd != BatteryStats.HistoryItem.CMD_OVERFLOW) {
+                if (curLevelPath != null) {
+                    finishPaths(x+1, h, levelh, startX, lastY, curLevelPath, lastX,
+                            lastCharging, lastScreenOn, lastGpsOn, lastWifiRunning,
+                            lastWakeLock, lastLinePath);
+                    lastX = lastY = -1;
+                    curLevelPath = null;
+                    lastLinePath = null;
+                    lastCharging = lastScreenOn = lastGpsOn = lastWakeLock = false;
                 }
-                
-                i++;
             }
         }
         
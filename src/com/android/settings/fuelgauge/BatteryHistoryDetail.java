@@ -18,7 +18,6 @@ package com.android.settings.fuelgauge;
 
 import android.app.Fragment;
 import android.os.Bundle;
-import android.os.Parcel;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -26,28 +25,60 @@ import android.view.ViewGroup;
 import com.android.internal.os.BatteryStatsImpl;
 import com.android.settings.R;
 
-public class BatteryHistoryDetail extends Fragment {
-    public static final String EXTRA_STATS = "stats";
-
+public class BatteryHistoryDetail extends Fragment implements BatteryStatsRepository.Callback {
+    private BatteryStatsRepository mRepository;
     private BatteryStatsImpl mStats;
+    private BatteryHistoryChart.HistoryBuffer mHistory;
+    private BatteryHistoryChart mChart;
 
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
-        byte[] data = getArguments().getByteArray(EXTRA_STATS);
-        Parcel parcel = Parcel.obtain();
-        parcel.unmarshall(data, 0, data.length);
-        parcel.setDataPosition(0);
-        mStats = com.android.internal.os.BatteryStatsImpl.CREATOR
-                .createFromParcel(parcel);
+        // Keep the stats, decoded history and the chart paths built from it
+        // across configuration changes.
+        setRetainInstance(true);
+        mRepository = BatteryStatsRepository.getInstance(getActivity());
+        mStats = mRepository.getStats();
+        mHistory = mRepository.getHistory();
+        if (mStats == null) {
+            // Recreated after our process died; wait for the stats to load.
+            mRepository.registerCallback(this);
+        }
     }
-    
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.preference_batteryhistory, null);
-        BatteryHistoryChart chart = (BatteryHistoryChart)view.findViewById(
-                R.id.battery_history_chart);
-        chart.setStats(mStats);
+        mChart = (BatteryHistoryChart)view.findViewById(R.id.battery_history_chart);
+        if (mStats != null) {
+            mChart.setStats(mStats, mHistory);
+        } else {
+            mChart.setVisibility(View.GONE);
+        }
         return view;
     }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        mChart = null;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mRepository.unregisterCallback(this);
+    }
+
+    @Override
+    public void onStatsLoaded(BatteryStatsImpl stats,
+            BatteryHistoryChart.HistoryBuffer history) {
+        mRepository.unregisterCallback(this);
+        mStats = stats;
+        mHistory = history;
+        if (mChart != null) {
+            mChart.setStats(mStats, mHistory);
+            mChart.setVisibility(View.VISIBLE);
+        }
+    }
 }
@@ -34,11 +34,14 @@ import com.android.settings.R;
 public class BatteryHistoryPreference extends Preference {
 
     private BatteryStats mStats;
+    private BatteryHistoryChart.HistoryBuffer mHistory;
 
-    public BatteryHistoryPreference(Context context, BatteryStats stats) {
+    public BatteryHistoryPreference(Context context, BatteryStats stats,
+            BatteryHistoryChart.HistoryBuffer history) {
         super(context);
         setLayoutResource(R.layout.preference_batteryhistory);
         mStats = stats;
+        mHistory = history;
     }
 
     BatteryStats getStats() {
@@ -51,6 +54,9 @@ public class BatteryHistoryPreference extends Preference {
 
         BatteryHistoryChart chart = (BatteryHistoryChart)view.findViewById(
                 R.id.battery_history_chart);
-        chart.setStats(mStats);
+        if (mHistory == null) {
+            mHistory = BatteryHistoryChart.HistoryBuffer.decode(mStats);
+        }
+        chart.setStats(mStats, mHistory);
     }
 }
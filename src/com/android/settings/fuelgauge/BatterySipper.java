@@ -15,6 +15,7 @@
  */
 package com.android.settings.fuelgauge;
 
+import com.android.settings.AppIconCache;
 import com.android.settings.R;
 import com.android.settings.fuelgauge.PowerUsageDetail.DrainType;
 
@@ -158,7 +159,7 @@ class BatterySipper implements Comparable<BatterySipper> {
                 }
                 if (ai.icon != 0) {
                     defaultPackageName = packages[i];
-                    icon = ai.loadIcon(pm);
+                    icon = AppIconCache.getInstance(mContext).loadIcon(pm, ai);
                     break;
                 }
             } catch (NameNotFoundException e) {
@@ -180,7 +181,8 @@ class BatterySipper implements Comparable<BatterySipper> {
                             name = nm.toString();
                             if (pi.applicationInfo.icon != 0) {
                                 defaultPackageName = pkgName;
-                                icon = pi.applicationInfo.loadIcon(pm);
+                                icon = AppIconCache.getInstance(mContext)
+                                        .loadIcon(pm, pi.applicationInfo);
                             }
                             break;
                         }
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryStats;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Parcel;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.app.IBatteryStats;
+import com.android.internal.os.BatteryStatsImpl;
+
+import java.util.ArrayList;
+
+/**
+ * Process-wide holder of the most recent battery stats, shared by the
+ * battery screens so that they don't each fetch and parse the stats parcel.
+ *
+ * <p>Stats are fetched, unmarshalled and their history decoded on a
+ * background thread, then handed to the callbacks on the main thread.  The
+ * loaded objects are never modified afterwards, so screens may keep using
+ * them after a newer load.  While anyone is registered, battery broadcasts
+ * trigger a reload once they have settled for {@link #REFRESH_DELAY}.
+ */
+public class BatteryStatsRepository {
+    static final String TAG = "BatteryStatsRepository";
+    static final boolean DEBUG = false;
+
+    /** How long battery broadcasts must settle before loading again. */
+    static final long REFRESH_DELAY = 2 * 1000;
+
+    /** How long loaded stats are used without loading again on register. */
+    static final long MAX_AGE = 10 * 1000;
+
+    public interface Callback {
+        /**
+         * Called on the main thread when new stats were loaded.
+         */
+        void onStatsLoaded(BatteryStatsImpl stats, BatteryHistoryChart.HistoryBuffer history);
+    }
+
+    private static final int MSG_LOAD = 1;
+    private static final int MSG_LOADED = 2;
+
+    private static BatteryStatsRepository sInstance;
+
+    private final Context mContext;
+    private final Handler mBackgroundHandler;
+    private final Handler mMainHandler;
+
+    private final ArrayList<Callback> mCallbacks = new ArrayList<Callback>();
+
+    // Only used on the background thread.
+    private IBatteryStats mBatteryInfo;
+
+    // Only used on the main thread.
+    private BatteryStatsImpl mStats;
+    private BatteryHistoryChart.HistoryBuffer mHistory;
+    private long mLoadedTime;
+    private int mLoadCount;
+    private long mLastLoadDuration;
+    private long mTotalLoadDuration;
+
+    private static class LoadResult {
+        BatteryStatsImpl stats;
+        BatteryHistoryChart.HistoryBuffer history;
+        long duration;
+    }
+
+    private final BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (isInitialStickyBroadcast()) {
+                // Registering already loaded if needed.
+                return;
+            }
+            // Level and plug changes come in bursts; wait for them to settle.
+            mBackgroundHandler.removeMessages(MSG_LOAD);
+            mBackgroundHandler.sendEmptyMessageDelayed(MSG_LOAD, REFRESH_DELAY);
+        }
+    };
+
+    public static synchronized BatteryStatsRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BatteryStatsRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private BatteryStatsRepository(Context context) {
+        mContext = context;
+        final HandlerThread thread = new HandlerThread(TAG,
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mBackgroundHandler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_LOAD) {
+                    final LoadResult result = load();
+                    if (result != null) {
+                        mMainHandler.obtainMessage(MSG_LOADED, result).sendToTarget();
+                    }
+                }
+            }
+        };
+        mMainHandler = new Handler(Looper.getMainLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_LOADED) {
+                    onLoaded((LoadResult) msg.obj);
+                }
+            }
+        };
+    }
+
+    /**
+     * Start delivering loaded stats to the given callback, loading them now
+     * if there are none or they are older than {@link #MAX_AGE}.  Must be
+     * called on the main thread.
+     */
+    public void registerCallback(Callback callback) {
+        if (mCallbacks.size() == 0) {
+            mContext.registerReceiver(mBatteryReceiver,
+                    new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        }
+        mCallbacks.add(callback);
+        if (mStats == null || SystemClock.elapsedRealtime() - mLoadedTime >= MAX_AGE) {
+            refresh();
+        }
+    }
+
+    /**
+     * Stop delivering loaded stats to the given callback.  Must be called on
+     * the main thread.
+     */
+    public void unregisterCallback(Callback callback) {
+        if (mCallbacks.remove(callback) && mCallbacks.size() == 0) {
+            mContext.unregisterReceiver(mBatteryReceiver);
+            mBackgroundHandler.removeMessages(MSG_LOAD);
+        }
+    }
+
+    /**
+     * Load the stats again as soon as possible.
+     */
+    public void refresh() {
+        mBackgroundHandler.removeMessages(MSG_LOAD);
+        mBackgroundHandler.sendEmptyMessage(MSG_LOAD);
+    }
+
+    /**
+     * Returns the most recently loaded stats, or null if none were loaded
+     * yet.  Must be called on the main thread.
+     */
+    public BatteryStatsImpl getStats() {
+        return mStats;
+    }
+
+    /**
+     * Returns the history decoded from {@link #getStats()}.
+     */
+    public BatteryHistoryChart.HistoryBuffer getHistory() {
+        return mHistory;
+    }
+
+    public int getLoadCount() {
+        return mLoadCount;
+    }
+
+    /**
+     * Returns how long the last load took, in milliseconds.
+     */
+    public long getLastLoadDuration() {
+        return mLastLoadDuration;
+    }
+
+    /**
+     * Returns how long loads took on average, in milliseconds.
+     */
+    public long getAverageLoadDuration() {
+        return mLoadCount > 0 ? mTotalLoadDuration / mLoadCount : 0;
+    }
+
+    private LoadResult load() {
+        final long start = SystemClock.uptimeMillis();
+        if (mBatteryInfo == null) {
+            mBatteryInfo = IBatteryStats.Stub.asInterface(
+                    ServiceManager.getService("batteryinfo"));
+        }
+        final byte[] data;
+        try {
+            data = mBatteryInfo.getStatistics();
+        } catch (RemoteException e) {
+            Log.e(TAG, "RemoteException:", e);
+            return null;
+        }
+        final long fetched = SystemClock.uptimeMillis();
+        Parcel parcel = Parcel.obtain();
+        parcel.unmarshall(data, 0, data.length);
+        parcel.setDataPosition(0);
+        final LoadResult result = new LoadResult();
+        result.stats = com.android.internal.os.BatteryStatsImpl.CREATOR
+                .createFromParcel(parcel);
+        parcel.recycle();
+        result.stats.distributeWorkLocked(BatteryStats.STATS_SINCE_CHARGED);
+        final long parsed = SystemClock.uptimeMillis();
+        result.history = BatteryHistoryChart.HistoryBuffer.decode(result.stats);
+        final long end = SystemClock.uptimeMillis();
+        result.duration = end - start;
+        if (DEBUG) {
+            Log.d(TAG, "Loaded " + data.length + " bytes: fetch " + (fetched - start)
+                    + "ms, parse " + (parsed - fetched) + "ms, history "
+                    + (end - parsed) + "ms");
+        }
+        return result;
+    }
+
+    private void onLoaded(LoadResult result) {
+        mStats = result.stats;
+        mHistory = result.history;
+        mLoadedTime = SystemClock.elapsedRealtime();
+        mLoadCount++;
+        mLastLoadDuration = result.duration;
+        mTotalLoadDuration += result.duration;
+        // Callbacks may unregister themselves.
+        final Callback[] callbacks = mCallbacks.toArray(new Callback[mCallbacks.size()]);
+        for (int i=0; i<callbacks.length; i++) {
+            callbacks[i].onStatsLoaded(mStats, mHistory);
+        }
+    }
+}
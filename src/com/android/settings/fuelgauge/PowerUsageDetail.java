@@ -34,6 +34,7 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.BatteryStats;
 import android.os.Bundle;
 import android.os.Process;
 import android.preference.PreferenceActivity;
@@ -48,6 +49,7 @@ import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import com.android.internal.os.BatteryStatsImpl;
 import com.android.settings.DisplaySettings;
 import com.android.settings.LocationSettings;
 import com.android.settings.R;
@@ -56,6 +58,10 @@ import com.android.settings.applications.InstalledAppDetails;
 import com.android.settings.bluetooth.BluetoothSettings;
 import com.android.settings.wifi.WifiSettings;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+
 public class PowerUsageDetail extends Fragment implements Button.OnClickListener {
 
     enum DrainType {
@@ -101,6 +107,7 @@ public class PowerUsageDetail extends Fragment implements Button.OnClickListener
     public static final String EXTRA_USAGE_DURATION = "duration";
     public static final String EXTRA_REPORT_DETAILS = "report_details";
     public static final String EXTRA_REPORT_CHECKIN_DETAILS = "report_checkin_details";
+    public static final String EXTRA_STATS_TYPE = "statsType"; // Int
     public static final String EXTRA_DETAIL_TYPES = "types"; // Array of usage types (cpu, gps, etc)
     public static final String EXTRA_DETAIL_VALUES = "values"; // Array of doubles
     public static final String EXTRA_DRAIN_TYPE = "drainType"; // DrainType
@@ -486,6 +493,22 @@ public class PowerUsageDetail extends Fragment implements Button.OnClickListener
         batteryInfo.durationMicros = args.getLong(EXTRA_USAGE_DURATION, 0);
         batteryInfo.usageDetails = args.getString(EXTRA_REPORT_DETAILS);
         batteryInfo.checkinDetails = args.getString(EXTRA_REPORT_CHECKIN_DETAILS);
+        final BatteryStatsImpl stats = BatteryStatsRepository.getInstance(getActivity())
+                .getStats();
+        if (batteryInfo.usageDetails == null && stats != null) {
+            // Dump from the shared stats only when actually reporting.
+            final int statsType = args.getInt(EXTRA_STATS_TYPE,
+                    BatteryStats.STATS_SINCE_CHARGED);
+            Writer result = new StringWriter();
+            PrintWriter printWriter = new PrintWriter(result);
+            stats.dumpLocked(printWriter, "", statsType, mUid);
+            batteryInfo.usageDetails = result.toString();
+
+            result = new StringWriter();
+            printWriter = new PrintWriter(result);
+            stats.dumpCheckinLocked(printWriter, statsType, mUid);
+            batteryInfo.checkinDetails = result.toString();
+        }
         report.batteryInfo = batteryInfo;
 
         Intent result = new Intent(Intent.ACTION_APP_ERROR);
@@ -30,10 +30,7 @@ import android.os.BatteryStats.Uid;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
-import android.os.Parcel;
 import android.os.Process;
-import android.os.RemoteException;
-import android.os.ServiceManager;
 import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
@@ -50,7 +47,6 @@ import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 
-import com.android.internal.app.IBatteryStats;
 import com.android.internal.os.BatteryStatsImpl;
 import com.android.internal.os.PowerProfile;
 import com.android.settings.HelpUtils;
@@ -58,9 +54,6 @@ import com.android.settings.R;
 import com.android.settings.fuelgauge.PowerUsageDetail.DrainType;
 import com.android.settings.users.UserUtils;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -70,7 +63,8 @@ import java.util.Map;
  * Displays a list of apps and subsystems that consume power, ordered by how much power was
  * consumed since the last time it was unplugged.
  */
-public class PowerUsageSummary extends PreferenceFragment implements Runnable {
+public class PowerUsageSummary extends PreferenceFragment implements Runnable,
+        BatteryStatsRepository.Callback {
 
     private static final boolean DEBUG = false;
 
@@ -83,11 +77,10 @@ public class PowerUsageSummary extends PreferenceFragment implements Runnable {
     private static final int MENU_STATS_REFRESH = Menu.FIRST + 1;
     private static final int MENU_HELP = Menu.FIRST + 2;
 
-    private static BatteryStatsImpl sStatsXfer;
-
-    IBatteryStats mBatteryInfo;
+    BatteryStatsRepository mRepository;
     UserManager mUm;
     BatteryStatsImpl mStats;
+    BatteryHistoryChart.HistoryBuffer mHistory;
     private final List<BatterySipper> mUsageList = new ArrayList<BatterySipper>();
     private final List<BatterySipper> mWifiSippers = new ArrayList<BatterySipper>();
     private final List<BatterySipper> mBluetoothSippers = new ArrayList<BatterySipper>();
@@ -130,8 +123,7 @@ public class PowerUsageSummary extends PreferenceFragment implements Runnable {
                 String batterySummary = context.getResources().getString(
                         R.string.power_usage_level_and_status, batteryLevel, batteryStatus);
                 mBatteryStatusPref.setTitle(batterySummary);
-                mStats = null;
-                refreshStats();
+                // The repository reloads the stats once the battery settles.
             }
         }
     };
@@ -140,13 +132,8 @@ public class PowerUsageSummary extends PreferenceFragment implements Runnable {
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
 
-        if (icicle != null) {
-            mStats = sStatsXfer;
-        }
-
         addPreferencesFromResource(R.xml.power_usage_summary);
-        mBatteryInfo = IBatteryStats.Stub.asInterface(
-                ServiceManager.getService("batteryinfo"));
+        mRepository = BatteryStatsRepository.getInstance(getActivity());
         mUm = (UserManager)getActivity().getSystemService(Context.USER_SERVICE);
         mAppListGroup = (PreferenceGroup) findPreference(KEY_APP_LIST);
         mBatteryStatusPref = mAppListGroup.findPreference(KEY_BATTERY_STATUS);
@@ -160,6 +147,10 @@ public class PowerUsageSummary extends PreferenceFragment implements Runnable {
         mAbort = false;
         getActivity().registerReceiver(mBatteryInfoReceiver,
                 new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        // Show what was loaded last, if anything, while newer stats load.
+        mStats = mRepository.getStats();
+        mHistory = mRepository.getHistory();
+        mRepository.registerCallback(this);
         refreshStats();
     }
 
@@ -170,29 +161,32 @@ public class PowerUsageSummary extends PreferenceFragment implements Runnable {
         }
         mHandler.removeMessages(MSG_UPDATE_NAME_ICON);
         getActivity().unregisterReceiver(mBatteryInfoReceiver);
+        mRepository.unregisterCallback(this);
         super.onPause();
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (getActivity().isChangingConfigurations()) {
-            sStatsXfer = mStats;
-        } else {
+        if (!getActivity().isChangingConfigurations()) {
             BatterySipper.sUidCache.clear();
         }
     }
 
+    @Override
+    public void onStatsLoaded(BatteryStatsImpl stats,
+            BatteryHistoryChart.HistoryBuffer history) {
+        mStats = stats;
+        mHistory = history;
+        refreshStats();
+    }
+
     @Override
     public boolean onPreferenceTreeClick(PreferenceScreen preferenceScreen, Preference preference) {
         if (preference instanceof BatteryHistoryPreference) {
-            Parcel hist = Parcel.obtain();
-            mStats.writeToParcelWithoutUids(hist, 0);
-            byte[] histData = hist.marshall();
-            Bundle args = new Bundle();
-            args.putByteArray(BatteryHistoryDetail.EXTRA_STATS, histData);
+            // The detail shows the repository's current stats.
             PreferenceActivity pa = (PreferenceActivity)getActivity();
-            pa.startPreferencePanel(BatteryHistoryDetail.class.getName(), args,
+            pa.startPreferencePanel(BatteryHistoryDetail.class.getName(), null,
                     R.string.history_details_title, null, null, 0);
             return super.onPreferenceTreeClick(preferenceScreen, preference);
         }
@@ -208,6 +202,7 @@ public class PowerUsageSummary extends PreferenceFragment implements Runnable {
         args.putInt(PowerUsageDetail.EXTRA_GAUGE, (int)
                 Math.ceil(sipper.getSortValue() * 100 / mMaxPower));
         args.putLong(PowerUsageDetail.EXTRA_USAGE_DURATION, mStatsPeriod);
+        args.putInt(PowerUsageDetail.EXTRA_STATS_TYPE, mStatsType);
         args.putString(PowerUsageDetail.EXTRA_ICON_PACKAGE, sipper.defaultPackageName);
         args.putInt(PowerUsageDetail.EXTRA_ICON_ID, sipper.iconId);
         args.putDouble(PowerUsageDetail.EXTRA_NO_COVERAGE, sipper.noCoveragePercent);
@@ -222,7 +217,6 @@ public class PowerUsageSummary extends PreferenceFragment implements Runnable {
             case APP:
             case USER:
             {
-                Uid uid = sipper.uidObj;
                 types = new int[] {
                     R.string.usage_type_cpu,
                     R.string.usage_type_cpu_foreground,
@@ -245,19 +239,6 @@ public class PowerUsageSummary extends PreferenceFragment implements Runnable {
                     0,
                     0
                 };
-
-                if (sipper.drainType == DrainType.APP) {
-                    Writer result = new StringWriter();
-                    PrintWriter printWriter = new PrintWriter(result);
-                    mStats.dumpLocked(printWriter, "", mStatsType, uid.getUid());
-                    args.putString(PowerUsageDetail.EXTRA_REPORT_DETAILS, result.toString());
-
-                    result = new StringWriter();
-                    printWriter = new PrintWriter(result);
-                    mStats.dumpCheckinLocked(printWriter, mStatsType, uid.getUid());
-                    args.putString(PowerUsageDetail.EXTRA_REPORT_CHECKIN_DETAILS,
-                            result.toString());
-                }
             }
             break;
             case CELL:
@@ -361,8 +342,7 @@ public class PowerUsageSummary extends PreferenceFragment implements Runnable {
                 refreshStats();
                 return true;
             case MENU_STATS_REFRESH:
-                mStats = null;
-                refreshStats();
+                mRepository.refresh();
                 return true;
             default:
                 return false;
@@ -376,9 +356,6 @@ public class PowerUsageSummary extends PreferenceFragment implements Runnable {
     }
 
     private void refreshStats() {
-        if (mStats == null) {
-            load();
-        }
         mMaxPower = 0;
         mTotalPower = 0;
         mWifiPower = 0;
@@ -395,7 +372,12 @@ public class PowerUsageSummary extends PreferenceFragment implements Runnable {
 
         mBatteryStatusPref.setOrder(-2);
         mAppListGroup.addPreference(mBatteryStatusPref);
-        BatteryHistoryPreference hist = new BatteryHistoryPreference(getActivity(), mStats);
+        if (mStats == null) {
+            // Still loading; onStatsLoaded() will fill in the rest.
+            return;
+        }
+        BatteryHistoryPreference hist = new BatteryHistoryPreference(getActivity(), mStats,
+                mHistory);
         hist.setOrder(-1);
         mAppListGroup.addPreference(hist);
         
@@ -853,20 +835,6 @@ public class PowerUsageSummary extends PreferenceFragment implements Runnable {
         return bs;
     }
 
-    private void load() {
-        try {
-            byte[] data = mBatteryInfo.getStatistics();
-            Parcel parcel = Parcel.obtain();
-            parcel.unmarshall(data, 0, data.length);
-            parcel.setDataPosition(0);
-            mStats = com.android.internal.os.BatteryStatsImpl.CREATOR
-                    .createFromParcel(parcel);
-            mStats.distributeWorkLocked(BatteryStats.STATS_SINCE_CHARGED);
-        } catch (RemoteException e) {
-            Log.e(TAG, "RemoteException:", e);
-        }
-    }
-
     public void run() {
         while (true) {
             BatterySipper bs;
@@ -18,7 +18,6 @@ package com.android.settings.net;
 
 import static android.net.NetworkStats.SET_DEFAULT;
 import static android.net.NetworkStats.SET_FOREGROUND;
-import static android.net.NetworkStats.TAG_NONE;
 import static android.net.NetworkStatsHistory.FIELD_RX_BYTES;
 import static android.net.NetworkStatsHistory.FIELD_TX_BYTES;
 import static android.text.format.DateUtils.HOUR_IN_MILLIS;
@@ -42,6 +41,7 @@ public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
     private static final String KEY_FIELDS = "fields";
 
     private final INetworkStatsSession mSession;
+    private final NetworkStatsHistoryCache mCache = NetworkStatsHistoryCache.getInstance();
     private final Bundle mArgs;
 
     public static Bundle buildArgs(NetworkTemplate template, AppItem app) {
@@ -86,7 +86,7 @@ public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
     private ChartData loadInBackground(NetworkTemplate template, AppItem app, int fields)
             throws RemoteException {
         final ChartData data = new ChartData();
-        data.network = mSession.getHistoryForNetwork(template, fields);
+        data.network = mCache.getHistoryForNetwork(mSession, template, fields);
 
         if (app != null) {
             // load stats for current uid and template
@@ -132,14 +132,14 @@ public class ChartDataLoader extends AsyncTaskLoader<ChartData> {
     private NetworkStatsHistory collectHistoryForUid(
             NetworkTemplate template, int uid, int set, NetworkStatsHistory existing)
             throws RemoteException {
-        final NetworkStatsHistory history = mSession.getHistoryForUid(
-                template, uid, set, TAG_NONE, FIELD_RX_BYTES | FIELD_TX_BYTES);
-
-        if (existing != null) {
-            existing.recordEntireHistory(history);
-            return existing;
-        } else {
-            return history;
+        final NetworkStatsHistory history = mCache.getHistoryForUid(
+                mSession, template, uid, set, FIELD_RX_BYTES | FIELD_TX_BYTES);
+
+        if (existing == null) {
+            // The cached history is shared, so combine into a copy.
+            existing = new NetworkStatsHistory(history.getBucketDuration());
         }
+        existing.recordEntireHistory(history);
+        return existing;
     }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.net;
+
+import static android.net.NetworkStats.TAG_NONE;
+
+import android.net.INetworkStatsSession;
+import android.net.NetworkStatsHistory;
+import android.net.NetworkTemplate;
+import android.os.RemoteException;
+import android.os.SystemClock;
+
+import com.android.internal.util.Objects;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of {@link NetworkStatsHistory} fetched from
+ * {@link INetworkStatsSession}, keyed by template, UID, set and fields.
+ * Entries expire after {@link #MAX_AGE_MILLIS}, and all of them are dropped
+ * by {@link #invalidate()}, which callers should use after asking the stats
+ * service to persist new data.
+ *
+ * <p>Returned histories are shared and must not be modified.
+ */
+public class NetworkStatsHistoryCache {
+    private static final long MAX_AGE_MILLIS = 10 * 60 * 1000;
+    private static final int MAX_ENTRIES = 64;
+
+    // UID used in keys for network-wide history.
+    private static final int UID_NETWORK = Integer.MIN_VALUE;
+
+    private static final NetworkStatsHistoryCache sInstance = new NetworkStatsHistoryCache();
+
+    private static class Key {
+        final NetworkTemplate template;
+        final int uid;
+        final int set;
+        final int fields;
+
+        Key(NetworkTemplate template, int uid, int set, int fields) {
+            this.template = template;
+            this.uid = uid;
+            this.set = set;
+            this.fields = fields;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(template, uid, set, fields);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                final Key other = (Key) obj;
+                return uid == other.uid && set == other.set && fields == other.fields
+                        && Objects.equal(template, other.template);
+            }
+            return false;
+        }
+    }
+
+    private static class Entry {
+        final NetworkStatsHistory history;
+        final long fetchedAt;
+
+        Entry(NetworkStatsHistory history, long fetchedAt) {
+            this.history = history;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    private final LinkedHashMap<Key, Entry> mEntries = new LinkedHashMap<Key, Entry>(
+            MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public static NetworkStatsHistoryCache getInstance() {
+        return sInstance;
+    }
+
+    private NetworkStatsHistoryCache() {
+    }
+
+    public NetworkStatsHistory getHistoryForNetwork(INetworkStatsSession session,
+            NetworkTemplate template, int fields) throws RemoteException {
+        final Key key = new Key(template, UID_NETWORK, 0, fields);
+        NetworkStatsHistory history = get(key);
+        if (history == null) {
+            history = session.getHistoryForNetwork(template, fields);
+            put(key, history);
+        }
+        return history;
+    }
+
+    public NetworkStatsHistory getHistoryForUid(INetworkStatsSession session,
+            NetworkTemplate template, int uid, int set, int fields) throws RemoteException {
+        final Key key = new Key(template, uid, set, fields);
+        NetworkStatsHistory history = get(key);
+        if (history == null) {
+            history = session.getHistoryForUid(template, uid, set, TAG_NONE, fields);
+            put(key, history);
+        }
+        return history;
+    }
+
+    /**
+     * Drop all cached history, for example after the stats service was
+     * asked to poll.
+     */
+    public void invalidate() {
+        synchronized (mEntries) {
+            mEntries.clear();
+        }
+    }
+
+    private NetworkStatsHistory get(Key key) {
+        synchronized (mEntries) {
+            final Entry entry = mEntries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (SystemClock.elapsedRealtime() - entry.fetchedAt > MAX_AGE_MILLIS) {
+                mEntries.remove(key);
+                return null;
+            }
+            return entry.history;
+        }
+    }
+
+    private void put(Key key, NetworkStatsHistory history) {
+        synchronized (mEntries) {
+            mEntries.put(key, new Entry(history, SystemClock.elapsedRealtime()));
+        }
+    }
+}
@@ -24,6 +24,8 @@ import android.net.NetworkTemplate;
 import android.os.Bundle;
 import android.os.RemoteException;
 
+import com.android.internal.util.Objects;
+
 public class SummaryForAllUidLoader extends AsyncTaskLoader<NetworkStats> {
     private static final String KEY_TEMPLATE = "template";
     private static final String KEY_START = "start";
@@ -46,6 +48,14 @@ public class SummaryForAllUidLoader extends AsyncTaskLoader<NetworkStats> {
         mArgs = args;
     }
 
+    /**
+     * Test if this loader was created for the given template and range.
+     */
+    public boolean isFor(NetworkTemplate template, long start, long end) {
+        return Objects.equal(mArgs.getParcelable(KEY_TEMPLATE), template)
+                && mArgs.getLong(KEY_START) == start && mArgs.getLong(KEY_END) == end;
+    }
+
     @Override
     protected void onStartLoading() {
         super.onStartLoading();
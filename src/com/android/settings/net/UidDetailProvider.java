@@ -16,31 +16,73 @@
 
 package com.android.settings.net;
 
+import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.UserInfo;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 import android.net.ConnectivityManager;
 import android.net.TrafficStats;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
 import android.os.UserManager;
 import android.text.TextUtils;
 import android.util.SparseArray;
 
+import com.android.settings.AppIconCache;
 import com.android.settings.R;
 import com.android.settings.Utils;
 import com.android.settings.users.UserUtils;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Return details about a specific UID, handling special cases like
  * {@link TrafficStats#UID_TETHERING} and {@link UserInfo}.
+ *
+ * <p>Resolved details are shared by all providers in the process, and are
+ * invalidated when the packages of a UID change.  {@link #getUidDetailAsync}
+ * resolves UIDs on a background thread, coalescing concurrent requests for
+ * the same UID and resolving everything requested meanwhile in one pass.
  */
 public class UidDetailProvider {
+    /**
+     * Receives the result of {@link #getUidDetailAsync}, on the main thread.
+     */
+    public interface Callback {
+        public void onUidDetailLoaded(int uid, UidDetail detail);
+    }
+
+    // Number of queued UIDs above which a resolve pass loads all installed
+    // packages with one call, instead of querying each UID separately.
+    private static final int BULK_LOAD_THRESHOLD = 8;
+
+    private static final int MSG_RESOLVE = 1;
+
+    // All of the following are guarded by sUidDetailCache.
+    private static final SparseArray<UidDetail> sUidDetailCache = new SparseArray<UidDetail>();
+    private static final SparseArray<ArrayList<Callback>> sPendingCallbacks =
+            new SparseArray<ArrayList<Callback>>();
+    private static final ArrayList<Integer> sQueuedUids = new ArrayList<Integer>();
+    // Bumped whenever cached details are invalidated, so that details
+    // resolved from older package state are not cached afterwards.
+    private static int sGeneration;
+    private static Handler sBackgroundHandler;
+    private static Handler sMainHandler;
+
     private final Context mContext;
-    private final SparseArray<UidDetail> mUidDetailCache;
 
     public static int buildKeyForUser(int userHandle) {
         return -(2000 + userHandle);
@@ -48,23 +90,91 @@ public class UidDetailProvider {
 
     public UidDetailProvider(Context context) {
         mContext = context.getApplicationContext();
-        mUidDetailCache = new SparseArray<UidDetail>();
+        synchronized (sUidDetailCache) {
+            if (sBackgroundHandler == null) {
+                init(mContext);
+            }
+        }
     }
 
-    public void clearCache() {
-        synchronized (mUidDetailCache) {
-            mUidDetailCache.clear();
+    private static void init(final Context context) {
+        final HandlerThread thread = new HandlerThread("UidDetailProvider",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        sMainHandler = new Handler(Looper.getMainLooper());
+        sBackgroundHandler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_RESOLVE) {
+                    resolveQueued(context);
+                }
+            }
+        };
+
+        final BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                final int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
+                synchronized (sUidDetailCache) {
+                    if (uid != -1) {
+                        sUidDetailCache.remove(uid);
+                    } else {
+                        sUidDetailCache.clear();
+                    }
+                    sGeneration++;
+                }
+            }
+        };
+        final IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        context.registerReceiver(receiver, filter);
+        final IntentFilter sdFilter = new IntentFilter(
+                Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        sdFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+        context.registerReceiver(receiver, sdFilter);
+
+        context.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_MODERATE) {
+                    clearSharedCache();
+                }
+            }
+
+            @Override
+            public void onLowMemory() {
+                clearSharedCache();
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+        });
+    }
+
+    private static void clearSharedCache() {
+        synchronized (sUidDetailCache) {
+            sUidDetailCache.clear();
+            sGeneration++;
         }
     }
 
+    public void clearCache() {
+        clearSharedCache();
+    }
+
     /**
      * Resolve best descriptive label for the given UID.
      */
     public UidDetail getUidDetail(int uid, boolean blocking) {
         UidDetail detail;
+        final int generation;
 
-        synchronized (mUidDetailCache) {
-            detail = mUidDetailCache.get(uid);
+        synchronized (sUidDetailCache) {
+            detail = sUidDetailCache.get(uid);
+            generation = sGeneration;
         }
 
         if (detail != null) {
@@ -73,25 +183,135 @@ public class UidDetailProvider {
             return null;
         }
 
-        detail = buildUidDetail(uid);
+        detail = buildUidDetail(mContext, uid, null);
 
-        synchronized (mUidDetailCache) {
-            mUidDetailCache.put(uid, detail);
+        synchronized (sUidDetailCache) {
+            if (generation == sGeneration) {
+                sUidDetailCache.put(uid, detail);
+            }
         }
 
         return detail;
     }
 
+    /**
+     * Resolve the given UID in the background, delivering the result to
+     * the callback on the main thread.  If the UID is cached, the callback
+     * is invoked before this returns.  A callback that is already waiting
+     * for the same UID is only invoked once.
+     */
+    public void getUidDetailAsync(int uid, Callback callback) {
+        UidDetail detail;
+        synchronized (sUidDetailCache) {
+            detail = sUidDetailCache.get(uid);
+            if (detail == null) {
+                ArrayList<Callback> callbacks = sPendingCallbacks.get(uid);
+                if (callbacks == null) {
+                    // Nobody is resolving this UID yet.
+                    callbacks = new ArrayList<Callback>();
+                    sPendingCallbacks.put(uid, callbacks);
+                    sQueuedUids.add(uid);
+                    if (!sBackgroundHandler.hasMessages(MSG_RESOLVE)) {
+                        sBackgroundHandler.sendEmptyMessage(MSG_RESOLVE);
+                    }
+                }
+                if (!callbacks.contains(callback)) {
+                    callbacks.add(callback);
+                }
+                return;
+            }
+        }
+        callback.onUidDetailLoaded(uid, detail);
+    }
+
+    private static void resolveQueued(Context context) {
+        final int[] uids;
+        final int generation;
+        synchronized (sUidDetailCache) {
+            generation = sGeneration;
+            uids = new int[sQueuedUids.size()];
+            for (int i = 0; i < uids.length; i++) {
+                uids[i] = sQueuedUids.get(i);
+            }
+            sQueuedUids.clear();
+        }
+        if (uids.length == 0) {
+            return;
+        }
+
+        final SparseArray<ArrayList<PackageInfo>> packagesByUid =
+                uids.length >= BULK_LOAD_THRESHOLD ? loadPackagesByUid(context) : null;
+        final SparseArray<UidDetail> details = new SparseArray<UidDetail>(uids.length);
+        for (int uid : uids) {
+            details.put(uid, buildUidDetail(context, uid, packagesByUid));
+        }
+
+        synchronized (sUidDetailCache) {
+            // Still hand the details to the waiting callbacks, but don't keep
+            // them if packages changed while they were being resolved.
+            if (generation == sGeneration) {
+                for (int i = 0; i < details.size(); i++) {
+                    sUidDetailCache.put(details.keyAt(i), details.valueAt(i));
+                }
+            }
+        }
+
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < details.size(); i++) {
+                    final int uid = details.keyAt(i);
+                    final ArrayList<Callback> callbacks;
+                    synchronized (sUidDetailCache) {
+                        callbacks = sPendingCallbacks.get(uid);
+                        sPendingCallbacks.remove(uid);
+                    }
+                    if (callbacks != null) {
+                        for (int j = 0; j < callbacks.size(); j++) {
+                            callbacks.get(j).onUidDetailLoaded(uid, details.valueAt(i));
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Load the installed packages of every user, with one call per user,
+     * grouped by UID.
+     */
+    private static SparseArray<ArrayList<PackageInfo>> loadPackagesByUid(Context context) {
+        final PackageManager pm = context.getPackageManager();
+        final UserManager um = (UserManager) context.getSystemService(Context.USER_SERVICE);
+        final SparseArray<ArrayList<PackageInfo>> packagesByUid =
+                new SparseArray<ArrayList<PackageInfo>>();
+        for (UserInfo user : um.getUsers()) {
+            final List<PackageInfo> packages = pm.getInstalledPackages(0, user.id);
+            for (PackageInfo info : packages) {
+                if (info.applicationInfo == null) continue;
+                final int uid = info.applicationInfo.uid;
+                ArrayList<PackageInfo> forUid = packagesByUid.get(uid);
+                if (forUid == null) {
+                    forUid = new ArrayList<PackageInfo>(1);
+                    packagesByUid.put(uid, forUid);
+                }
+                forUid.add(info);
+            }
+        }
+        return packagesByUid;
+    }
+
     /**
      * Build {@link UidDetail} object, blocking until all {@link Drawable}
-     * lookup is finished.
+     * lookup is finished.  Packages are taken from the given bulk lookup if
+     * present, otherwise queried for this UID alone.
      */
-    private UidDetail buildUidDetail(int uid) {
-        final Resources res = mContext.getResources();
-        final PackageManager pm = mContext.getPackageManager();
+    private static UidDetail buildUidDetail(Context context, int uid,
+            SparseArray<ArrayList<PackageInfo>> packagesByUid) {
+        final Resources res = context.getResources();
+        final PackageManager pm = context.getPackageManager();
 
         final UidDetail detail = new UidDetail();
-        detail.label = pm.getNameForUid(uid);
         detail.icon = pm.getDefaultActivityIcon();
 
         // handle special case labels
@@ -107,7 +327,7 @@ public class UidDetailProvider {
                 detail.icon = pm.getDefaultActivityIcon();
                 return detail;
             case TrafficStats.UID_TETHERING:
-                final ConnectivityManager cm = (ConnectivityManager) mContext.getSystemService(
+                final ConnectivityManager cm = (ConnectivityManager) context.getSystemService(
                         Context.CONNECTIVITY_SERVICE);
                 detail.label = res.getString(Utils.getTetheringLabel(cm));
                 detail.icon = pm.getDefaultActivityIcon();
@@ -117,7 +337,7 @@ public class UidDetailProvider {
         // Handle keys that are actually user handles
         if (uid <= -2000) {
             final int userHandle = (-uid) - 2000;
-            final UserManager um = (UserManager) mContext.getSystemService(Context.USER_SERVICE);
+            final UserManager um = (UserManager) context.getSystemService(Context.USER_SERVICE);
             final UserInfo info = um.getUserInfo(userHandle);
             if (info != null) {
                 detail.label = res.getString(R.string.running_process_item_user_label, info.name);
@@ -127,31 +347,47 @@ public class UidDetailProvider {
         }
 
         // otherwise fall back to using packagemanager labels
-        final String[] packageNames = pm.getPackagesForUid(uid);
-        final int length = packageNames != null ? packageNames.length : 0;
         try {
+            final List<PackageInfo> packages;
+            if (packagesByUid != null) {
+                packages = packagesByUid.get(uid);
+            } else {
+                final String[] packageNames = pm.getPackagesForUid(uid);
+                if (packageNames != null) {
+                    packages = new ArrayList<PackageInfo>(packageNames.length);
+                    for (String packageName : packageNames) {
+                        packages.add(pm.getPackageInfo(packageName, 0));
+                    }
+                } else {
+                    packages = null;
+                }
+            }
+            final int length = packages != null ? packages.size() : 0;
             if (length == 1) {
-                final ApplicationInfo info = pm.getApplicationInfo(packageNames[0], 0);
+                final ApplicationInfo info = packages.get(0).applicationInfo;
                 detail.label = info.loadLabel(pm).toString();
-                detail.icon = info.loadIcon(pm);
+                detail.icon = AppIconCache.getInstance(context).loadIcon(pm, info);
             } else if (length > 1) {
                 detail.detailLabels = new CharSequence[length];
                 for (int i = 0; i < length; i++) {
-                    final String packageName = packageNames[i];
-                    final PackageInfo packageInfo = pm.getPackageInfo(packageName, 0);
-                    final ApplicationInfo appInfo = pm.getApplicationInfo(packageName, 0);
+                    final PackageInfo packageInfo = packages.get(i);
+                    final ApplicationInfo appInfo = packageInfo.applicationInfo;
 
                     detail.detailLabels[i] = appInfo.loadLabel(pm).toString();
                     if (packageInfo.sharedUserLabel != 0) {
-                        detail.label = pm.getText(packageName, packageInfo.sharedUserLabel,
-                                packageInfo.applicationInfo).toString();
-                        detail.icon = appInfo.loadIcon(pm);
+                        detail.label = pm.getText(packageInfo.packageName,
+                                packageInfo.sharedUserLabel, appInfo).toString();
+                        detail.icon = AppIconCache.getInstance(context).loadIcon(pm, appInfo);
                     }
                 }
             }
         } catch (NameNotFoundException e) {
         }
 
+        if (TextUtils.isEmpty(detail.label)) {
+            // Only ask for the name when no package gave a label.
+            detail.label = pm.getNameForUid(uid);
+        }
         if (TextUtils.isEmpty(detail.label)) {
             detail.label = Integer.toString(uid);
         }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.net;
+
+import static android.net.NetworkStats.IFACE_ALL;
+import static android.net.NetworkStats.SET_ALL;
+import static android.net.NetworkStats.TAG_NONE;
+
+import android.net.INetworkStatsSession;
+import android.net.NetworkStats;
+import android.net.NetworkTemplate;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.SparseIntArray;
+
+import com.android.internal.util.Objects;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Per-UID usage over a single cycle, split into fixed buckets and stored as
+ * prefix sums, so the usage of every UID over any bucket-aligned range can be
+ * answered without asking {@link INetworkStatsSession} again.
+ */
+public class UidSummaryIndex {
+    private final NetworkTemplate mTemplate;
+
+    /** Bucket boundaries; bucket {@code i} spans {@code [i, i+1)}. */
+    private final long[] mBoundaries;
+    private final int[] mUids;
+    /** Per UID, bytes before each boundary. */
+    private final long[][] mRxBytes;
+    private final long[][] mTxBytes;
+
+    private UidSummaryIndex(NetworkTemplate template, long[] boundaries, int[] uids,
+            long[][] rxBytes, long[][] txBytes) {
+        mTemplate = template;
+        mBoundaries = boundaries;
+        mUids = uids;
+        mRxBytes = rxBytes;
+        mTxBytes = txBytes;
+    }
+
+    /**
+     * Build index for {@code [start, end)} with one
+     * {@link INetworkStatsSession#getSummaryForAllUid} call per bucket.  The
+     * last bucket is shortened to end at {@code end}.  Buckets that start in
+     * the future are left empty without asking.
+     */
+    public static UidSummaryIndex build(INetworkStatsSession session, NetworkTemplate template,
+            long start, long end, long bucketDuration) throws RemoteException {
+        final int bucketCount = (int) Math.max(1, (end - start + bucketDuration - 1)
+                / bucketDuration);
+        final long[] boundaries = new long[bucketCount + 1];
+        for (int i = 0; i < bucketCount; i++) {
+            boundaries[i] = start + i * bucketDuration;
+        }
+        boundaries[bucketCount] = end;
+
+        // collect per-bucket totals, assigning each new uid a row
+        final SparseIntArray rows = new SparseIntArray();
+        final ArrayList<long[]> rx = new ArrayList<long[]>();
+        final ArrayList<long[]> tx = new ArrayList<long[]>();
+        NetworkStats.Entry entry = null;
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < bucketCount && boundaries[i] <= now; i++) {
+            final NetworkStats stats = session.getSummaryForAllUid(
+                    template, boundaries[i], boundaries[i + 1], false);
+            final int size = stats != null ? stats.size() : 0;
+            for (int j = 0; j < size; j++) {
+                entry = stats.getValues(j, entry);
+                int row = rows.get(entry.uid, -1);
+                if (row < 0) {
+                    row = rx.size();
+                    rows.put(entry.uid, row);
+                    rx.add(new long[bucketCount + 1]);
+                    tx.add(new long[bucketCount + 1]);
+                }
+                rx.get(row)[i + 1] += entry.rxBytes;
+                tx.get(row)[i + 1] += entry.txBytes;
+            }
+        }
+
+        final int uidCount = rows.size();
+        final int[] uids = new int[uidCount];
+        final long[][] rxBytes = new long[uidCount][];
+        final long[][] txBytes = new long[uidCount][];
+        for (int i = 0; i < uidCount; i++) {
+            final int row = rows.valueAt(i);
+            uids[i] = rows.keyAt(i);
+            rxBytes[i] = rx.get(row);
+            txBytes[i] = tx.get(row);
+            for (int j = 1; j <= bucketCount; j++) {
+                rxBytes[i][j] += rxBytes[i][j - 1];
+                txBytes[i][j] += txBytes[i][j - 1];
+            }
+        }
+        return new UidSummaryIndex(template, boundaries, uids, rxBytes, txBytes);
+    }
+
+    public long getStart() {
+        return mBoundaries[0];
+    }
+
+    public long getEnd() {
+        return mBoundaries[mBoundaries.length - 1];
+    }
+
+    /**
+     * Test if this index was built for the given template and spans the
+     * given range.
+     */
+    public boolean covers(NetworkTemplate template, long start, long end) {
+        return Objects.equal(mTemplate, template) && start >= getStart() && end <= getEnd()
+                && start <= end;
+    }
+
+    /**
+     * Test if both ends of the given range fall on bucket boundaries, in
+     * which case {@link #getSummary(long, long)} is exact.
+     */
+    public boolean isAligned(long start, long end) {
+        return findBoundary(start) >= 0 && findBoundary(end) >= 0;
+    }
+
+    /**
+     * Return per-UID usage between the bucket boundaries nearest to
+     * {@code start} and {@code end}, in the same form as
+     * {@link INetworkStatsSession#getSummaryForAllUid}.
+     */
+    public NetworkStats getSummary(long start, long end) {
+        final int first = nearestBoundary(start);
+        final int last = Math.max(first, nearestBoundary(end));
+
+        final NetworkStats stats = new NetworkStats(SystemClock.elapsedRealtime(), mUids.length);
+        for (int i = 0; i < mUids.length; i++) {
+            final long rxBytes = mRxBytes[i][last] - mRxBytes[i][first];
+            final long txBytes = mTxBytes[i][last] - mTxBytes[i][first];
+            if (rxBytes != 0 || txBytes != 0) {
+                stats.addValues(IFACE_ALL, mUids[i], SET_ALL, TAG_NONE, rxBytes, 0, txBytes, 0, 0);
+            }
+        }
+        return stats;
+    }
+
+    private int findBoundary(long time) {
+        final int index = Arrays.binarySearch(mBoundaries, time);
+        return index >= 0 ? index : -1;
+    }
+
+    private int nearestBoundary(long time) {
+        int index = Arrays.binarySearch(mBoundaries, time);
+        if (index >= 0) {
+            return index;
+        }
+        index = -index - 1;
+        if (index == 0) {
+            return 0;
+        } else if (index == mBoundaries.length) {
+            return mBoundaries.length - 1;
+        }
+        return (time - mBoundaries[index - 1] <= mBoundaries[index] - time) ? index - 1 : index;
+    }
+}
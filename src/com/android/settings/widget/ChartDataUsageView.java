@@ -70,6 +70,7 @@ public class ChartDataUsageView extends ChartView {
 
     public interface DataUsageChartListener {
         public void onInspectRangeChanged();
+        public void onInspectRangeChanging();
         public void onWarningChanged();
         public void onLimitChanged();
         public void requestWarningEdit();
@@ -300,9 +301,12 @@ public class ChartDataUsageView extends ChartView {
         public void onSweep(ChartSweepView sweep, boolean sweepDone) {
             updatePrimaryRange();
 
-            // update detail list only when done sweeping
-            if (sweepDone && mListener != null) {
-                mListener.onInspectRangeChanged();
+            if (mListener != null) {
+                if (sweepDone) {
+                    mListener.onInspectRangeChanged();
+                } else {
+                    mListener.onInspectRangeChanging();
+                }
             }
         }
 
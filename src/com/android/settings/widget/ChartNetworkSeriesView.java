@@ -36,9 +36,16 @@ import android.view.View;
 import com.android.internal.util.Preconditions;
 import com.android.settings.R;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 /**
  * {@link NetworkStatsHistory} series to render inside a {@link ChartView},
  * using {@link ChartAxis} to map into screen coordinates.
+ * <p>
+ * Buckets are first reduced to at most two points per horizontal pixel, which
+ * is cached per horizontal range, so that rebuilding the path when only the
+ * vertical axis changes doesn't walk the whole history again.
  */
 public class ChartNetworkSeriesView extends View {
     private static final String TAG = "ChartNetworkSeriesView";
@@ -46,6 +53,9 @@ public class ChartNetworkSeriesView extends View {
 
     private static final boolean ESTIMATE_ENABLED = false;
 
+    /** Number of horizontal ranges to keep reduced series for. */
+    private static final int MAX_REDUCED_SERIES = 4;
+
     private ChartAxis mHoriz;
     private ChartAxis mVert;
 
@@ -75,6 +85,78 @@ public class ChartNetworkSeriesView extends View {
     private long mMax;
     private long mMaxEstimate;
 
+    /** Recently reduced series, most recent first. */
+    private final ReducedSeries[] mReduced = new ReducedSeries[MAX_REDUCED_SERIES];
+
+    /**
+     * Cumulative series reduced for one horizontal range: screen X of each
+     * point, with its raw total. Within each pixel only the first and last
+     * points are kept, which, since totals only grow, are its min and max.
+     */
+    static class ReducedSeries {
+        final long horizStart;
+        final long horizEnd;
+        final int width;
+        final long start;
+        final long end;
+        final long endTime;
+
+        float[] x = new float[64];
+        long[] total = new long[64];
+        int size;
+
+        /** Index of the first point that falls in the last pixel. */
+        private int mColumnStart;
+        private int mColumn = Integer.MIN_VALUE;
+
+        float[] estimateX;
+        long[] estimateTotal;
+        int estimateSize;
+        long maxEstimate;
+
+        ReducedSeries(long horizStart, long horizEnd, int width, long start, long end,
+                long endTime) {
+            this.horizStart = horizStart;
+            this.horizEnd = horizEnd;
+            this.width = width;
+            this.start = start;
+            this.end = end;
+            this.endTime = endTime;
+        }
+
+        boolean matches(long horizStart, long horizEnd, int width, long start, long end,
+                long endTime) {
+            return this.horizStart == horizStart && this.horizEnd == horizEnd
+                    && this.width == width && this.start == start && this.end == end
+                    && this.endTime == endTime;
+        }
+
+        void add(float pointX, long pointTotal) {
+            final int column = (int) Math.floor(pointX);
+            if (column == mColumn && size - mColumnStart >= 2) {
+                // replace the previous last point of this pixel
+                x[size - 1] = pointX;
+                total[size - 1] = pointTotal;
+                return;
+            }
+            if (column != mColumn) {
+                mColumn = column;
+                mColumnStart = size;
+            }
+            if (size == x.length) {
+                x = Arrays.copyOf(x, size * 2);
+                total = Arrays.copyOf(total, size * 2);
+            }
+            x[size] = pointX;
+            total[size] = pointTotal;
+            size++;
+        }
+
+        long getTotal() {
+            return size > 0 ? total[size - 1] : 0;
+        }
+    }
+
     public ChartNetworkSeriesView(Context context) {
         this(context, null, 0);
     }
@@ -136,6 +218,7 @@ public class ChartNetworkSeriesView extends View {
 
     public void bindNetworkStats(NetworkStatsHistory stats) {
         mStats = stats;
+        Arrays.fill(mReduced, null);
         invalidatePath();
         invalidate();
     }
@@ -179,18 +262,81 @@ public class ChartNetworkSeriesView extends View {
             return;
         }
 
-        final int width = getWidth();
         final int height = getHeight();
+        final ReducedSeries series = getReducedSeries();
 
-        boolean started = false;
         float lastX = 0;
         float lastY = height;
-        long lastTime = mHoriz.convertToValue(lastX);
 
         // move into starting position
         mPathStroke.moveTo(lastX, lastY);
         mPathFill.moveTo(lastX, lastY);
 
+        for (int i = 0; i < series.size; i++) {
+            lastX = series.x[i];
+            lastY = mVert.convertToPoint(series.total[i]);
+            mPathStroke.lineTo(lastX, lastY);
+            mPathFill.lineTo(lastX, lastY);
+        }
+
+        if (LOGD) {
+            final RectF bounds = new RectF();
+            mPathFill.computeBounds(bounds, true);
+            Log.d(TAG, "onLayout() rendered with bounds=" + bounds.toString() + " and totalData="
+                    + series.getTotal() + " from " + series.size + " points");
+        }
+
+        // drop to bottom of graph from current location
+        mPathFill.lineTo(lastX, height);
+        mPathFill.lineTo(0, height);
+
+        mMax = series.getTotal();
+
+        if (ESTIMATE_ENABLED) {
+            mPathEstimate.moveTo(lastX, lastY);
+            for (int i = 0; i < series.estimateSize; i++) {
+                mPathEstimate.lineTo(series.estimateX[i],
+                        mVert.convertToPoint(series.estimateTotal[i]));
+            }
+            mMaxEstimate = series.maxEstimate;
+        }
+
+        invalidate();
+    }
+
+    /**
+     * Return the bound {@link NetworkStatsHistory} reduced for the current
+     * horizontal range, reducing it if not already cached.
+     */
+    ReducedSeries getReducedSeries() {
+        final int width = getWidth();
+        final long horizStart = mHoriz.convertToValue(0);
+        final long horizEnd = mHoriz.convertToValue(width);
+
+        for (int i = 0; i < mReduced.length; i++) {
+            final ReducedSeries series = mReduced[i];
+            if (series != null
+                    && series.matches(horizStart, horizEnd, width, mStart, mEnd, mEndTime)) {
+                // move to front
+                System.arraycopy(mReduced, 0, mReduced, 1, i);
+                mReduced[0] = series;
+                return series;
+            }
+        }
+
+        final ReducedSeries series = reduceSeries(
+                new ReducedSeries(horizStart, horizEnd, width, mStart, mEnd, mEndTime));
+        System.arraycopy(mReduced, 0, mReduced, 1, mReduced.length - 1);
+        mReduced[0] = series;
+        return series;
+    }
+
+    private ReducedSeries reduceSeries(ReducedSeries series) {
+        final int width = series.width;
+
+        float lastX = 0;
+        long lastTime = mHoriz.convertToValue(lastX);
+
         // TODO: count fractional data from first bucket crossing start;
         // currently it only accepts first full bucket.
 
@@ -212,51 +358,36 @@ public class ChartNetworkSeriesView extends View {
             // skip until we find first stats on screen
             if (endX < 0) continue;
 
+            final long startData = totalData;
+
             // increment by current bucket total
             totalData += entry.rxBytes + entry.txBytes;
 
-            final float startY = lastY;
-            final float endY = mVert.convertToPoint(totalData);
-
             if (lastTime != startTime) {
                 // gap in buckets; line to start of current bucket
-                mPathStroke.lineTo(startX, startY);
-                mPathFill.lineTo(startX, startY);
+                series.add(startX, startData);
             }
 
             // always draw to end of current bucket
-            mPathStroke.lineTo(endX, endY);
-            mPathFill.lineTo(endX, endY);
+            series.add(endX, totalData);
 
             lastX = endX;
-            lastY = endY;
             lastTime = endTime;
         }
 
         // when data falls short, extend to requested end time
         if (lastTime < mEndTime) {
             lastX = mHoriz.convertToPoint(mEndTime);
-
-            mPathStroke.lineTo(lastX, lastY);
-            mPathFill.lineTo(lastX, lastY);
-        }
-
-        if (LOGD) {
-            final RectF bounds = new RectF();
-            mPathFill.computeBounds(bounds, true);
-            Log.d(TAG, "onLayout() rendered with bounds=" + bounds.toString() + " and totalData="
-                    + totalData);
+            series.add(lastX, totalData);
         }
 
-        // drop to bottom of graph from current location
-        mPathFill.lineTo(lastX, height);
-        mPathFill.lineTo(0, height);
-
-        mMax = totalData;
+        if (LOGD) Log.d(TAG, "reduced " + (end - start + 1) + " buckets to " + series.size
+                + " points");
 
         if (ESTIMATE_ENABLED) {
             // build estimated data
-            mPathEstimate.moveTo(lastX, lastY);
+            final ArrayList<Float> estimateX = new ArrayList<Float>();
+            final ArrayList<Long> estimateTotal = new ArrayList<Long>();
 
             final long now = System.currentTimeMillis();
             final long bucketDuration = mStats.getBucketDuration();
@@ -279,15 +410,21 @@ public class ChartNetworkSeriesView extends View {
                 totalData += (longWindow * 7 + shortWindow * 3) / 10;
 
                 lastX = mHoriz.convertToPoint(lastTime + futureTime);
-                lastY = mVert.convertToPoint(totalData);
-
-                mPathEstimate.lineTo(lastX, lastY);
+                estimateX.add(lastX);
+                estimateTotal.add(totalData);
             }
 
-            mMaxEstimate = totalData;
+            series.estimateSize = estimateX.size();
+            series.estimateX = new float[series.estimateSize];
+            series.estimateTotal = new long[series.estimateSize];
+            for (int i = 0; i < series.estimateSize; i++) {
+                series.estimateX[i] = estimateX.get(i);
+                series.estimateTotal[i] = estimateTotal.get(i);
+            }
+            series.maxEstimate = totalData;
         }
 
-        invalidate();
+        return series;
     }
 
     public void setEndTime(long endTime) {
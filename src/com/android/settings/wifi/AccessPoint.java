@@ -86,7 +86,7 @@ class AccessPoint extends Preference {
         return (config.wepKeys[0] != null) ? SECURITY_WEP : SECURITY_NONE;
     }
 
-    private static int getSecurity(ScanResult result) {
+    static int getSecurity(ScanResult result) {
         if (result.capabilities.contains("WEP")) {
             return SECURITY_WEP;
         } else if (result.capabilities.contains("PSK")) {
@@ -212,6 +212,40 @@ class AccessPoint extends Preference {
         mScanResult = result;
     }
 
+    /**
+     * Reload this access point from a newer copy of its configuration, as if
+     * it had just been created from it.  Connection state is left for the
+     * caller to refresh through {@link #update(WifiInfo, DetailedState)}.
+     */
+    void reset(WifiConfiguration config) {
+        final int oldLevel = getLevel();
+        mScanResult = null;
+        wpsAvailable = false;
+        pskType = PskType.UNKNOWN;
+        loadConfig(config);
+        if (getLevel() != oldLevel) {
+            notifyChanged();
+        }
+        refresh();
+    }
+
+    /**
+     * Reload this access point from a newer scan result, as if it had just
+     * been created from it.
+     */
+    void reset(ScanResult result) {
+        final int oldLevel = getLevel();
+        mConfig = null;
+        mInfo = null;
+        mState = null;
+        pskType = PskType.UNKNOWN;
+        loadResult(result);
+        if (getLevel() != oldLevel) {
+            notifyChanged();
+        }
+        refresh();
+    }
+
     @Override
     protected void onBindView(View view) {
         super.onBindView(view);
@@ -252,7 +286,12 @@ class AccessPoint extends Preference {
             return difference;
         }
         // Sort by ssid.
-        return ssid.compareToIgnoreCase(other.ssid);
+        difference = ssid.compareToIgnoreCase(other.ssid);
+        if (difference != 0) {
+            return difference;
+        }
+        // Networks of the same name but different security are different.
+        return security - other.security;
     }
 
     @Override
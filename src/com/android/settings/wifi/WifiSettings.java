@@ -77,9 +77,9 @@ import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.wifi.p2p.WifiP2pSettings;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -94,6 +94,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class WifiSettings extends SettingsPreferenceFragment
         implements DialogInterface.OnClickListener  {
     private static final String TAG = "WifiSettings";
+    private static final boolean DEBUG_RECONCILE = Log.isLoggable(TAG, Log.DEBUG);
     private static final int MENU_ID_WPS_PBC = Menu.FIRST;
     private static final int MENU_ID_WPS_PIN = Menu.FIRST + 1;
     private static final int MENU_ID_P2P = Menu.FIRST + 2;
@@ -143,6 +144,12 @@ public class WifiSettings extends SettingsPreferenceFragment
     private DetailedState mLastState;
     private WifiInfo mLastInfo;
 
+    /** Access points from the last scan, keyed by SSID and security. */
+    private HashMap<String, AccessPoint> mAccessPointsByKey = new HashMap<String, AccessPoint>();
+    private int mReconcileCreated;
+    private int mReconcileRemoved;
+    private int mReconcileMoved;
+
     private AtomicBoolean mConnected = new AtomicBoolean(false);
 
     private WifiDialog mDialog;
@@ -726,14 +733,19 @@ public class WifiSettings extends SettingsPreferenceFragment
 
         switch (wifiState) {
             case WifiManager.WIFI_STATE_ENABLED:
-                // AccessPoints are automatically sorted with TreeSet.
-                final Collection<AccessPoint> accessPoints = constructAccessPoints();
-                getPreferenceScreen().removeAll();
-                if(accessPoints.size() == 0) {
+                final long start = DEBUG_RECONCILE ? System.nanoTime() : 0;
+                mReconcileCreated = 0;
+                final List<AccessPoint> accessPoints = constructAccessPoints();
+                if (accessPoints.size() == 0) {
                     addMessagePreference(R.string.wifi_empty_list_wifi_on);
+                } else {
+                    reconcileAccessPoints(accessPoints);
                 }
-                for (AccessPoint accessPoint : accessPoints) {
-                    getPreferenceScreen().addPreference(accessPoint);
+                if (DEBUG_RECONCILE) {
+                    Log.d(TAG, "Reconciled " + accessPoints.size() + " access points in "
+                            + (System.nanoTime() - start) / 1000 + "us: created="
+                            + mReconcileCreated + " removed=" + mReconcileRemoved
+                            + " moved=" + mReconcileMoved);
                 }
                 break;
 
@@ -776,17 +788,35 @@ public class WifiSettings extends SettingsPreferenceFragment
         getPreferenceScreen().removeAll();
     }
 
-    /** Returns sorted list of access points */
+    /**
+     * Returns sorted list of access points.  Access points from the previous
+     * call are reused, keyed by SSID and security, and updated in place.
+     */
     private List<AccessPoint> constructAccessPoints() {
         ArrayList<AccessPoint> accessPoints = new ArrayList<AccessPoint>();
         /** Lookup table to more quickly update AccessPoints by only considering objects with the
          * correct SSID.  Maps SSID -> List of AccessPoints with the given SSID.  */
         Multimap<String, AccessPoint> apMap = new Multimap<String, AccessPoint>();
 
+        final HashMap<String, AccessPoint> previous = mAccessPointsByKey;
+        mAccessPointsByKey = new HashMap<String, AccessPoint>(previous.size());
+
         final List<WifiConfiguration> configs = mWifiManager.getConfiguredNetworks();
         if (configs != null) {
             for (WifiConfiguration config : configs) {
-                AccessPoint accessPoint = new AccessPoint(getActivity(), config);
+                final String key = getAccessPointKey(
+                        config.SSID == null ? "" : AccessPoint.removeDoubleQuotes(config.SSID),
+                        AccessPoint.getSecurity(config));
+                AccessPoint accessPoint = previous.remove(key);
+                if (accessPoint != null) {
+                    accessPoint.reset(config);
+                } else {
+                    accessPoint = new AccessPoint(getActivity(), config);
+                    mReconcileCreated++;
+                }
+                if (!mAccessPointsByKey.containsKey(key)) {
+                    mAccessPointsByKey.put(key, accessPoint);
+                }
                 accessPoint.update(mLastInfo, mLastState);
                 accessPoints.add(accessPoint);
                 apMap.put(accessPoint.ssid, accessPoint);
@@ -812,7 +842,16 @@ public class WifiSettings extends SettingsPreferenceFragment
                         found = true;
                 }
                 if (!found) {
-                    AccessPoint accessPoint = new AccessPoint(getActivity(), result);
+                    final String key = getAccessPointKey(result.SSID,
+                            AccessPoint.getSecurity(result));
+                    AccessPoint accessPoint = previous.remove(key);
+                    if (accessPoint != null) {
+                        accessPoint.reset(result);
+                    } else {
+                        accessPoint = new AccessPoint(getActivity(), result);
+                        mReconcileCreated++;
+                    }
+                    mAccessPointsByKey.put(key, accessPoint);
                     accessPoints.add(accessPoint);
                     apMap.put(accessPoint.ssid, accessPoint);
                 }
@@ -824,6 +863,114 @@ public class WifiSettings extends SettingsPreferenceFragment
         return accessPoints;
     }
 
+    private static String getAccessPointKey(String ssid, int security) {
+        return security + "/" + ssid;
+    }
+
+    /**
+     * Bring the preference screen in line with the given sorted access points,
+     * removing stale entries and moving only those whose position changed.
+     * Access points that kept their relative order are left in place.
+     */
+    private void reconcileAccessPoints(List<AccessPoint> accessPoints) {
+        final PreferenceScreen screen = getPreferenceScreen();
+        mReconcileRemoved = 0;
+        mReconcileMoved = 0;
+
+        // The screen finds preferences to remove, and ones it already has,
+        // with equals(), which for access points only compares how they
+        // sort.  Unless every access point involved is only equal to
+        // itself, that could pick the wrong one, so start over instead.
+        if (hasDistinctEqualAccessPoints(screen, accessPoints)) {
+            mReconcileRemoved = screen.getPreferenceCount();
+            screen.removeAll();
+            for (int i = 0; i < accessPoints.size(); i++) {
+                screen.addPreference(accessPoints.get(i));
+            }
+            return;
+        }
+
+        final IdentityHashMap<AccessPoint, Integer> ranks =
+                new IdentityHashMap<AccessPoint, Integer>(accessPoints.size());
+        for (int i = 0; i < accessPoints.size(); i++) {
+            ranks.put(accessPoints.get(i), i);
+        }
+
+        // Drop anything no longer listed, and note where the rest sit.
+        final ArrayList<AccessPoint> shown = new ArrayList<AccessPoint>(
+                screen.getPreferenceCount());
+        for (int i = screen.getPreferenceCount() - 1; i >= 0; --i) {
+            final Preference preference = screen.getPreference(i);
+            if (preference instanceof AccessPoint && ranks.containsKey(preference)) {
+                shown.add((AccessPoint) preference);
+            } else {
+                screen.removePreference(preference);
+                mReconcileRemoved++;
+            }
+        }
+        Collections.reverse(shown);
+
+        // Keep the longest run of shown access points that is already in
+        // order, and take the others out to be inserted again.
+        final int count = shown.size();
+        final int[] tails = new int[count];
+        final int[] previous = new int[count];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            final int rank = ranks.get(shown.get(i));
+            int lo = 0, hi = length;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (ranks.get(shown.get(tails[mid])) < rank) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == length) {
+                length++;
+            }
+        }
+        final boolean[] inOrder = new boolean[count];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            inOrder[i] = true;
+        }
+        for (int i = 0; i < count; i++) {
+            if (!inOrder[i]) {
+                screen.removePreference(shown.get(i));
+                mReconcileMoved++;
+            }
+        }
+
+        // Insertion is a binary search over the now sorted screen.
+        for (int i = 0; i < accessPoints.size(); i++) {
+            screen.addPreference(accessPoints.get(i));
+        }
+    }
+
+    private static boolean hasDistinctEqualAccessPoints(PreferenceScreen screen,
+            List<AccessPoint> accessPoints) {
+        final ArrayList<AccessPoint> all = new ArrayList<AccessPoint>(accessPoints);
+        for (int i = 0; i < screen.getPreferenceCount(); i++) {
+            final Preference preference = screen.getPreference(i);
+            if (preference instanceof AccessPoint) {
+                all.add((AccessPoint) preference);
+            }
+        }
+        // Equal access points end up next to each other.
+        Collections.sort(all);
+        for (int i = 1; i < all.size(); i++) {
+            final AccessPoint previous = all.get(i - 1);
+            final AccessPoint current = all.get(i);
+            if (previous != current && previous.equals(current)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /** A restricted multimap for use in constructAccessPoints */
     private class Multimap<K,V> {
         private HashMap<K,List<V>> store = new HashMap<K,List<V>>();
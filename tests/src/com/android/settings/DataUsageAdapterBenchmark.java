@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import static android.net.NetworkStats.SET_DEFAULT;
+import static android.net.NetworkStats.SET_FOREGROUND;
+import static android.net.NetworkStats.TAG_NONE;
+
+import android.net.NetworkStats;
+import android.os.Process;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.android.settings.DataUsageSummary.AppItem;
+import com.android.settings.DataUsageSummary.DataUsageAdapter;
+import com.android.settings.net.UidDetailProvider;
+
+/**
+ * Times {@link DataUsageAdapter#bindStats} against a large synthetic summary,
+ * and checks that it still aggregates and sorts correctly.
+ */
+public class DataUsageAdapterBenchmark extends AndroidTestCase {
+    private static final String TAG = "DataUsageAdapterBenchmark";
+
+    private static final int UID_COUNT = 2500;
+    private static final int ITERATIONS = 50;
+
+    private NetworkStats buildStats() {
+        // two sets and two tags per uid, for 10k rows
+        final NetworkStats stats = new NetworkStats(SystemClock.elapsedRealtime(), UID_COUNT * 4);
+        for (int i = 0; i < UID_COUNT; i++) {
+            final int uid = Process.FIRST_APPLICATION_UID + i;
+            stats.addValues("wlan0", uid, SET_DEFAULT, TAG_NONE, i, 1, i, 1, 0);
+            stats.addValues("wlan0", uid, SET_DEFAULT, 0x1, 1, 1, 1, 1, 0);
+            stats.addValues("wlan0", uid, SET_FOREGROUND, TAG_NONE, i, 1, i, 1, 0);
+            stats.addValues("wlan0", uid, SET_FOREGROUND, 0x1, 1, 1, 1, 1, 0);
+        }
+        return stats;
+    }
+
+    public void testBindStats() {
+        final DataUsageAdapter adapter = new DataUsageAdapter(
+                new UidDetailProvider(getContext()), 0);
+        final NetworkStats stats = buildStats();
+        final int[] restricted = new int[0];
+
+        // warm up
+        adapter.bindStats(stats, restricted);
+
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            adapter.bindStats(stats, restricted);
+        }
+        final long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        Log.i(TAG, "bindStats() of " + stats.size() + " rows: "
+                + (elapsed / ITERATIONS / 1000) + "us");
+
+        assertEquals(UID_COUNT, adapter.getCount());
+        final AppItem first = (AppItem) adapter.getItem(0);
+        assertEquals(Process.FIRST_APPLICATION_UID + UID_COUNT - 1, first.key);
+        assertEquals((UID_COUNT - 1) * 4 + 4, first.total);
+        assertEquals(1, first.uids.size());
+        long previous = Long.MAX_VALUE;
+        for (int i = 0; i < adapter.getCount(); i++) {
+            final long total = ((AppItem) adapter.getItem(i)).total;
+            assertTrue(total <= previous);
+            previous = total;
+        }
+    }
+}
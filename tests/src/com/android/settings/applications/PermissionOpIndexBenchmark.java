@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.AppOpsManager;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Times matching requested permissions against each template through
+ * {@link PermissionOpIndex}, compared with the linear scan it replaced, over
+ * synthetic sets of installed apps; and checks both agree.
+ */
+public class PermissionOpIndexBenchmark extends AndroidTestCase {
+    private static final String TAG = "PermissionOpIndexBenchmark";
+
+    private static final int[] APP_COUNTS = new int[] { 100, 500, 2000 };
+    private static final int PERMS_PER_APP = 12;
+    private static final int ITERATIONS = 20;
+
+    private String[][] buildRequestedPermissions(int appCount) {
+        final ArrayList<String> all = new ArrayList<String>();
+        for (int op=0; op<AppOpsManager._NUM_OP; op++) {
+            String perm = AppOpsManager.opToPermission(op);
+            if (perm != null && !all.contains(perm)) {
+                all.add(perm);
+            }
+        }
+        // Pad with permissions no template cares about.
+        for (int i=0; i<all.size(); i++) {
+            all.add("com.example.permission.UNRELATED_" + i);
+        }
+
+        final String[][] requested = new String[appCount][PERMS_PER_APP];
+        for (int i=0; i<appCount; i++) {
+            for (int j=0; j<PERMS_PER_APP; j++) {
+                requested[i][j] = all.get((i * 7 + j * 13) % all.size());
+            }
+        }
+        return requested;
+    }
+
+    private static int linearMatch(AppOpsState.OpsTemplate tpl, String[][] requested) {
+        final ArrayList<String> perms = new ArrayList<String>();
+        final ArrayList<Integer> permOps = new ArrayList<Integer>();
+        for (int i=0; i<tpl.ops.length; i++) {
+            if (tpl.showPerms[i]) {
+                String perm = AppOpsManager.opToPermission(tpl.ops[i]);
+                if (perm != null && !perms.contains(perm)) {
+                    perms.add(perm);
+                    permOps.add(tpl.ops[i]);
+                }
+            }
+        }
+        int hash = 0;
+        for (int i=0; i<requested.length; i++) {
+            for (int j=0; j<requested[i].length; j++) {
+                for (int k=0; k<perms.size(); k++) {
+                    if (perms.get(k).equals(requested[i][j])) {
+                        hash = hash * 31 + permOps.get(k);
+                    }
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static int indexedMatch(AppOpsState.OpsTemplate tpl, String[][] requested) {
+        final PermissionOpIndex index = new PermissionOpIndex(tpl);
+        int hash = 0;
+        for (int i=0; i<requested.length; i++) {
+            for (int j=0; j<requested[i].length; j++) {
+                final int op = index.getOp(requested[i][j]);
+                if (op >= 0) {
+                    hash = hash * 31 + op;
+                }
+            }
+        }
+        return hash;
+    }
+
+    public void testMatchPermissions() {
+        for (int appCount : APP_COUNTS) {
+            final String[][] requested = buildRequestedPermissions(appCount);
+
+            for (AppOpsState.OpsTemplate tpl : AppOpsState.ALL_TEMPLATES) {
+                assertEquals(linearMatch(tpl, requested), indexedMatch(tpl, requested));
+            }
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int i=0; i<ITERATIONS; i++) {
+                for (AppOpsState.OpsTemplate tpl : AppOpsState.ALL_TEMPLATES) {
+                    linearMatch(tpl, requested);
+                }
+            }
+            final long linear = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int i=0; i<ITERATIONS; i++) {
+                for (AppOpsState.OpsTemplate tpl : AppOpsState.ALL_TEMPLATES) {
+                    indexedMatch(tpl, requested);
+                }
+            }
+            final long indexed = SystemClock.elapsedRealtimeNanos() - start;
+
+            Log.i(TAG, appCount + " apps: linear " + (linear / ITERATIONS / 1000)
+                    + "us, indexed " + (indexed / ITERATIONS / 1000) + "us");
+        }
+    }
+
+    public void testFirstOpWins() {
+        for (AppOpsState.OpsTemplate tpl : AppOpsState.ALL_TEMPLATES) {
+            final PermissionOpIndex index = new PermissionOpIndex(tpl);
+            for (String perm : index.getPermissions()) {
+                final int op = index.getOp(perm);
+                for (int i=0; i<tpl.ops.length; i++) {
+                    if (tpl.showPerms[i] && perm.equals(AppOpsManager.opToPermission(tpl.ops[i]))) {
+                        assertEquals(tpl.ops[i], op);
+                        break;
+                    }
+                }
+            }
+            assertEquals(-1, index.getOp("com.example.permission.UNRELATED"));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.widget;
+
+import static android.text.format.DateUtils.HOUR_IN_MILLIS;
+import static android.text.format.DateUtils.YEAR_IN_MILLIS;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.net.NetworkStats;
+import android.net.NetworkStatsHistory;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Times frames of {@link ChartNetworkSeriesView} over a year of hourly
+ * history while the vertical axis changes, as it does during sweep drags,
+ * and checks the reduced series still adds up.
+ */
+public class ChartNetworkSeriesViewBenchmark extends AndroidTestCase {
+    private static final String TAG = "ChartNetworkSeriesViewBenchmark";
+
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 400;
+    private static final int FRAMES = 60;
+
+    private static final long END = 1370000000000L;
+    private static final long START = END - YEAR_IN_MILLIS;
+
+    private ChartDataUsageView.TimeAxis mHoriz;
+    private InvertedChartAxis mVert;
+    private ChartNetworkSeriesView mView;
+    private long mTotal;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        final NetworkStatsHistory history = new NetworkStatsHistory(HOUR_IN_MILLIS);
+        long bytes = 0;
+        for (long time = START; time < END; time += HOUR_IN_MILLIS) {
+            // vary usage, with some idle hours
+            bytes = (bytes * 31 + 17) % 5000000;
+            if (bytes % 7 != 0) {
+                history.recordData(time, time + HOUR_IN_MILLIS,
+                        new NetworkStats.Entry(bytes, 1, bytes / 10, 1, 0));
+            }
+        }
+
+        mHoriz = new ChartDataUsageView.TimeAxis();
+        mHoriz.setBounds(START, END);
+        mHoriz.setSize(WIDTH);
+        mVert = new InvertedChartAxis(new ChartDataUsageView.DataAxis());
+        mVert.setSize(HEIGHT);
+
+        mView = new ChartNetworkSeriesView(getContext());
+        mView.init(mHoriz, mVert);
+        mView.setBounds(START, END);
+        mView.bindNetworkStats(history);
+        mView.layout(0, 0, WIDTH, HEIGHT);
+
+        final NetworkStatsHistory.Entry entry = history.getValues(START, END, null);
+        mTotal = entry.rxBytes + entry.txBytes;
+        mVert.setBounds(0, mTotal * 2);
+    }
+
+    public void testFrameTime() {
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT,
+                Bitmap.Config.ARGB_8888));
+
+        // warm up, reducing the series once
+        mView.draw(canvas);
+
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < FRAMES; i++) {
+            // grow the vertical axis, like hovering a sweep near the top
+            mVert.setBounds(0, mTotal * 2 + i * 1024);
+            mView.invalidatePath();
+            mView.draw(canvas);
+        }
+        final long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        Log.i(TAG, "frame with path rebuild: " + (elapsed / FRAMES / 1000) + "us");
+
+        final ChartNetworkSeriesView.ReducedSeries series = mView.getReducedSeries();
+        assertTrue("too many points: " + series.size, series.size <= WIDTH * 2 + 2);
+        assertEquals(mTotal, series.getTotal());
+        assertEquals(mTotal, mView.getMaxVisible());
+    }
+}